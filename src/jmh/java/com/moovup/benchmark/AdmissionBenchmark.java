@@ -0,0 +1,115 @@
+package com.moovup.benchmark;
+
+import com.moovup.model.AllowRequest;
+import com.moovup.model.Bucket;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.service.LeakyBucketRateLimiter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot-path baseline: admission and single-bucket reads on both limiters
+ * across key-space sizes and key distributions. Reports ops/s and sampled
+ * latency percentiles; add {@code -prof gc} for allocation rate and
+ * {@code -t N} to scale threads.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class AdmissionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiters {
+        @Param({"1", "1000", "1000000", "10000000"})
+        public int keySpace;
+
+        @Param({"uniform", "zipfian"})
+        public String distribution;
+
+        String[] userIds;
+        ConcurrentLeakyBucketRateLimiter concurrent;
+        LeakyBucketRateLimiter snapshot;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            userIds = new String[keySpace];
+            concurrent = ConcurrentLeakyBucketRateLimiter.createRateLimiter(100.0, 1_000.0);
+            snapshot = LeakyBucketRateLimiter.createRateLimiter(100.0, 1_000.0);
+            for (int i = 0; i < keySpace; i++) {
+                userIds[i] = "user-" + i;
+                concurrent.allowRequest(userIds[i], 0.0);
+            }
+            for (int i = 0; i < keySpace; i++) {
+                snapshot = LeakyBucketRateLimiter.allowRequest(snapshot, userIds[i], 0.0)
+                        .getNewLimiterState();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        int cursor;
+        long tick;
+        LeakyBucketRateLimiter snapshot;
+
+        @Setup
+        public void setUp(Limiters limiters) {
+            keys = KeyDistribution.sequence(limiters.distribution, limiters.keySpace,
+                    limiters.threadSeeds.incrementAndGet());
+            snapshot = limiters.snapshot;
+        }
+
+        String nextUser(Limiters limiters) {
+            return limiters.userIds[keys[cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)]];
+        }
+
+        double nextTimestamp() {
+            return ++tick / 1_000_000.0;
+        }
+    }
+
+    @Benchmark
+    public boolean concurrentAllowRequest(Limiters limiters, Requests requests) {
+        return limiters.concurrent.allowRequest(requests.nextUser(limiters), requests.nextTimestamp());
+    }
+
+    @Benchmark
+    public boolean concurrentAllowRequestSingleKey(Limiters limiters, Requests requests) {
+        return limiters.concurrent.allowRequest(limiters.userIds[0], requests.nextTimestamp());
+    }
+
+    @Benchmark
+    public boolean snapshotAllowRequest(Limiters limiters, Requests requests) {
+        AllowRequest result = LeakyBucketRateLimiter.allowRequest(
+                requests.snapshot, requests.nextUser(limiters), requests.nextTimestamp());
+        requests.snapshot = result.getNewLimiterState();
+        return result.isAllowed();
+    }
+
+    @Benchmark
+    public Bucket concurrentGetBucketState(Limiters limiters, Requests requests) {
+        return limiters.concurrent.getBucketState(requests.nextUser(limiters));
+    }
+
+    @Benchmark
+    public Bucket snapshotGetBucketState(Limiters limiters, Requests requests) {
+        return LeakyBucketRateLimiter.getBucketState(limiters.snapshot, requests.nextUser(limiters));
+    }
+}
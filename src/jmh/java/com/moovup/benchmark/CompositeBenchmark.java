@@ -0,0 +1,159 @@
+package com.moovup.benchmark;
+
+import com.moovup.model.BucketState;
+import com.moovup.policy.RatePolicy;
+import com.moovup.service.CompositeRateLimiter;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * User, tenant and global limits on one request, from 8 threads: the
+ * all-or-nothing composite limiter, which locks one key stripe per level in
+ * level order, checks every level and then charges them all; the same check
+ * over a chain of monitor-guarded {@link BucketState} nodes; and three
+ * independent limiter calls, which charge earlier levels even when a later
+ * one rejects. Every request takes the global bucket, so both all-or-nothing
+ * variants serialize on it.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(8)
+public class CompositeBenchmark {
+    private static final int TENANTS = 100;
+
+    @State(Scope.Benchmark)
+    public static class Limiters {
+        @Param({"100000"})
+        public int keySpace;
+
+        String[][] keys;
+        CompositeRateLimiter composite;
+        LockedChain locked;
+        ConcurrentLeakyBucketRateLimiter users;
+        ConcurrentLeakyBucketRateLimiter tenants;
+        ConcurrentLeakyBucketRateLimiter global;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            composite = CompositeRateLimiter.createRateLimiter(
+                    new RatePolicy("user", 100.0, 1_000.0),
+                    new RatePolicy("tenant", 10_000.0, 100_000.0),
+                    new RatePolicy("global", 1_000_000.0, 10_000_000.0));
+            locked = new LockedChain(new double[] {100.0, 10_000.0, 1_000_000.0},
+                    new double[] {1_000.0, 100_000.0, 10_000_000.0});
+            users = ConcurrentLeakyBucketRateLimiter.createRateLimiter(100.0, 1_000.0);
+            tenants = ConcurrentLeakyBucketRateLimiter.createRateLimiter(10_000.0, 100_000.0);
+            global = ConcurrentLeakyBucketRateLimiter.createRateLimiter(1_000_000.0, 10_000_000.0);
+            keys = new String[keySpace][];
+            for (int i = 0; i < keySpace; i++) {
+                keys[i] = new String[] {"user-" + i, "tenant-" + i % TENANTS, "*"};
+                composite.allowRequest(keys[i], 0.0);
+                locked.allowRequest(keys[i], 0.0);
+                users.allowRequest(keys[i][0], 0.0);
+                tenants.allowRequest(keys[i][1], 0.0);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        int cursor;
+        long tick;
+
+        @Setup
+        public void setUp(Limiters limiters) {
+            keys = KeyDistribution.sequence("zipfian", limiters.keySpace,
+                    limiters.threadSeeds.incrementAndGet());
+        }
+
+        String[] next(Limiters limiters) {
+            return limiters.keys[keys[cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)]];
+        }
+    }
+
+    @Benchmark
+    public boolean composite(Limiters limiters, Requests requests) {
+        return limiters.composite.allowRequest(requests.next(limiters), ++requests.tick / 1_000_000.0);
+    }
+
+    @Benchmark
+    public boolean lockedChain(Limiters limiters, Requests requests) {
+        return limiters.locked.allowRequest(requests.next(limiters), ++requests.tick / 1_000_000.0);
+    }
+
+    @Benchmark
+    public boolean separateCalls(Limiters limiters, Requests requests) {
+        String[] keys = requests.next(limiters);
+        double timestamp = ++requests.tick / 1_000_000.0;
+        return limiters.users.allowRequest(keys[0], timestamp)
+                && limiters.tenants.allowRequest(keys[1], timestamp)
+                && limiters.global.allowRequest(keys[2], timestamp);
+    }
+
+    /**
+     * Nested-monitor baseline: locks one {@link BucketState} per level in
+     * level order, then leaks, checks and charges them all.
+     */
+    static final class LockedChain {
+        private final double[] capacities;
+        private final double[] leakRates;
+        private final List<Map<String, BucketState>> levels = new ArrayList<>();
+
+        LockedChain(double[] capacities, double[] leakRates) {
+            this.capacities = capacities;
+            this.leakRates = leakRates;
+            for (int i = 0; i < capacities.length; i++) {
+                levels.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        boolean allowRequest(String[] keys, double timestamp) {
+            return admit(keys, new BucketState[keys.length], 0, timestamp);
+        }
+
+        private boolean admit(String[] keys, BucketState[] chain, int level, double timestamp) {
+            if (level == chain.length) {
+                for (BucketState bucket : chain) {
+                    bucket.leak(timestamp);
+                    if (bucket.getRetryAfter(1.0) > 0) {
+                        return false;
+                    }
+                }
+                for (BucketState bucket : chain) {
+                    bucket.allowRequest(1.0);
+                }
+                return true;
+            }
+            BucketState bucket = levels.get(level).computeIfAbsent(keys[level],
+                    key -> new BucketState(capacities[level], leakRates[level], timestamp));
+            synchronized (bucket) {
+                chain[level] = bucket;
+                return admit(keys, chain, level + 1, timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.moovup.benchmark;
+
+import com.moovup.model.AtomicBucket;
+import com.moovup.model.BucketState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-key contention: leak+admit on one hot bucket, the lock-free
+ * {@link AtomicBucket} against a monitor-guarded {@link BucketState}.
+ * Runs 8 threads by default; rerun with {@code -t 1}, {@code -t 2} and so
+ * on for the scaling curve.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    private AtomicBucket atomic;
+    private BucketState locked;
+
+    @Setup
+    public void setUp() {
+        atomic = new AtomicBucket(1_000.0, 100_000.0, 0.0);
+        locked = new BucketState(1_000.0, 100_000.0, 0.0);
+    }
+
+    /**
+     * Each thread's own clock, one microsecond per request.
+     */
+    @State(Scope.Thread)
+    public static class Clock {
+        long iteration;
+
+        double next() {
+            return iteration++ / 1_000_000.0;
+        }
+    }
+
+    @Benchmark
+    public boolean atomicBucket(Clock clock) {
+        return atomic.allowRequest(clock.next(), 1.0);
+    }
+
+    @Benchmark
+    public boolean synchronizedBucket(Clock clock) {
+        double timestamp = clock.next();
+        synchronized (locked) {
+            locked.leak(timestamp);
+            return locked.allowRequest(1.0);
+        }
+    }
+}
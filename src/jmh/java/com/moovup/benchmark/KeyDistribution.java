@@ -0,0 +1,80 @@
+package com.moovup.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Key index generators for benchmarks. Indices are precomputed into a
+ * ring so the measured loop only pays for an array read.
+ *
+ * @author thiyagaraja
+ */
+public final class KeyDistribution {
+    static final int SEQUENCE_LENGTH = 1 << 20;
+
+    private KeyDistribution() {
+    }
+
+    /**
+     * Returns {@link #SEQUENCE_LENGTH} key indices in {@code [0, keySpace)}
+     * drawn from the named distribution, {@code uniform} or {@code zipfian}.
+     */
+    public static int[] sequence(String distribution, int keySpace, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] sequence = new int[SEQUENCE_LENGTH];
+        switch (distribution) {
+            case "uniform" -> {
+                for (int i = 0; i < sequence.length; i++) {
+                    sequence[i] = random.nextInt(keySpace);
+                }
+            }
+            case "zipfian" -> {
+                Zipfian zipfian = new Zipfian(keySpace, 0.99);
+                for (int i = 0; i < sequence.length; i++) {
+                    sequence[i] = zipfian.next(random);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown distribution: " + distribution);
+        }
+        return sequence;
+    }
+
+    /**
+     * Zipfian generator from Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases", as used by YCSB. Index 0 is the hottest key.
+     */
+    static final class Zipfian {
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(int items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            this.zetaN = zeta(items, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        int next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, items - 1);
+            }
+            return (int) Math.min(items - 1, items * Math.pow(eta * u - eta + 1, alpha));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.moovup.benchmark;
+
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.PrimitiveBucketStore;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Admission on a {@link PrimitiveBucketStore} by key type: a string decoded
+ * from the header bytes on every call, as callers had to before, against a
+ * numeric id, a byte slice and a direct buffer hashed in place. Run with
+ * {@code -prof gc}; the in-place keys should allocate nothing per call.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyTypeBenchmark {
+    private static final int KEY_OFFSET = "X-Api-Key: ".length();
+    private static final int KEY_LENGTH = 12;
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        @Param({"1000", "1000000"})
+        public int keySpace;
+
+        @Param({"uniform", "zipfian"})
+        public String distribution;
+
+        ConcurrentLeakyBucketRateLimiter limiter;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                    new PrimitiveBucketStore(100.0, 1_000.0, keySpace));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        byte[][] headers;
+        ByteBuffer[] buffers;
+        int cursor;
+        long nanoTime;
+
+        @Setup
+        public void setUp(Limiter limiter) {
+            keys = KeyDistribution.sequence(limiter.distribution, limiter.keySpace,
+                    limiter.threadSeeds.incrementAndGet());
+            headers = new byte[limiter.keySpace][];
+            buffers = new ByteBuffer[limiter.keySpace];
+            for (int i = 0; i < limiter.keySpace; i++) {
+                headers[i] = String.format("X-Api-Key: %012d\r\n", i).getBytes(StandardCharsets.US_ASCII);
+                buffers[i] = ByteBuffer.allocateDirect(headers[i].length).put(headers[i])
+                        .position(KEY_OFFSET).limit(KEY_OFFSET + KEY_LENGTH);
+            }
+        }
+
+        int next() {
+            nanoTime += 1_000;
+            return keys[cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)];
+        }
+    }
+
+    @Benchmark
+    public boolean decodedString(Limiter limiter, Requests requests) {
+        int key = requests.next();
+        String userId = new String(requests.headers[key], KEY_OFFSET, KEY_LENGTH, StandardCharsets.US_ASCII);
+        return limiter.limiter.allowRequestNanos(userId, requests.nanoTime, 1.0);
+    }
+
+    @Benchmark
+    public boolean numericId(Limiter limiter, Requests requests) {
+        int key = requests.next();
+        return limiter.limiter.allowRequestNanos((long) key, requests.nanoTime, 1.0);
+    }
+
+    @Benchmark
+    public boolean byteSlice(Limiter limiter, Requests requests) {
+        int key = requests.next();
+        return limiter.limiter.allowRequestNanos(requests.headers[key], KEY_OFFSET, KEY_LENGTH,
+                requests.nanoTime, 1.0);
+    }
+
+    @Benchmark
+    public boolean directBuffer(Limiter limiter, Requests requests) {
+        int key = requests.next();
+        return limiter.limiter.allowRequestNanos(requests.buffers[key], requests.nanoTime, 1.0);
+    }
+}
@@ -0,0 +1,85 @@
+package com.moovup.benchmark;
+
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.service.LeakyBucketRateLimiter;
+import com.moovup.store.BucketStore;
+import com.moovup.store.ConcurrentMapBucketStore;
+import com.moovup.store.PrimitiveBucketStore;
+import com.moovup.store.SketchBucketStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap cost per tracked user of each bucket store. Each invocation builds
+ * a store holding {@link #USERS} users, counted as that many operations,
+ * so under {@code -prof gc} (the benchmark profile's default) the
+ * {@code gc.alloc.rate.norm} column is bytes allocated per user. User id
+ * strings are allocated up front and shared, so only what each store keeps
+ * per user is counted. The concurrent stores retain nearly all they
+ * allocate; the snapshot limiter's figure includes the paths it copies on
+ * every insert, and the sketch store's footprint is fixed, so its figure
+ * falls as users grow.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+@OperationsPerInvocation(MemoryFootprintBenchmark.USERS)
+public class MemoryFootprintBenchmark {
+    static final int USERS = 1 << 18;
+
+    private final String[] userIds = new String[USERS];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user-" + i;
+        }
+    }
+
+    @Benchmark
+    public LeakyBucketRateLimiter snapshotLimiter() {
+        LeakyBucketRateLimiter limiter = LeakyBucketRateLimiter.createRateLimiter(10.0, 1.0);
+        for (String userId : userIds) {
+            limiter = LeakyBucketRateLimiter.allowRequest(limiter, userId, 0.0).getNewLimiterState();
+        }
+        return limiter;
+    }
+
+    @Benchmark
+    public ConcurrentLeakyBucketRateLimiter concurrentMapStore() {
+        return fill(new ConcurrentMapBucketStore(10.0, 1.0));
+    }
+
+    @Benchmark
+    public ConcurrentLeakyBucketRateLimiter primitiveStore() {
+        return fill(new PrimitiveBucketStore(10.0, 1.0, USERS));
+    }
+
+    @Benchmark
+    public ConcurrentLeakyBucketRateLimiter sketchStore() {
+        return fill(new SketchBucketStore(10.0, 1.0, 1e-4, 1e-3, 1_024));
+    }
+
+    private ConcurrentLeakyBucketRateLimiter fill(BucketStore store) {
+        ConcurrentLeakyBucketRateLimiter limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(store);
+        for (String userId : userIds) {
+            limiter.allowRequest(userId, 0.0);
+        }
+        return limiter;
+    }
+}
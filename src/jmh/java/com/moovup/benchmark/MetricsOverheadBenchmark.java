@@ -0,0 +1,89 @@
+package com.moovup.benchmark;
+
+import com.moovup.metrics.LimiterMetrics;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.ConcurrentMapBucketStore;
+import com.moovup.time.TimeSource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Admission cost with metrics off, counters only, and counters plus
+ * sampled latency (1 in 64, and every request), and 1-in-64 sampling with
+ * top-100 heavy hitters. The {@code off} row is the
+ * baseline; run with {@code -prof gc} to confirm metrics allocate nothing
+ * and with {@code -t N} to check the counters do not contend.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MetricsOverheadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        @Param({"off", "counters", "sampled", "hitters", "every"})
+        public String metrics;
+
+        @Param({"1000", "1000000"})
+        public int keySpace;
+
+        String[] userIds;
+        ConcurrentLeakyBucketRateLimiter limiter;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(100.0, 1_000.0);
+            limiter = switch (metrics) {
+                case "off" -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(store);
+                case "counters" -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                        store, TimeSource.system(), new LimiterMetrics());
+                case "sampled" -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                        store, TimeSource.system(), new LimiterMetrics(64));
+                case "hitters" -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                        store, TimeSource.system(), new LimiterMetrics(64, 100));
+                case "every" -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                        store, TimeSource.system(), new LimiterMetrics(1));
+                default -> throw new IllegalArgumentException("Unknown metrics mode: " + metrics);
+            };
+            userIds = new String[keySpace];
+            for (int i = 0; i < keySpace; i++) {
+                userIds[i] = "user-" + i;
+                limiter.allowRequest(userIds[i], 0.0);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        int cursor;
+        long tick;
+
+        @Setup
+        public void setUp(Limiter limiter) {
+            keys = KeyDistribution.sequence("zipfian", limiter.keySpace, limiter.threadSeeds.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public boolean allowRequest(Limiter limiter, Requests requests) {
+        String userId = limiter.userIds[requests.keys[requests.cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)]];
+        return limiter.limiter.allowRequest(userId, ++requests.tick / 1_000_000.0);
+    }
+}
@@ -0,0 +1,88 @@
+package com.moovup.benchmark;
+
+import com.moovup.remote.BucketServer;
+import com.moovup.remote.RemoteBucketStore;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.ConcurrentMapBucketStore;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Admission throughput through a loopback {@link BucketServer}, with one
+ * shared connection per node. Run with {@code -t 1} to see the bare round
+ * trip and with more threads to see batching amortise it; the printed
+ * calls-per-write ratio at tear-down shows how many admissions shared each
+ * flush.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RemoteStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        @Param({"10000"})
+        public int keySpace;
+
+        String[] userIds;
+        BucketServer server;
+        RemoteBucketStore store;
+        ConcurrentLeakyBucketRateLimiter limiter;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws IOException {
+            server = BucketServer.start(new ConcurrentMapBucketStore(100.0, 1_000.0), 0);
+            store = RemoteBucketStore.connect(server.getPort());
+            limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(store);
+            userIds = new String[keySpace];
+            for (int i = 0; i < keySpace; i++) {
+                userIds[i] = "user-" + i;
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            System.out.printf("%ncalls per write: %.1f%n",
+                    (double) store.getRequestCount() / Math.max(1, store.getBatchCount()));
+            store.close();
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        int cursor;
+        long tick;
+
+        @Setup
+        public void setUp(Limiter limiter) {
+            keys = KeyDistribution.sequence("zipfian", limiter.keySpace,
+                    limiter.threadSeeds.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public boolean allowRequest(Limiter limiter, Requests requests) {
+        String userId = limiter.userIds[requests.keys[requests.cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)]];
+        return limiter.limiter.allowRequest(userId, ++requests.tick / 1_000_000.0);
+    }
+}
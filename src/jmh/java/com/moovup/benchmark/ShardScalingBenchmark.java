@@ -0,0 +1,79 @@
+package com.moovup.benchmark;
+
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Admission throughput of the sharded limiter under Zipfian keys. Run once
+ * per core count to get the scaling curve, e.g.
+ * {@code -t 1}, {@code -t 2}, {@code -t 4} and so on (see the README);
+ * with enough shards, ops/s should grow close to linearly with {@code t}.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ShardScalingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+        @Param({"1", "4", "16", "64"})
+        public int shards;
+
+        @Param({"1000000"})
+        public int keySpace;
+
+        String[] userIds;
+        ConcurrentLeakyBucketRateLimiter limiter;
+        final AtomicInteger threadSeeds = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            userIds = new String[keySpace];
+            limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(100.0, 1_000.0, shards);
+            for (int i = 0; i < keySpace; i++) {
+                userIds[i] = "user-" + i;
+                limiter.allowRequest(userIds[i], 0.0);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+        int[] keys;
+        int cursor;
+        long tick;
+
+        @Setup
+        public void setUp(Limiter limiter) {
+            keys = KeyDistribution.sequence("zipfian", limiter.keySpace,
+                    limiter.threadSeeds.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public boolean allowRequest(Limiter limiter, Requests requests) {
+        String userId = limiter.userIds[requests.keys[requests.cursor++ & (KeyDistribution.SEQUENCE_LENGTH - 1)]];
+        return limiter.limiter.allowRequest(userId, ++requests.tick / 1_000_000.0);
+    }
+
+    @Benchmark
+    public int getUserCount(Limiter limiter) {
+        return limiter.limiter.getUserCount();
+    }
+}
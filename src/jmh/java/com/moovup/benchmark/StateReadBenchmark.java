@@ -0,0 +1,85 @@
+package com.moovup.benchmark;
+
+import com.moovup.model.Bucket;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.service.LeakyBucketRateLimiter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of full-state exports: {@code getAllBucketStates} against the
+ * streaming visitor, sequential and parallel.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class StateReadBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int keySpace;
+
+    private ConcurrentLeakyBucketRateLimiter concurrent;
+    private LeakyBucketRateLimiter snapshot;
+
+    @Setup
+    public void setUp() {
+        concurrent = ConcurrentLeakyBucketRateLimiter.createRateLimiter(100.0, 1.0);
+        snapshot = LeakyBucketRateLimiter.createRateLimiter(100.0, 1.0);
+        for (int i = 0; i < keySpace; i++) {
+            String userId = "user-" + i;
+            concurrent.allowRequest(userId, 0.0);
+            snapshot = LeakyBucketRateLimiter.allowRequest(snapshot, userId, 0.0).getNewLimiterState();
+        }
+    }
+
+    @Benchmark
+    public Map<String, Bucket> concurrentGetAllBucketStates() {
+        return concurrent.getAllBucketStates();
+    }
+
+    @Benchmark
+    public Map<String, Bucket> snapshotGetAllBucketStates() {
+        return LeakyBucketRateLimiter.getAllBucketStates(snapshot);
+    }
+
+    @Benchmark
+    public double concurrentForEachBucketState() {
+        double[] total = new double[1];
+        concurrent.forEachBucketState(0.5,
+                (userId, level, capacity, leakRate, lastLeakTime) -> total[0] += level);
+        return total[0];
+    }
+
+    @Benchmark
+    public double concurrentForEachBucketStateParallel() {
+        DoubleAdder total = new DoubleAdder();
+        concurrent.forEachBucketStateParallel(0.5,
+                (userId, level, capacity, leakRate, lastLeakTime) -> total.add(level));
+        return total.sum();
+    }
+
+    @Benchmark
+    public double snapshotForEachBucketState() {
+        double[] total = new double[1];
+        LeakyBucketRateLimiter.forEachBucketState(snapshot, 0.5,
+                (userId, level, capacity, leakRate, lastLeakTime) -> total[0] += level);
+        return total[0];
+    }
+}
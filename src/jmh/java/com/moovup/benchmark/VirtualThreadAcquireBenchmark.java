@@ -0,0 +1,80 @@
+package com.moovup.benchmark;
+
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Blocking {@code acquire} under heavy waiting: 100k virtual threads share
+ * 1k keys, so about 100 threads queue behind every bucket. Each invocation
+ * runs every thread to completion and counts one operation per admission,
+ * so the score is time per admission; the configured leak rates put the
+ * floor at 1 us. Add {@code -jvmArgsAppend -Djdk.tracePinnedThreads=full}
+ * to confirm no carrier thread gets pinned.
+ *
+ * @author thiyagaraja
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(VirtualThreadAcquireBenchmark.THREADS * VirtualThreadAcquireBenchmark.ACQUIRES_PER_THREAD)
+public class VirtualThreadAcquireBenchmark {
+    static final int THREADS = 100_000;
+    static final int ACQUIRES_PER_THREAD = 5;
+    private static final int KEYS = 1_000;
+    private static final double CAPACITY = 10.0;
+    private static final double LEAK_RATE = 1_000.0;
+
+    private final String[] userIds = new String[KEYS];
+    private ConcurrentLeakyBucketRateLimiter limiter;
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        for (int i = 0; i < KEYS; i++) {
+            userIds[i] = "user-" + i;
+        }
+    }
+
+    /**
+     * A fresh limiter per invocation, so every run starts from full capacity.
+     */
+    @Setup(Level.Invocation)
+    public void setUpLimiter() {
+        limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE);
+    }
+
+    @Benchmark
+    public void acquireFromVirtualThreads() {
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < THREADS; t++) {
+                String userId = userIds[t % KEYS];
+                executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ACQUIRES_PER_THREAD; i++) {
+                        limiter.acquire(userId);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+        }
+    }
+}
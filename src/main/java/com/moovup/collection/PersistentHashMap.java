@@ -0,0 +1,175 @@
+package com.moovup.collection;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie. Every {@link #put} returns a new map that
+ * shares all untouched nodes with the original, so an update copies only the
+ * O(log32 n) nodes on the path to the changed key and old versions stay valid.
+ *
+ * @author thiyagaraja
+ */
+public final class PersistentHashMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY =
+            new PersistentHashMap<>(new BitmapNode(0, new Object[0]), 0);
+
+    private final BitmapNode root;
+    private final int size;
+
+    private PersistentHashMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        return (V) find(root, 0, hash(key), key);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public PersistentHashMap<K, V> put(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Keys and values cannot be null");
+        }
+        int hash = hash(key);
+        boolean added = find(root, 0, hash, key) == null;
+        BitmapNode newRoot = (BitmapNode) insert(root, 0, new Leaf(hash, key, value));
+        return new PersistentHashMap<>(newRoot, added ? size + 1 : size);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        visit(root, (BiConsumer<Object, Object>) action);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static Object find(Object node, int shift, int hash, Object key) {
+        while (true) {
+            if (node instanceof Leaf leaf) {
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf.value : null;
+            }
+            if (node instanceof CollisionNode collision) {
+                if (collision.hash != hash) {
+                    return null;
+                }
+                for (Leaf leaf : collision.leaves) {
+                    if (leaf.key.equals(key)) {
+                        return leaf.value;
+                    }
+                }
+                return null;
+            }
+            BitmapNode bitmapNode = (BitmapNode) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                return null;
+            }
+            node = bitmapNode.slots[Integer.bitCount(bitmapNode.bitmap & (bit - 1))];
+            shift += BITS;
+        }
+    }
+
+    private static Object insert(Object node, int shift, Leaf leaf) {
+        if (node instanceof Leaf existing) {
+            if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                return existing.value == leaf.value ? existing : leaf;
+            }
+            return merge(existing, existing.hash, leaf, shift);
+        }
+        if (node instanceof CollisionNode collision) {
+            if (collision.hash != leaf.hash) {
+                return merge(collision, collision.hash, leaf, shift);
+            }
+            Leaf[] leaves = collision.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(leaf.key)) {
+                    Leaf[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new CollisionNode(collision.hash, copy);
+                }
+            }
+            Leaf[] grown = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, grown, 0, leaves.length);
+            grown[leaves.length] = leaf;
+            return new CollisionNode(collision.hash, grown);
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int index = Integer.bitCount(bitmapNode.bitmap & (bit - 1));
+        Object[] slots = bitmapNode.slots;
+        if ((bitmapNode.bitmap & bit) == 0) {
+            Object[] grown = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, grown, 0, index);
+            grown[index] = leaf;
+            System.arraycopy(slots, index, grown, index + 1, slots.length - index);
+            return new BitmapNode(bitmapNode.bitmap | bit, grown);
+        }
+
+        Object child = slots[index];
+        Object newChild = insert(child, shift + BITS, leaf);
+        if (newChild == child) {
+            return bitmapNode;
+        }
+        Object[] copy = slots.clone();
+        copy[index] = newChild;
+        return new BitmapNode(bitmapNode.bitmap, copy);
+    }
+
+    private static Object merge(Object existing, int existingHash, Leaf leaf, int shift) {
+        if (existingHash == leaf.hash) {
+            return new CollisionNode(leaf.hash, new Leaf[] {(Leaf) existing, leaf});
+        }
+        int existingIndex = (existingHash >>> shift) & MASK;
+        int leafIndex = (leaf.hash >>> shift) & MASK;
+        if (existingIndex == leafIndex) {
+            return new BitmapNode(1 << existingIndex,
+                    new Object[] {merge(existing, existingHash, leaf, shift + BITS)});
+        }
+        Object[] slots = existingIndex < leafIndex
+                ? new Object[] {existing, leaf}
+                : new Object[] {leaf, existing};
+        return new BitmapNode((1 << existingIndex) | (1 << leafIndex), slots);
+    }
+
+    private static void visit(Object node, BiConsumer<Object, Object> action) {
+        if (node instanceof Leaf leaf) {
+            action.accept(leaf.key, leaf.value);
+        } else if (node instanceof CollisionNode collision) {
+            for (Leaf leaf : collision.leaves) {
+                action.accept(leaf.key, leaf.value);
+            }
+        } else {
+            for (Object child : ((BitmapNode) node).slots) {
+                visit(child, action);
+            }
+        }
+    }
+
+    private record Leaf(int hash, Object key, Object value) {}
+
+    private record CollisionNode(int hash, Leaf[] leaves) {}
+
+    private record BitmapNode(int bitmap, Object[] slots) {}
+}
@@ -0,0 +1,98 @@
+package com.moovup.eviction;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timer wheel over the millisecond ticks of
+ * {@link com.moovup.model.PackedBucketFormat}. Seven levels of 64 slots
+ * cover the full 42-bit tick range; scheduling is O(1) and advancing visits
+ * at most 64 slots per level, cascading entries down as their level's slot
+ * comes due. Not thread-safe: callers confine it to one maintenance thread
+ * at a time.
+ *
+ * @author thiyagaraja
+ */
+public class TimerWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 7;
+
+    private final Node<T>[][] wheel;
+    private long currentTicks;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long startTicks) {
+        this.wheel = new Node[LEVELS][SLOTS];
+        this.currentTicks = startTicks;
+    }
+
+    /**
+     * Schedules {@code item} to expire once the wheel reaches
+     * {@code deadlineTicks}. Past deadlines expire on the next advance.
+     */
+    public void schedule(T item, long deadlineTicks) {
+        place(new Node<>(item, deadlineTicks));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to {@code targetTicks} and hands every item whose
+     * deadline has passed to {@code onExpired}, which may schedule again.
+     */
+    public void advance(long targetTicks, Consumer<T> onExpired) {
+        if (targetTicks <= currentTicks) {
+            return;
+        }
+        long previousTicks = currentTicks;
+        currentTicks = targetTicks;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * SLOT_BITS;
+            long previousIndex = previousTicks >>> shift;
+            long targetIndex = targetTicks >>> shift;
+            if (targetIndex == previousIndex) {
+                break;
+            }
+            long steps = Math.min(targetIndex - previousIndex, SLOTS);
+            for (long step = 1; step <= steps; step++) {
+                int slot = (int) ((previousIndex + step) & SLOT_MASK);
+                Node<T> node = wheel[level][slot];
+                wheel[level][slot] = null;
+                while (node != null) {
+                    Node<T> next = node.next;
+                    if (node.deadlineTicks <= targetTicks) {
+                        size--;
+                        onExpired.accept(node.item);
+                    } else {
+                        place(node);
+                    }
+                    node = next;
+                }
+            }
+        }
+    }
+
+    public long getCurrentTicks() { return currentTicks; }
+    public int size() { return size; }
+
+    private void place(Node<T> node) {
+        long deadline = Math.max(node.deadlineTicks, currentTicks + 1);
+        int level = Math.min(LEVELS - 1,
+                (Long.SIZE - 1 - Long.numberOfLeadingZeros(deadline ^ currentTicks)) / SLOT_BITS);
+        int slot = (int) ((deadline >>> (level * SLOT_BITS)) & SLOT_MASK);
+        node.next = wheel[level][slot];
+        wheel[level][slot] = node;
+    }
+
+    private static final class Node<T> {
+        private final T item;
+        private final long deadlineTicks;
+        private Node<T> next;
+
+        private Node(T item, long deadlineTicks) {
+            this.item = item;
+            this.deadlineTicks = deadlineTicks;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.moovup.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate top-K keys by weight in bounded memory, using the
+ * Space-Saving algorithm: each summary keeps {@code k} counters, and a key
+ * that is not tracked takes over the smallest counter, inheriting its count
+ * as error. Any key whose true weight exceeds {@code total / k} is
+ * guaranteed to be tracked.
+ * <p>
+ * Summaries are striped by thread like {@link LatencyHistogram}, each
+ * guarded by its own lock, so writers on different stripes never contend.
+ * A writer that finds its stripe's lock taken drops the sample rather than
+ * wait, since {@link #add} sits on the rejection path and must not park
+ * (or pin) the caller; {@link #getDropped} counts those samples.
+ * {@link #top} copies each stripe in O(k) under that stripe's lock and merges
+ * the copies, so reading never stops writers for longer than one copy.
+ *
+ * @author thiyagaraja
+ */
+public final class HeavyHitters {
+    private static final int MAX_STRIPES = 16;
+
+    private final Summary[] stripes;
+    private final int stripeMask;
+    private final int k;
+    private final LongAdder dropped = new LongAdder();
+
+    public HeavyHitters(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int stripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, cores) * 2 - 1) << 1);
+        this.stripes = new Summary[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Summary(k);
+        }
+        this.stripeMask = stripes - 1;
+        this.k = k;
+    }
+
+    public void add(String key, double weight) {
+        long threadId = Thread.currentThread().threadId();
+        int hash = (int) (threadId ^ (threadId >>> Integer.SIZE)) * 0x9E3779B9;
+        if (!stripes[(hash >>> 16) & stripeMask].tryAdd(key, weight)) {
+            dropped.increment();
+        }
+    }
+
+    public int getK() { return k; }
+
+    /**
+     * Samples dropped because their stripe was busy.
+     */
+    public long getDropped() { return dropped.sum(); }
+
+    /**
+     * Up to {@code k} keys with the highest estimated weight, heaviest first.
+     */
+    public List<Entry> top() {
+        Map<String, Entry> merged = new HashMap<>();
+        double[] floors = new double[stripes.length];
+        for (int s = 0; s < stripes.length; s++) {
+            Summary.Node[] copy = stripes[s].copy();
+            floors[s] = copy.length == k ? copy[0].count : 0.0;
+            for (Summary.Node node : copy) {
+                Entry entry = merged.get(node.key);
+                if (entry == null) {
+                    merged.put(node.key, new Entry(node.key, node.count, node.error, 1L << s));
+                } else {
+                    entry.count += node.count;
+                    entry.error += node.error;
+                    entry.stripes |= 1L << s;
+                }
+            }
+        }
+        // A key missing from a full stripe may still have up to that
+        // stripe's smallest count there.
+        for (Entry entry : merged.values()) {
+            for (int s = 0; s < stripes.length; s++) {
+                if ((entry.stripes & (1L << s)) == 0) {
+                    entry.count += floors[s];
+                    entry.error += floors[s];
+                }
+            }
+        }
+        List<Entry> sorted = new ArrayList<>(merged.values());
+        sorted.sort((a, b) -> Double.compare(b.count, a.count));
+        return sorted.size() > k ? new ArrayList<>(sorted.subList(0, k)) : sorted;
+    }
+
+    /**
+     * One tracked key. The true weight lies between
+     * {@code getCount() - getError()} and {@code getCount()}.
+     */
+    public static final class Entry {
+        private final String key;
+        private double count;
+        private double error;
+        private long stripes;
+
+        private Entry(String key, double count, double error, long stripes) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.stripes = stripes;
+        }
+
+        public String getKey() { return key; }
+        public double getCount() { return count; }
+        public double getError() { return error; }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + "(±" + error + ")";
+        }
+    }
+
+    /**
+     * One Space-Saving summary: a min-heap of counters by count, indexed by
+     * key so increments are O(log k).
+     */
+    private static final class Summary {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Node[] heap;
+        private final Map<String, Node> index;
+        private int size;
+
+        Summary(int k) {
+            this.heap = new Node[k];
+            this.index = new HashMap<>(k * 2);
+        }
+
+        /**
+         * Adds {@code weight} to {@code key} unless another thread holds
+         * this summary.
+         *
+         * @return false if the sample was dropped
+         */
+        boolean tryAdd(String key, double weight) {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                add(key, weight);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void add(String key, double weight) {
+            Node node = index.get(key);
+            if (node != null) {
+                node.count += weight;
+                siftDown(node.position);
+                return;
+            }
+            if (size < heap.length) {
+                node = new Node(key, weight, 0.0, size);
+                heap[size++] = node;
+                index.put(key, node);
+                siftUp(node.position);
+                return;
+            }
+            node = heap[0];
+            index.remove(node.key);
+            node.key = key;
+            node.error = node.count;
+            node.count += weight;
+            index.put(key, node);
+            siftDown(0);
+        }
+
+        /**
+         * Copies of the live counters in heap order, so the smallest is first.
+         */
+        Node[] copy() {
+            lock.lock();
+            try {
+                Node[] copy = new Node[size];
+                for (int i = 0; i < size; i++) {
+                    Node node = heap[i];
+                    copy[i] = new Node(node.key, node.count, node.error, i);
+                }
+                return copy;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void siftUp(int i) {
+            Node node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].count <= node.count) {
+                    break;
+                }
+                place(heap[parent], i);
+                i = parent;
+            }
+            place(node, i);
+        }
+
+        private void siftDown(int i) {
+            Node node = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                    child++;
+                }
+                if (node.count <= heap[child].count) {
+                    break;
+                }
+                place(heap[child], i);
+                i = child;
+            }
+            place(node, i);
+        }
+
+        private void place(Node node, int i) {
+            heap[i] = node;
+            node.position = i;
+        }
+
+        private static final class Node {
+            String key;
+            double count;
+            double error;
+            int position;
+
+            Node(String key, double count, double error, int position) {
+                this.key = key;
+                this.count = count;
+                this.error = error;
+                this.position = position;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.moovup.metrics;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission counters for one limiter. Counts go to {@link LongAdder}s, so
+ * recording never allocates or contends on a shared word. Latency is
+ * optional and sampled: with a sample interval of {@code n}, about one
+ * admission in {@code n} is timed, chosen by a thread-local random draw.
+ * Heavy-hitter tracking is optional too: every rejection feeds a top-K of
+ * rejected users, and every sampled admission feeds a top-K of request
+ * volume, so incidents can be triaged without walking all buckets.
+ *
+ * @author thiyagaraja
+ */
+public final class LimiterMetrics {
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram latency;
+    private final int sampleMask;
+    private final HeavyHitters rejectedUsers;
+    private final HeavyHitters requestVolume;
+
+    /**
+     * Counters only, no latency sampling.
+     */
+    public LimiterMetrics() {
+        this.latency = null;
+        this.sampleMask = 0;
+        this.rejectedUsers = null;
+        this.requestVolume = null;
+    }
+
+    /**
+     * @param latencySampleInterval power of two; 1 times every admission
+     */
+    public LimiterMetrics(int latencySampleInterval) {
+        this(latencySampleInterval, 0);
+    }
+
+    /**
+     * @param latencySampleInterval power of two; 1 samples every admission
+     * @param heavyHitters how many users to keep in each top-K, 0 for none
+     */
+    public LimiterMetrics(int latencySampleInterval, int heavyHitters) {
+        if (latencySampleInterval <= 0 || Integer.bitCount(latencySampleInterval) != 1) {
+            throw new IllegalArgumentException("Sample interval must be a positive power of two");
+        }
+        if (heavyHitters < 0) {
+            throw new IllegalArgumentException("Heavy hitter count cannot be negative");
+        }
+        this.latency = new LatencyHistogram();
+        this.sampleMask = latencySampleInterval - 1;
+        this.rejectedUsers = heavyHitters == 0 ? null : new HeavyHitters(heavyHitters);
+        this.requestVolume = heavyHitters == 0 ? null : new HeavyHitters(heavyHitters);
+    }
+
+    /**
+     * True if the caller should time the admission it is about to make.
+     */
+    public boolean sampleLatency() {
+        return latency != null && (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+
+    public void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * Feeds a sampled admission into the volume top-K, scaled by the sample
+     * interval so counts estimate total requested size.
+     */
+    public void recordVolume(String userId, double requestSize) {
+        if (requestVolume != null) {
+            requestVolume.add(userId, requestSize * (sampleMask + 1));
+        }
+    }
+
+    public void recordAllowed() {
+        allowed.increment();
+    }
+
+    public void recordRejected(String userId, double requestSize, long retryAfterNanos) {
+        rejected.increment();
+        if (rejectedUsers != null) {
+            rejectedUsers.add(userId, 1.0);
+        }
+        RejectedRequestEvent event = new RejectedRequestEvent();
+        if (event.isEnabled()) {
+            event.userId = userId;
+            event.requestSize = requestSize;
+            event.retryAfter = retryAfterNanos;
+            event.commit();
+        }
+    }
+
+    public long getAllowedCount() { return allowed.sum(); }
+    public long getRejectedCount() { return rejected.sum(); }
+
+    /**
+     * Users rejected most often, heaviest first; empty if tracking is off.
+     */
+    public List<HeavyHitters.Entry> getTopRejected() {
+        return rejectedUsers == null ? List.of() : rejectedUsers.top();
+    }
+
+    /**
+     * Users with the largest estimated requested size, heaviest first;
+     * empty if tracking is off.
+     */
+    public List<HeavyHitters.Entry> getTopRequestVolume() {
+        return requestVolume == null ? List.of() : requestVolume.top();
+    }
+
+    public MetricsSnapshot snapshot(int bucketCount, long evictionCount) {
+        return new MetricsSnapshot(allowed.sum(), rejected.sum(), bucketCount, evictionCount,
+                latency == null ? null : latency.snapshot(), getTopRejected(), getTopRequestVolume());
+    }
+}
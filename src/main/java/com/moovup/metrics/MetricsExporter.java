@@ -0,0 +1,14 @@
+package com.moovup.metrics;
+
+/**
+ * Receives limiter metrics, e.g. to publish them to a monitoring system.
+ * Called from whichever thread requests the export, never from the
+ * admission path.
+ *
+ * @author thiyagaraja
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    void export(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,69 @@
+package com.moovup.metrics;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of a limiter's counters, as handed to a
+ * {@link MetricsExporter}.
+ *
+ * @author thiyagaraja
+ */
+public final class MetricsSnapshot {
+    private final long allowedCount;
+    private final long rejectedCount;
+    private final int bucketCount;
+    private final long evictionCount;
+    private final LatencyHistogram.Snapshot latency;
+    private final List<HeavyHitters.Entry> topRejected;
+    private final List<HeavyHitters.Entry> topRequestVolume;
+
+    public MetricsSnapshot(long allowedCount, long rejectedCount, int bucketCount,
+                           long evictionCount, LatencyHistogram.Snapshot latency) {
+        this(allowedCount, rejectedCount, bucketCount, evictionCount, latency, List.of(), List.of());
+    }
+
+    public MetricsSnapshot(long allowedCount, long rejectedCount, int bucketCount,
+                           long evictionCount, LatencyHistogram.Snapshot latency,
+                           List<HeavyHitters.Entry> topRejected,
+                           List<HeavyHitters.Entry> topRequestVolume) {
+        this.allowedCount = allowedCount;
+        this.rejectedCount = rejectedCount;
+        this.bucketCount = bucketCount;
+        this.evictionCount = evictionCount;
+        this.latency = latency;
+        this.topRejected = topRejected;
+        this.topRequestVolume = topRequestVolume;
+    }
+
+    public long getAllowedCount() { return allowedCount; }
+    public long getRejectedCount() { return rejectedCount; }
+    public int getBucketCount() { return bucketCount; }
+    public long getEvictionCount() { return evictionCount; }
+
+    /**
+     * Sampled admission latency, or null if sampling is off.
+     */
+    public LatencyHistogram.Snapshot getLatency() { return latency; }
+
+    /**
+     * Approximate top-K of rejected users; empty if tracking is off.
+     */
+    public List<HeavyHitters.Entry> getTopRejected() { return topRejected; }
+
+    /**
+     * Approximate top-K of users by requested size; empty if tracking is off.
+     */
+    public List<HeavyHitters.Entry> getTopRequestVolume() { return topRequestVolume; }
+
+    public double getRejectionRate() {
+        long total = allowedCount + rejectedCount;
+        return total == 0 ? 0.0 : (double) rejectedCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MetricsSnapshot{allowed=%d, rejected=%d, buckets=%d, evictions=%d, p99=%dns}",
+                allowedCount, rejectedCount, bucketCount, evictionCount,
+                latency == null ? 0 : latency.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,34 @@
+package com.moovup.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a rejected request. Disabled unless a recording
+ * enables {@code com.moovup.RejectedRequest}; grouping the events by user id
+ * gives per-key rejection rates.
+ *
+ * @author thiyagaraja
+ */
+@Name("com.moovup.RejectedRequest")
+@Label("Rejected Request")
+@Category("Rate Limiter")
+@Description("A request that did not fit in the user's bucket")
+@StackTrace(false)
+public class RejectedRequestEvent extends Event {
+
+    @Label("User ID")
+    String userId;
+
+    @Label("Request Size")
+    double requestSize;
+
+    @Label("Retry After")
+    @Timespan(Timespan.NANOSECONDS)
+    long retryAfter;
+}
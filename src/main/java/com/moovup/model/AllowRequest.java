@@ -4,19 +4,42 @@ import com.moovup.service.LeakyBucketRateLimiter;
 
 
 /**
+ * Decision of {@link LeakyBucketRateLimiter#allowRequest}: whether the
+ * request was admitted, the limiter version after it, and for a rejected
+ * request how long to wait before the same request would fit.
  *
  * @author thiyagaraja
  */
 public class AllowRequest {
     private final boolean allowed;
         private final LeakyBucketRateLimiter newLimiterState;
+        private final double retryAfter;
+        private final double headroom;
         
         public AllowRequest(boolean allowed, LeakyBucketRateLimiter newLimiterState) {
+            this(allowed, newLimiterState, 0.0, Double.NaN);
+        }
+        
+        public AllowRequest(boolean allowed, LeakyBucketRateLimiter newLimiterState,
+                            double retryAfter, double headroom) {
             this.allowed = allowed;
             this.newLimiterState = newLimiterState;
+            this.retryAfter = retryAfter;
+            this.headroom = headroom;
         }
         
         public boolean isAllowed() { return allowed; }
         public LeakyBucketRateLimiter getNewLimiterState() { return newLimiterState; }
+        
+        /**
+         * Seconds until the rejected request would fit, zero if it was
+         * allowed and infinite if it can never fit.
+         */
+        public double getRetryAfter() { return retryAfter; }
+        
+        /**
+         * Capacity left in the bucket after this decision.
+         */
+        public double getHeadroom() { return headroom; }
     
 }
@@ -0,0 +1,201 @@
+package com.moovup.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Lock-free bucket. Level and last leak time are packed into one 64-bit word
+ * (see {@link PackedBucketFormat}) so that leak and admission happen in a
+ * single compare-and-set loop. A bucket can be retired once, after which it
+ * rejects every request and its owner must replace it.
+ *
+ * <p>Subclasses may override {@link #getFormat()} to look the format up on
+ * every call instead of fixing it at construction, which lets the capacity
+ * and leak rate change without rewriting the bucket.
+ *
+ * @author thiyagaraja
+ */
+public class AtomicBucket {
+    /** Result of {@link #allowRequestOrReadyTicks} for an admitted request. */
+    public static final long ADMITTED = -1L;
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(AtomicBucket.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final PackedBucketFormat format;
+    private volatile long state;
+
+    public AtomicBucket(double capacity, double leakRate, double timestamp) {
+        this(new PackedBucketFormat(capacity, leakRate), 0.0, timestamp);
+    }
+
+    public AtomicBucket(double capacity, double leakRate, double currentLevel, double lastLeakTime) {
+        this(new PackedBucketFormat(capacity, leakRate), currentLevel, lastLeakTime);
+    }
+
+    public AtomicBucket(PackedBucketFormat format, double currentLevel, double lastLeakTime) {
+        this(format, format.pack(currentLevel, lastLeakTime));
+    }
+
+    public AtomicBucket(PackedBucketFormat format, long state) {
+        this.format = format;
+        this.state = state;
+    }
+
+    /**
+     * For subclasses that override {@link #getFormat()}.
+     */
+    protected AtomicBucket(long state) {
+        this(null, state);
+    }
+
+    /**
+     * Leaks the bucket up to {@code timestamp} and admits {@code requestSize}
+     * if it fits, as one atomic step.
+     */
+    public boolean allowRequest(double timestamp, double requestSize) {
+        PackedBucketFormat format = getFormat();
+        return allowRequest(format.toTicks(PackedBucketFormat.toNanos(timestamp)),
+                format.toQuanta(requestSize));
+    }
+
+    /**
+     * Same as {@link #allowRequest(double, double)} with time and size already
+     * converted by this bucket's {@link PackedBucketFormat}.
+     */
+    public boolean allowRequest(long ticks, long requestQuanta) {
+        return allowRequestOrReadyTicks(ticks, requestQuanta) == ADMITTED;
+    }
+
+    /**
+     * Same as {@link #allowRequest(long, long)}, but a rejection reports the
+     * first tick at which the request would fit ({@link Long#MAX_VALUE} if
+     * never, or for a retired bucket). A rejection leaves the bucket as it
+     * was.
+     *
+     * @return {@link #ADMITTED} or the tick to retry at
+     */
+    public long allowRequestOrReadyTicks(long ticks, long requestQuanta) {
+        PackedBucketFormat format = getFormat();
+        while (true) {
+            long current = state;
+            if (current == PackedBucketFormat.RETIRED) {
+                return Long.MAX_VALUE;
+            }
+            if (!format.fits(current, ticks, requestQuanta)) {
+                return format.readyTicks(current, requestQuanta);
+            }
+            if (STATE.compareAndSet(this, current, format.add(current, ticks, requestQuanta))) {
+                return ADMITTED;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #allowRequestOrReadyTicks}, but only checks: the bucket
+     * is left as it is either way.
+     *
+     * @return {@link #ADMITTED} if the request fits, or the tick to retry at
+     */
+    public long checkOrReadyTicks(long ticks, long requestQuanta) {
+        PackedBucketFormat format = getFormat();
+        long current = state;
+        if (current == PackedBucketFormat.RETIRED) {
+            return Long.MAX_VALUE;
+        }
+        return format.fits(current, ticks, requestQuanta) ? ADMITTED : format.readyTicks(current, requestQuanta);
+    }
+
+    /**
+     * Leaks the bucket up to {@code ticks} and gives back
+     * {@code releaseQuanta} admitted earlier, as one atomic step. A retired
+     * bucket is left alone.
+     */
+    public void release(long ticks, long releaseQuanta) {
+        PackedBucketFormat format = getFormat();
+        while (true) {
+            long current = state;
+            if (current == PackedBucketFormat.RETIRED) {
+                return;
+            }
+            long next = format.subtract(current, ticks, releaseQuanta);
+            if (next == current || STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket if it has fully leaked by {@code ticks}.
+     *
+     * @return true if this call retired the bucket
+     */
+    public boolean retireIfDrained(long ticks) {
+        PackedBucketFormat format = getFormat();
+        while (true) {
+            long current = state;
+            if (current == PackedBucketFormat.RETIRED || format.drainTicks(current) > ticks) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, PackedBucketFormat.RETIRED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket regardless of its level.
+     *
+     * @return true if this call retired the bucket
+     */
+    public boolean retire() {
+        return (long) STATE.getAndSet(this, PackedBucketFormat.RETIRED) != PackedBucketFormat.RETIRED;
+    }
+
+    public boolean isRetired() { return state == PackedBucketFormat.RETIRED; }
+    public long getDrainTicks() { return getFormat().drainTicks(state); }
+    public PackedBucketFormat getFormat() { return format; }
+
+    public double getCurrentLevel() { return getFormat().level(state); }
+    public double getCapacity() { return getFormat().getCapacity(); }
+    public double getLeakRate() { return getFormat().getLeakRate(); }
+    public double getLastLeakTime() { return getFormat().lastLeakTime(state); }
+
+    /**
+     * Level leaked up to {@code ticks}, without changing the bucket.
+     */
+    public double getCurrentLevel(long ticks) {
+        long current = state;
+        if (current == PackedBucketFormat.RETIRED) {
+            return 0.0;
+        }
+        PackedBucketFormat format = getFormat();
+        return format.level(format.leak(current, ticks));
+    }
+
+    /**
+     * Passes the state leaked up to {@code ticks} to {@code visitor}, unless
+     * the bucket has been retired.
+     */
+    public void visit(CharSequence userId, long ticks, BucketVisitor visitor) {
+        long current = state;
+        if (current != PackedBucketFormat.RETIRED) {
+            getFormat().visit(userId, current, ticks, visitor);
+        }
+    }
+
+    /**
+     * Reads level and last leak time from one consistent state word, or
+     * returns null if the bucket has been retired.
+     */
+    public Bucket toBucket(String userId) {
+        long current = state;
+        return current == PackedBucketFormat.RETIRED ? null : getFormat().toBucket(userId, current);
+    }
+}
@@ -17,6 +17,14 @@ public class BucketState {
             this.lastLeakTime = timestamp;
         }
         
+        public BucketState(double capacity, double leakRate, 
+                           double currentLevel, double lastLeakTime) {
+            this.capacity = capacity;
+            this.leakRate = leakRate;
+            this.currentLevel = currentLevel;
+            this.lastLeakTime = lastLeakTime;
+        }
+        
         public void leak(double currentTime) {
             if (currentTime < lastLeakTime) {
                 return;
@@ -35,6 +43,23 @@ public class BucketState {
             currentLevel += requestSize;
             return true;
         }
+        
+        /**
+         * Seconds until {@code requestSize} fits after the last leak: zero if
+         * it fits now, infinite if it never will.
+         */
+        public double getRetryAfter(double requestSize) {
+            double excess = currentLevel + requestSize - capacity;
+            if (excess <= 0) {
+                return 0.0;
+            }
+            if (requestSize > capacity || leakRate == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return excess / leakRate;
+        }
+        
+        public double getHeadroom() { return Math.max(0.0, capacity - currentLevel); }
         public double getCurrentLevel() { return currentLevel; }
         public double getCapacity() { return capacity; }
         public double getLeakRate() { return leakRate; }
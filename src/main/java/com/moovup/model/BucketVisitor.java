@@ -0,0 +1,15 @@
+package com.moovup.model;
+
+/**
+ * Primitive-typed callback for walking bucket state without allocating a
+ * {@link Bucket} per user. {@code userId} may be a reused buffer that is only
+ * valid during the call; copy it with {@code toString()} to keep it.
+ *
+ * @author thiyagaraja
+ */
+@FunctionalInterface
+public interface BucketVisitor {
+
+    void visit(CharSequence userId, double currentLevel, double capacity,
+               double leakRate, double lastLeakTime);
+}
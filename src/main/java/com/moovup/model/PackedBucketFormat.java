@@ -0,0 +1,348 @@
+package com.moovup.model;
+
+/**
+ * Fixed-point bucket math on a single 64-bit state word, shared by every
+ * bucket with the same capacity and leak rate. The upper 42 bits of a word
+ * hold a leak anchor in millisecond ticks, the lower 22
+ * bits the level at that anchor in quanta of {@code 1 / quantaPerUnit}
+ * units. Time arrives as integer nanoseconds and the leak rate is kept as
+ * 32.32 fixed-point quanta per tick, so the admission path does no
+ * floating-point math.
+ *
+ * <p>The level at a later tick is the anchored level less everything leaked
+ * since the anchor, computed in one step, so a bucket polled every
+ * millisecond leaks exactly as much as one read once. Writes move the anchor
+ * only as far as the leak is still a whole number of quanta: for rates that
+ * are a whole number of quanta per second that is the last tick at which
+ * the leak came out even, at most a second back; for other rates the anchor
+ * catches up once a second, giving up less than one quantum. Reads never
+ * move it, and a rejected request writes nothing.
+ *
+ * <p>Capacity takes at most half the level bits, leaving the rest for
+ * leaks still held behind the anchor. A unit is split into the largest
+ * {@code 2^a * 10^b} quanta that keeps capacity within that half, so
+ * decimal sizes such as 0.1 are charged exactly; sizes that are not a
+ * whole number of quanta are rounded up, and a bucket never admits more
+ * than its capacity. Capacities above {@link #MAX_CAPACITY} units would
+ * need quanta larger than a unit and are rejected. The rate is rounded up
+ * by less than 2^-32 quanta per tick so that whole-unit leaks land exactly.
+ *
+ * <p>Tick 0 lies at {@link #MIN_TIMESTAMP}, about 35 years before the Unix
+ * epoch, so any timestamp from there up to {@link #MAX_TIMESTAMP} seconds
+ * is accepted, negative ones included: wall-clock seconds from 1935 to
+ * 2074, or a {@code System.nanoTime()} reading, whose origin is arbitrary.
+ * Anything outside is rejected rather than wrapped. The all-ones word
+ * {@link #RETIRED} never occurs as a real state and marks a bucket that
+ * has been evicted.
+ *
+ * @author thiyagaraja
+ */
+public final class PackedBucketFormat {
+    static final int LEVEL_BITS = 22;
+    static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1;
+    static final long MAX_TICKS = (1L << (Long.SIZE - LEVEL_BITS)) - 1;
+    static final long NANOS_PER_TICK = 1_000_000L;
+    static final double TICKS_PER_SECOND = 1_000.0;
+    static final long EPOCH_TICKS = 1L << 40;
+    public static final double MIN_TIMESTAMP = -EPOCH_TICKS / TICKS_PER_SECOND;
+    public static final double MAX_TIMESTAMP = (MAX_TICKS - EPOCH_TICKS) / TICKS_PER_SECOND;
+    private static final int RATE_FRACTION_BITS = 32;
+    private static final long CAPACITY_QUANTA = 1L << (LEVEL_BITS - 1);
+    private static final long INEXACT_REBASE_TICKS = 1_000;
+    private static final double SIZE_TOLERANCE = 0x1p-40;
+    /** Largest capacity, in units, that a format can represent. */
+    public static final double MAX_CAPACITY = CAPACITY_QUANTA;
+    public static final long RETIRED = -1L;
+
+    private final double capacity;
+    private final double leakRate;
+    private final double quantaPerUnit;
+    private final long capacityQuanta;
+    private final long leakQuantaPerTickFixed;
+    private final long exactTicks;
+
+    public PackedBucketFormat(double capacity, double leakRate) {
+        this(capacity, leakRate, capacity);
+    }
+
+    /**
+     * Format whose level quanta are sized for {@code scaleCapacity}, so that
+     * formats built with the same scale read each other's states alike.
+     */
+    public PackedBucketFormat(double capacity, double leakRate, double scaleCapacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (leakRate < 0 || Double.isNaN(leakRate)) {
+            throw new IllegalArgumentException("Leak rate cannot be negative");
+        }
+        if (scaleCapacity < capacity) {
+            throw new IllegalArgumentException("Scale capacity is below capacity");
+        }
+        if (scaleCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity cannot exceed " + (long) MAX_CAPACITY + " units");
+        }
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+        this.quantaPerUnit = quantaPerUnit(scaleCapacity);
+        this.capacityQuanta = (long) Math.floor(capacity * quantaPerUnit * (1 + SIZE_TOLERANCE));
+        double quantaPerSecond = leakRate * quantaPerUnit;
+        long wholeQuantaPerSecond = Math.round(quantaPerSecond);
+        if (wholeQuantaPerSecond <= Integer.MAX_VALUE
+                && Math.abs(quantaPerSecond - wholeQuantaPerSecond) <= quantaPerSecond * SIZE_TOLERANCE) {
+            // leak(k * exactTicks) is then exactly k * exactTicks * quantaPerSecond / 1000
+            this.leakQuantaPerTickFixed = Math.ceilDiv(wholeQuantaPerSecond << RATE_FRACTION_BITS,
+                    (long) TICKS_PER_SECOND);
+            this.exactTicks = (long) TICKS_PER_SECOND / gcd(wholeQuantaPerSecond, (long) TICKS_PER_SECOND);
+        } else {
+            this.leakQuantaPerTickFixed = (long) Math.ceil(Math.scalb(
+                    quantaPerSecond / TICKS_PER_SECOND, RATE_FRACTION_BITS));
+            this.exactTicks = 0;
+        }
+    }
+
+    public long pack(double currentLevel, double lastLeakTime) {
+        return pack(toTicks(toNanos(lastLeakTime)), Math.min(capacityQuanta, toQuanta(Math.max(0.0, currentLevel))));
+    }
+
+    /**
+     * State of an empty bucket last leaked at {@code ticks}.
+     */
+    public long emptyState(long ticks) {
+        return pack(ticks, 0);
+    }
+
+    /**
+     * Converts a timestamp in seconds to the nanosecond timeline used by
+     * {@link #toTicks(long)}.
+     */
+    public static long toNanos(double timestamp) {
+        return Math.round(timestamp * 1e9);
+    }
+
+    /**
+     * True if {@link #toTicks} accepts {@code nanoTime}.
+     */
+    public static boolean isInRange(long nanoTime) {
+        long ticks = Math.floorDiv(nanoTime, NANOS_PER_TICK) + EPOCH_TICKS;
+        return ticks >= 0 && ticks < MAX_TICKS;
+    }
+
+    /**
+     * Tick of {@code nanoTime}, counted from {@link #MIN_TIMESTAMP}.
+     *
+     * @throws IllegalArgumentException outside {@link #MIN_TIMESTAMP} to
+     *         {@link #MAX_TIMESTAMP} seconds
+     */
+    public long toTicks(long nanoTime) {
+        long ticks = Math.floorDiv(nanoTime, NANOS_PER_TICK) + EPOCH_TICKS;
+        if (ticks < 0 || ticks >= MAX_TICKS) {
+            throw new IllegalArgumentException("Timestamp out of range: " + nanoTime + "ns");
+        }
+        return ticks;
+    }
+
+    /**
+     * Whole quanta covering {@code requestSize}. A product within 2^-40 of
+     * a whole number is taken as that number, so sizes written in decimal
+     * are not charged for their binary rounding.
+     */
+    public long toQuanta(double requestSize) {
+        double quanta = requestSize * quantaPerUnit;
+        return (long) Math.ceil(quanta - quanta * SIZE_TOLERANCE);
+    }
+
+    /**
+     * Returns {@code state} leaked up to {@code ticks} and anchored there,
+     * for reading. Earlier ticks leave the state unchanged. Writing the
+     * result back would drop the part of a quantum leaked so far; writes
+     * go through {@link #add} and {@link #subtract}.
+     */
+    public long leak(long state, long ticks) {
+        long anchor = state >>> LEVEL_BITS;
+        if (ticks <= anchor) {
+            return state;
+        }
+        return pack(ticks, quantaAt(state, ticks));
+    }
+
+    /**
+     * Level of {@code state} at {@code ticks}, in quanta.
+     */
+    public long quantaAt(long state, long ticks) {
+        long anchor = state >>> LEVEL_BITS;
+        long level = state & LEVEL_MASK;
+        if (ticks <= anchor) {
+            return level;
+        }
+        return level - Math.min(level, leakedQuanta(ticks - anchor));
+    }
+
+    /**
+     * True if {@code requestQuanta} fits on top of {@code state} at
+     * {@code ticks}. A state written under a larger capacity may be above
+     * this one; nothing fits until it leaks back below.
+     */
+    public boolean fits(long state, long ticks, long requestQuanta) {
+        return requestQuanta <= capacityQuanta - quantaAt(state, ticks);
+    }
+
+    /**
+     * Adds {@code requestQuanta} at {@code ticks} to a state for which
+     * {@link #fits} holds.
+     */
+    public long add(long state, long ticks, long requestQuanta) {
+        long settled = settle(state, ticks);
+        long level = (settled & LEVEL_MASK) + requestQuanta;
+        if (level > LEVEL_MASK) {
+            // the held-back leak no longer fits beside the level; give up its fraction
+            return pack(Math.max(ticks, settled >>> LEVEL_BITS), quantaAt(settled, ticks) + requestQuanta);
+        }
+        return settled + requestQuanta;
+    }
+
+    /**
+     * Takes {@code quanta} back out of {@code state} at {@code ticks},
+     * stopping at empty.
+     */
+    public long subtract(long state, long ticks, long quanta) {
+        long settled = settle(state, ticks);
+        return settled - Math.min(quantaAt(settled, ticks), quanta);
+    }
+
+    /**
+     * First tick at which {@code requestQuanta} fits on {@code state}, which
+     * is at or before the state's anchor if it fits already, or
+     * {@link Long#MAX_VALUE} if it never will.
+     */
+    public long readyTicks(long state, long requestQuanta) {
+        long anchor = state >>> LEVEL_BITS;
+        if (requestQuanta > capacityQuanta) {
+            return Long.MAX_VALUE;
+        }
+        long excess = (state & LEVEL_MASK) + requestQuanta - capacityQuanta;
+        if (excess <= 0) {
+            return anchor;
+        }
+        if (leakQuantaPerTickFixed == 0) {
+            return Long.MAX_VALUE;
+        }
+        return anchor + Math.ceilDiv(excess << RATE_FRACTION_BITS, leakQuantaPerTickFixed);
+    }
+
+    /**
+     * Nanoseconds from {@code nanoTime} until the start of tick
+     * {@code readyTicks}, at least 1, or {@link Long#MAX_VALUE} for a request
+     * that never fits.
+     */
+    public long waitNanos(long readyTicks, long nanoTime) {
+        if (readyTicks == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, (readyTicks - EPOCH_TICKS) * NANOS_PER_TICK - nanoTime);
+    }
+
+    /**
+     * Tick at which {@code state} will have leaked to zero, or
+     * {@link Long#MAX_VALUE} if it never will.
+     */
+    public long drainTicks(long state) {
+        long anchor = state >>> LEVEL_BITS;
+        long level = state & LEVEL_MASK;
+        if (level == 0) {
+            return anchor;
+        }
+        if (leakQuantaPerTickFixed == 0) {
+            return Long.MAX_VALUE;
+        }
+        return anchor + Math.ceilDiv(level << RATE_FRACTION_BITS, leakQuantaPerTickFixed);
+    }
+
+    public double level(long state) { return (state & LEVEL_MASK) / quantaPerUnit; }
+    public long quanta(long state) { return state & LEVEL_MASK; }
+    public long ticks(long state) { return state >>> LEVEL_BITS; }
+    public double lastLeakTime(long state) { return ((state >>> LEVEL_BITS) - EPOCH_TICKS) / TICKS_PER_SECOND; }
+
+    public Bucket toBucket(String userId, long state) {
+        return new Bucket(userId, level(state), capacity, leakRate, lastLeakTime(state));
+    }
+
+    /**
+     * Passes {@code state} leaked up to {@code ticks} to {@code visitor}.
+     */
+    public void visit(CharSequence userId, long state, long ticks, BucketVisitor visitor) {
+        long leaked = leak(state, ticks);
+        visitor.visit(userId, level(leaked), capacity, leakRate, lastLeakTime(leaked));
+    }
+
+    public double getCapacity() { return capacity; }
+    public double getLeakRate() { return leakRate; }
+
+    /**
+     * {@code elapsedTicks * leakQuantaPerTickFixed >> 32} on the full 128-bit
+     * product, saturating when the result cannot fit.
+     */
+    private long leakedQuanta(long elapsedTicks) {
+        long high = Math.multiplyHigh(elapsedTicks, leakQuantaPerTickFixed);
+        if (high >>> (Long.SIZE - RATE_FRACTION_BITS - 1) != 0) {
+            return Long.MAX_VALUE;
+        }
+        long low = elapsedTicks * leakQuantaPerTickFixed;
+        return (high << (Long.SIZE - RATE_FRACTION_BITS)) | (low >>> RATE_FRACTION_BITS);
+    }
+
+    /**
+     * Moves the anchor of {@code state} towards {@code ticks} as far as the
+     * leak since the old anchor stays a whole number of quanta, so nothing
+     * leaked is lost. A drained bucket is simply re-anchored empty.
+     */
+    private long settle(long state, long ticks) {
+        long anchor = state >>> LEVEL_BITS;
+        if (ticks <= anchor) {
+            return state;
+        }
+        long elapsed = ticks - anchor;
+        long level = state & LEVEL_MASK;
+        long leaked = leakedQuanta(elapsed);
+        if (leaked >= level) {
+            return pack(ticks, 0);
+        }
+        if (exactTicks != 0) {
+            long settled = elapsed - elapsed % exactTicks;
+            return settled == 0 ? state : pack(anchor + settled, level - leakedQuanta(settled));
+        }
+        if (elapsed < INEXACT_REBASE_TICKS) {
+            return state;
+        }
+        // first tick by which the whole quanta had leaked; the fraction beyond is given up
+        long used = Math.ceilDiv(leaked << RATE_FRACTION_BITS, leakQuantaPerTickFixed);
+        return pack(anchor + used, level - leaked);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long next = a % b;
+            a = b;
+            b = next;
+        }
+        return a;
+    }
+
+    private static long pack(long ticks, long level) {
+        return (ticks << LEVEL_BITS) | level;
+    }
+
+    /**
+     * Largest {@code 2^a * 10^b} that keeps {@code capacity} within the
+     * capacity bits, so whole, decimal and halved sizes are represented
+     * exactly.
+     */
+    private static double quantaPerUnit(double capacity) {
+        double limit = CAPACITY_QUANTA / capacity;
+        double decimal = 1.0;
+        while (decimal * 10 <= limit && decimal < 1e15) {
+            decimal *= 10;
+        }
+        return decimal * Math.scalb(1.0, Math.getExponent(limit / decimal));
+    }
+}
@@ -0,0 +1,148 @@
+package com.moovup.policy;
+
+import com.moovup.model.PackedBucketFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Policies indexed by small integer ids, and the rules that map a user to
+ * one. Buckets keep only a policy id and read the capacity and leak rate
+ * through {@link #format(int)}, so {@link #update} takes effect on every
+ * bucket of that policy at its next request without touching any of them.
+ *
+ * <p>All policies share one level scale, fixed by the largest capacity the
+ * registry accepts, so a stored level keeps its meaning when a bucket's
+ * policy changes.
+ *
+ * <p>A user's policy is an explicit {@link #assign assignment} if present,
+ * otherwise whatever the tier resolver returns. Stores cache the resolved id
+ * per bucket together with {@link #getAssignmentVersion()} and resolve again
+ * only after assignments or the resolver change.
+ *
+ * @author thiyagaraja
+ */
+public class PolicyRegistry {
+    public static final int DEFAULT_POLICY = 0;
+
+    private final double maxCapacity;
+    private final Map<String, Integer> assignments = new ConcurrentHashMap<>();
+    private volatile RatePolicy[] policies;
+    private volatile PackedBucketFormat[] formats;
+    private volatile ToIntFunction<String> resolver = userId -> DEFAULT_POLICY;
+    private volatile int assignmentVersion;
+
+    public PolicyRegistry(RatePolicy defaultPolicy) {
+        this(defaultPolicy, defaultPolicy == null ? 0 : defaultPolicy.getCapacity());
+    }
+
+    /**
+     * @param maxCapacity largest capacity any policy in this registry may
+     *                    have; a larger value costs level precision
+     */
+    public PolicyRegistry(RatePolicy defaultPolicy, double maxCapacity) {
+        if (defaultPolicy == null) {
+            throw new IllegalArgumentException("Default policy cannot be null");
+        }
+        if (maxCapacity < defaultPolicy.getCapacity()) {
+            throw new IllegalArgumentException("Max capacity is below the default policy capacity");
+        }
+        this.maxCapacity = maxCapacity;
+        this.policies = new RatePolicy[] {defaultPolicy};
+        this.formats = new PackedBucketFormat[] {formatFor(defaultPolicy)};
+    }
+
+    /**
+     * Adds a policy and returns its id.
+     */
+    public synchronized int register(RatePolicy policy) {
+        PackedBucketFormat format = formatFor(policy);
+        int id = policies.length;
+        RatePolicy[] nextPolicies = Arrays.copyOf(policies, id + 1);
+        PackedBucketFormat[] nextFormats = Arrays.copyOf(formats, id + 1);
+        nextPolicies[id] = policy;
+        nextFormats[id] = format;
+        formats = nextFormats;
+        policies = nextPolicies;
+        return id;
+    }
+
+    /**
+     * Replaces policy {@code id}. Existing buckets keep their level and use
+     * the new capacity and leak rate from their next request on.
+     */
+    public synchronized void update(int id, RatePolicy policy) {
+        checkId(id);
+        PackedBucketFormat format = formatFor(policy);
+        RatePolicy[] nextPolicies = policies.clone();
+        PackedBucketFormat[] nextFormats = formats.clone();
+        nextPolicies[id] = policy;
+        nextFormats[id] = format;
+        formats = nextFormats;
+        policies = nextPolicies;
+    }
+
+    /**
+     * Overrides the policy of one user, e.g. a single API key.
+     */
+    public void assign(String userId, int id) {
+        if (userId == null) {
+            throw new IllegalArgumentException("User ID cannot be null");
+        }
+        checkId(id);
+        assignments.put(userId, id);
+        bumpAssignmentVersion();
+    }
+
+    public void unassign(String userId) {
+        if (userId != null && assignments.remove(userId) != null) {
+            bumpAssignmentVersion();
+        }
+    }
+
+    /**
+     * Sets the rule for users without an assignment, e.g. a lookup of the
+     * user's tier. It is called once per bucket, not once per request.
+     */
+    public void setResolver(ToIntFunction<String> resolver) {
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver cannot be null");
+        }
+        this.resolver = resolver;
+        bumpAssignmentVersion();
+    }
+
+    public int resolve(String userId) {
+        Integer assigned = assignments.get(userId);
+        int id = assigned != null ? assigned : resolver.applyAsInt(userId);
+        checkId(id);
+        return id;
+    }
+
+    public PackedBucketFormat format(int id) { return formats[id]; }
+    public RatePolicy get(int id) { checkId(id); return policies[id]; }
+    public int size() { return policies.length; }
+    public double getMaxCapacity() { return maxCapacity; }
+    public int getAssignmentVersion() { return assignmentVersion; }
+
+    private PackedBucketFormat formatFor(RatePolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy cannot be null");
+        }
+        if (policy.getCapacity() > maxCapacity) {
+            throw new IllegalArgumentException("Policy capacity exceeds registry max capacity");
+        }
+        return new PackedBucketFormat(policy.getCapacity(), policy.getLeakRate(), maxCapacity);
+    }
+
+    private synchronized void bumpAssignmentVersion() {
+        assignmentVersion++;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= policies.length) {
+            throw new IllegalArgumentException("Unknown policy id: " + id);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.moovup.policy;
+
+/**
+ * Named capacity and leak rate shared by every bucket assigned to it, such
+ * as a pricing tier or a per-key override.
+ *
+ * @author thiyagaraja
+ */
+public final class RatePolicy {
+    private final String name;
+    private final double capacity;
+    private final double leakRate;
+
+    public RatePolicy(String name, double capacity, double leakRate) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Policy name cannot be null or empty");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (leakRate < 0) {
+            throw new IllegalArgumentException("Leak rate cannot be negative");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+    }
+
+    public String getName() { return name; }
+    public double getCapacity() { return capacity; }
+    public double getLeakRate() { return leakRate; }
+
+    @Override
+    public String toString() {
+        return String.format("RatePolicy{name='%s', capacity=%.2f, leakRate=%.2f}", name, capacity, leakRate);
+    }
+}
@@ -0,0 +1,281 @@
+package com.moovup.remote;
+
+import com.moovup.model.Bucket;
+import com.moovup.store.BucketStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reference backend for {@link RemoteBucketStore}: serves one shared
+ * {@link BucketStore} to any number of limiter nodes over loopback TCP. The
+ * leak-and-admit step runs in the wrapped store, so it stays atomic per
+ * user however many nodes connect.
+ *
+ * <p>Each connection is served by its own thread, which answers requests in
+ * order and flushes only once it has drained every request already
+ * received, so a pipelined batch from a client is answered with one write.
+ * An exception from the store fails only the call that caused it: the
+ * arguments have been read by then and nothing of the response written,
+ * so the server answers with an error status and moves on. An unknown
+ * opcode leaves the stream out of step, so it is answered with an error
+ * and the connection is closed. Scans are streamed in chunks of
+ * {@link RemoteProtocol#MAX_BATCH} buckets rather than collected first.
+ *
+ * @author thiyagaraja
+ */
+public class BucketServer implements AutoCloseable {
+    private final BucketStore store;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private BucketServer(BucketStore store, ServerSocket serverSocket) {
+        this.store = store;
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * Starts serving {@code store} on the loopback interface.
+     *
+     * @param port port to listen on, 0 for any free port
+     */
+    public static BucketServer start(BucketStore store, int port) throws IOException {
+        if (store == null) {
+            throw new IllegalArgumentException("Store cannot be null");
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        BucketServer server = new BucketServer(store, serverSocket);
+        Thread acceptor = new Thread(server::acceptLoop, "leaky-bucket-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+    public BucketStore getStore() { return store; }
+
+    /**
+     * Stops accepting and drops every open connection.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread handler = new Thread(() -> serve(socket), "leaky-bucket-server-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            int op;
+            while ((op = in.read()) >= 0) {
+                try {
+                    handle(op, in, out);
+                } catch (UnknownOpcodeException e) {
+                    writeError(out, e);
+                    out.flush();
+                    return;
+                } catch (RuntimeException e) {
+                    writeError(out, e);
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException e) {
+            // client went away mid-request
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Answers one request. Every case but the scans reads its arguments and
+     * calls the store before writing anything, so a store exception leaves
+     * the stream in step; scans report their own failures.
+     */
+    private void handle(int op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case RemoteProtocol.HELLO -> {
+                out.writeByte(RemoteProtocol.OK);
+                out.writeDouble(store.getCapacity());
+                out.writeDouble(store.getLeakRate());
+            }
+            case RemoteProtocol.ADMIT -> {
+                String userId = in.readUTF();
+                long nanoTime = in.readLong();
+                double requestSize = in.readDouble();
+                long waitNanos = store.tryAllowRequest(userId, nanoTime, requestSize);
+                out.writeByte(RemoteProtocol.OK);
+                out.writeLong(waitNanos);
+            }
+            case RemoteProtocol.RELEASE -> {
+                String userId = in.readUTF();
+                long nanoTime = in.readLong();
+                store.release(userId, nanoTime, in.readDouble());
+                out.writeByte(RemoteProtocol.OK);
+                out.writeBoolean(true);
+            }
+            case RemoteProtocol.BUCKET -> {
+                Bucket bucket = store.getBucketState(in.readUTF());
+                out.writeByte(RemoteProtocol.OK);
+                out.writeBoolean(bucket != null);
+                if (bucket != null) {
+                    out.writeDouble(bucket.getCurrentLevel());
+                    out.writeDouble(bucket.getLastLeakTime());
+                }
+            }
+            case RemoteProtocol.LEVEL -> {
+                String userId = in.readUTF();
+                double level = store.getCurrentLevel(userId, in.readLong());
+                out.writeByte(RemoteProtocol.OK);
+                out.writeDouble(level);
+            }
+            case RemoteProtocol.SIZE -> {
+                int size = store.size();
+                out.writeByte(RemoteProtocol.OK);
+                out.writeInt(size);
+            }
+            case RemoteProtocol.EVICTIONS -> {
+                long evictions = store.getEvictionCount();
+                out.writeByte(RemoteProtocol.OK);
+                out.writeLong(evictions);
+            }
+            case RemoteProtocol.SCAN_BUCKETS -> {
+                ScanWriter scan = new ScanWriter(out);
+                scan.run(() -> store.forEach((userId, bucket) ->
+                        scan.add(bucket.getUserId(), bucket.getCurrentLevel(), bucket.getLastLeakTime())));
+            }
+            case RemoteProtocol.SCAN_LEVELS -> {
+                long nanoTime = in.readLong();
+                ScanWriter scan = new ScanWriter(out);
+                scan.run(() -> store.forEachBucket(nanoTime, (userId, level, capacity, leakRate, lastLeakTime) ->
+                        scan.add(userId.toString(), level, lastLeakTime)));
+            }
+            default -> throw new UnknownOpcodeException(op);
+        }
+    }
+
+    private static void writeError(DataOutputStream out, RuntimeException error) throws IOException {
+        String message = String.valueOf(error.getMessage());
+        if (message.length() > RemoteProtocol.MAX_MESSAGE_CHARS) {
+            message = message.substring(0, RemoteProtocol.MAX_MESSAGE_CHARS);
+        }
+        out.writeByte(error instanceof IllegalArgumentException ? RemoteProtocol.INVALID : RemoteProtocol.FAILED);
+        out.writeUTF(message);
+    }
+
+    /**
+     * An opcode this server does not know; its arguments, if any, cannot
+     * be skipped.
+     */
+    private static final class UnknownOpcodeException extends IllegalArgumentException {
+        UnknownOpcodeException(int op) {
+            super("Unknown opcode " + op);
+        }
+    }
+
+    /**
+     * Streams one scan as chunks of up to {@link RemoteProtocol#MAX_BATCH}
+     * buckets, leaving out buckets whose id is too long to encode, which
+     * can only have been created by local callers of the store.
+     */
+    private static final class ScanWriter {
+        private final DataOutputStream out;
+        private final String[] userIds = new String[RemoteProtocol.MAX_BATCH];
+        private final double[] levels = new double[RemoteProtocol.MAX_BATCH];
+        private final double[] lastLeakTimes = new double[RemoteProtocol.MAX_BATCH];
+        private int count;
+        private IOException writeFailure;
+
+        ScanWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes the status, the chunks {@code traversal} produces and the
+         * end marker. If the store fails partway, the chunks already sent
+         * are followed by an error instead.
+         */
+        void run(Runnable traversal) throws IOException {
+            out.writeByte(RemoteProtocol.OK);
+            try {
+                traversal.run();
+            } catch (RuntimeException e) {
+                if (writeFailure != null) {
+                    throw writeFailure;
+                }
+                out.writeInt(RemoteProtocol.SCAN_FAILED);
+                writeError(out, e);
+                return;
+            }
+            writeChunk();
+            out.writeInt(0);
+        }
+
+        void add(String userId, double level, double lastLeakTime) {
+            if (!RemoteProtocol.isEncodable(userId)) {
+                return;
+            }
+            userIds[count] = userId;
+            levels[count] = level;
+            lastLeakTimes[count] = lastLeakTime;
+            if (++count == RemoteProtocol.MAX_BATCH) {
+                try {
+                    writeChunk();
+                } catch (IOException e) {
+                    writeFailure = e;
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeUTF(userIds[i]);
+                out.writeDouble(levels[i]);
+                out.writeDouble(lastLeakTimes[i]);
+                userIds[i] = null;
+            }
+            count = 0;
+        }
+    }
+}
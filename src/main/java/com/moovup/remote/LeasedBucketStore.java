@@ -0,0 +1,323 @@
+package com.moovup.remote;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketState;
+import com.moovup.model.BucketVisitor;
+import com.moovup.store.BucketStore;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Admits locally against slices of capacity leased from an authoritative
+ * store, typically a {@link RemoteBucketStore} shared by every node. A
+ * lease is taken by admitting {@code leaseSize} into the user's global
+ * bucket, so the global bucket still bounds what all nodes together can
+ * admit; within the lease, admission is a local {@link BucketState} check.
+ *
+ * <p>When a lease runs below a quarter of {@code leaseSize}, the next slice
+ * is reserved on a background thread so that callers rarely wait on the
+ * authority. A lease expires {@code leaseDuration} after it was last
+ * granted; its unused capacity is then released back to the authority,
+ * either by the next request for that user or by a periodic sweep. Expiry
+ * is judged on the latest {@code nanoTime} this store has seen. The
+ * authority has been leaking the reservation all along, so the release is
+ * the unused capacity less what has leaked since the oldest slice still in
+ * the lease was granted; releasing all of it would credit that leak twice.
+ *
+ * <p>Calls to the authority, which may be remote, are made without holding
+ * a lease's monitor, so a slow authority stalls only the callers that are
+ * waiting on it.
+ *
+ * <p>Reads such as {@link #getBucketState} go to the authority and so show
+ * leased capacity as used.
+ *
+ * @author thiyagaraja
+ */
+public final class LeasedBucketStore implements BucketStore, AutoCloseable {
+    private static final double RENEW_BELOW = 0.25;
+
+    private final BucketStore authority;
+    private final double leakRate;
+    private final double leaseSize;
+    private final long leaseNanos;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer;
+    private final LongAdder localAdmissions = new LongAdder();
+    private final LongAdder reservations = new LongAdder();
+    private volatile long latestNanoTime;
+
+    /**
+     * @param leaseSize capacity to reserve per lease, at most the
+     *                  authority's capacity
+     */
+    public LeasedBucketStore(BucketStore authority, double leaseSize, Duration leaseDuration) {
+        if (authority == null) {
+            throw new IllegalArgumentException("Authority cannot be null");
+        }
+        if (leaseSize <= 0 || leaseSize > authority.getCapacity()) {
+            throw new IllegalArgumentException("Lease size must be positive and at most the capacity");
+        }
+        if (leaseDuration == null || leaseDuration.isNegative() || leaseDuration.isZero()) {
+            throw new IllegalArgumentException("Lease duration must be positive");
+        }
+        this.authority = authority;
+        this.leakRate = authority.getLeakRate();
+        this.leaseSize = leaseSize;
+        this.leaseNanos = leaseDuration.toNanos();
+        this.renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaky-bucket-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepNanos = Math.max(1, leaseNanos / 2);
+        renewer.scheduleWithFixedDelay(() -> expireLeases(latestNanoTime), sweepNanos, sweepNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        if (nanoTime > latestNanoTime) {
+            latestNanoTime = nanoTime;
+        }
+        while (true) {
+            Lease lease = leases.computeIfAbsent(userId, id -> new Lease());
+            double expired = 0.0;
+            double headroom;
+            synchronized (lease) {
+                if (lease.retired) {
+                    continue;
+                }
+                if (lease.meter != null && lease.expiresAt <= nanoTime) {
+                    expired = releasable(lease, nanoTime);
+                    lease.meter = null;
+                }
+                if (lease.meter != null && lease.meter.allowRequest(requestSize)) {
+                    localAdmissions.increment();
+                    renewIfLow(userId, lease, nanoTime);
+                    return 0;
+                }
+                headroom = lease.meter == null ? 0.0 : lease.meter.getHeadroom();
+            }
+            if (expired > 0) {
+                authority.release(userId, nanoTime, expired);
+            }
+            double needed = requestSize - headroom;
+            double slice = Math.max(leaseSize, needed);
+            reservations.increment();
+            long waitNanos = authority.tryAllowRequest(userId, nanoTime, slice);
+            if (waitNanos != 0 && slice > needed) {
+                slice = needed;
+                reservations.increment();
+                waitNanos = authority.tryAllowRequest(userId, nanoTime, slice);
+            }
+            if (waitNanos != 0) {
+                return waitNanos;
+            }
+            synchronized (lease) {
+                if (!lease.retired) {
+                    grant(lease, slice, nanoTime);
+                    if (lease.meter.allowRequest(requestSize)) {
+                        return 0;
+                    }
+                    // the lease was drawn down while reserving; reserve again
+                    continue;
+                }
+            }
+            releaseQuietly(userId, nanoTime, slice);
+        }
+    }
+
+    /**
+     * Ends every lease that expired by {@code nanoTime} and releases its
+     * unused capacity. Runs periodically on its own; exposed for callers
+     * that drive time themselves.
+     */
+    public void expireLeases(long nanoTime) {
+        long now = nanoTime == Long.MAX_VALUE ? latestNanoTime : nanoTime;
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            double unused;
+            synchronized (lease) {
+                if (lease.expiresAt > nanoTime) {
+                    continue;
+                }
+                unused = releasable(lease, now);
+                lease.meter = null;
+                lease.retired = true;
+                leases.remove(entry.getKey(), lease);
+            }
+            releaseQuietly(entry.getKey(), now, unused);
+        }
+    }
+
+    /**
+     * Capacity this node can still admit locally for {@code userId} without
+     * asking the authority.
+     */
+    public double getLeaseHeadroom(String userId) {
+        Lease lease = leases.get(userId);
+        if (lease == null) {
+            return 0.0;
+        }
+        synchronized (lease) {
+            return lease.meter == null ? 0.0 : lease.meter.getHeadroom();
+        }
+    }
+
+    /**
+     * Admissions served from a lease without contacting the authority.
+     */
+    public long getLocalAdmissionCount() { return localAdmissions.sum(); }
+
+    /**
+     * Reservations made against the authority, synchronous and background.
+     */
+    public long getReservationCount() { return reservations.sum(); }
+
+    public BucketStore getAuthority() { return authority; }
+
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        authority.release(userId, nanoTime, amount);
+    }
+
+    @Override
+    public Bucket getBucketState(String userId) {
+        return authority.getBucketState(userId);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        authority.forEach(action);
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        return authority.getCurrentLevel(userId, nanoTime);
+    }
+
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        authority.forEachBucket(nanoTime, visitor);
+    }
+
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        authority.forEachBucketParallel(nanoTime, visitor);
+    }
+
+    @Override
+    public int size() { return authority.size(); }
+
+    @Override
+    public long getEvictionCount() { return authority.getEvictionCount(); }
+
+    @Override
+    public double getCapacity() { return authority.getCapacity(); }
+
+    @Override
+    public double getLeakRate() { return authority.getLeakRate(); }
+
+    /**
+     * Stops renewing and releases every outstanding lease.
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        try {
+            renewer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        expireLeases(Long.MAX_VALUE);
+    }
+
+    private void renewIfLow(String userId, Lease lease, long nanoTime) {
+        if (lease.renewing || lease.meter.getHeadroom() >= leaseSize * RENEW_BELOW) {
+            return;
+        }
+        lease.renewing = true;
+        try {
+            renewer.execute(() -> renew(userId, lease, nanoTime));
+        } catch (RejectedExecutionException e) {
+            lease.renewing = false;
+        }
+    }
+
+    private void renew(String userId, Lease lease, long nanoTime) {
+        long waitNanos;
+        try {
+            reservations.increment();
+            waitNanos = authority.tryAllowRequest(userId, nanoTime, leaseSize);
+        } catch (RuntimeException e) {
+            waitNanos = Long.MAX_VALUE;
+        }
+        boolean orphaned;
+        synchronized (lease) {
+            lease.renewing = false;
+            orphaned = lease.retired || lease.meter == null;
+            if (waitNanos == 0 && !orphaned) {
+                grant(lease, leaseSize, nanoTime);
+            }
+        }
+        if (waitNanos == 0 && orphaned) {
+            releaseQuietly(userId, nanoTime, leaseSize);
+        }
+    }
+
+    /**
+     * Adds {@code slice} to what is left of the lease. Called with the
+     * lease locked.
+     */
+    private void grant(Lease lease, double slice, long nanoTime) {
+        double headroom = 0.0;
+        if (lease.meter == null) {
+            lease.grantedAt = nanoTime;
+        } else {
+            headroom = lease.meter.getHeadroom();
+        }
+        lease.meter = new BucketState(headroom + slice, 0.0, nanoTime / 1e9);
+        lease.expiresAt = nanoTime + leaseNanos;
+    }
+
+    /**
+     * Unused capacity of the lease not yet leaked away by the authority.
+     * Called with the lease locked.
+     */
+    private double releasable(Lease lease, long nanoTime) {
+        if (lease.meter == null) {
+            return 0.0;
+        }
+        double leaked = leakRate * Math.max(0, nanoTime - lease.grantedAt) / 1e9;
+        return Math.max(0.0, lease.meter.getHeadroom() - leaked);
+    }
+
+    private void releaseQuietly(String userId, long nanoTime, double unused) {
+        if (unused <= 0) {
+            return;
+        }
+        try {
+            authority.release(userId, nanoTime, unused);
+        } catch (RuntimeException e) {
+            // the authority will leak the slice away on its own
+        }
+    }
+
+    /**
+     * One user's lease; guarded by its own monitor.
+     */
+    private static final class Lease {
+        BucketState meter;
+        long grantedAt;
+        long expiresAt;
+        boolean renewing;
+        boolean retired;
+    }
+}
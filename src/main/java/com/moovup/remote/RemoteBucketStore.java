@@ -0,0 +1,421 @@
+package com.moovup.remote;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.store.BucketStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link BucketStore} whose state lives in a shared backend, so every
+ * limiter node connected to the same {@link BucketServer} draws from one
+ * quota per user. Leak-and-admit is a single remote operation, atomic on
+ * the server.
+ *
+ * <p>Requests are batched and pipelined over one connection. Callers only
+ * enqueue; a writer thread drains everything queued since its last flush
+ * into a single write and flushes without waiting for answers, and a reader
+ * thread completes calls in order as responses arrive. Under load, many
+ * admissions therefore share one round trip instead of paying one each.
+ *
+ * <p>Arguments the wire format cannot carry, a user id longer than 65,535
+ * encoded bytes or a timestamp outside the range of
+ * {@link PackedBucketFormat}, are rejected on the calling thread with
+ * {@link IllegalArgumentException}. An exception the remote store throws
+ * fails only its own call, with {@link IllegalArgumentException} if it
+ * rejected an argument and {@link IllegalStateException} otherwise. A
+ * broken connection fails every outstanding call with
+ * {@link UncheckedIOException} and closes the store.
+ *
+ * @author thiyagaraja
+ */
+public class RemoteBucketStore implements BucketStore, AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final double capacity;
+    private final double leakRate;
+    private final BlockingQueue<Call<?>> outbound = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Call<?>> inflight = new LinkedBlockingQueue<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final Thread writer;
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private RemoteBucketStore(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeByte(RemoteProtocol.HELLO);
+        out.flush();
+        if (in.readUnsignedByte() != RemoteProtocol.OK) {
+            throw new IOException("Server refused the connection: " + in.readUTF());
+        }
+        this.capacity = in.readDouble();
+        this.leakRate = in.readDouble();
+        this.writer = new Thread(this::writeLoop, "leaky-bucket-client-writer");
+        this.reader = new Thread(this::readLoop, "leaky-bucket-client-reader");
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+        writer.start();
+        reader.start();
+    }
+
+    /**
+     * Connects to a {@link BucketServer} on the loopback interface.
+     */
+    public static RemoteBucketStore connect(int port) throws IOException {
+        return connect(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    public static RemoteBucketStore connect(String host, int port) throws IOException {
+        if (host == null) {
+            throw new IllegalArgumentException("Host cannot be null");
+        }
+        Socket socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            return new RemoteBucketStore(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues an admission without waiting for it; the future completes with
+     * the result of {@link #tryAllowRequest}.
+     */
+    public CompletableFuture<Long> tryAllowRequestAsync(String userId, long nanoTime, double requestSize) {
+        validate(userId);
+        validate(nanoTime);
+        return submit(new Call<Long>(RemoteProtocol.ADMIT) {
+            @Override
+            void writeArguments(DataOutputStream out) throws IOException {
+                out.writeUTF(userId);
+                out.writeLong(nanoTime);
+                out.writeDouble(requestSize);
+            }
+
+            @Override
+            Long readResult(DataInputStream in) throws IOException {
+                return in.readLong();
+            }
+        });
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        return await(tryAllowRequestAsync(userId, nanoTime, requestSize));
+    }
+
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        validate(userId);
+        validate(nanoTime);
+        await(submit(new Call<Boolean>(RemoteProtocol.RELEASE) {
+            @Override
+            void writeArguments(DataOutputStream out) throws IOException {
+                out.writeUTF(userId);
+                out.writeLong(nanoTime);
+                out.writeDouble(amount);
+            }
+
+            @Override
+            Boolean readResult(DataInputStream in) throws IOException {
+                return in.readBoolean();
+            }
+        }));
+    }
+
+    @Override
+    public Bucket getBucketState(String userId) {
+        validate(userId);
+        return await(submit(new Call<Bucket>(RemoteProtocol.BUCKET) {
+            @Override
+            void writeArguments(DataOutputStream out) throws IOException {
+                out.writeUTF(userId);
+            }
+
+            @Override
+            Bucket readResult(DataInputStream in) throws IOException {
+                return in.readBoolean()
+                        ? new Bucket(userId, in.readDouble(), capacity, leakRate, in.readDouble())
+                        : null;
+            }
+        }));
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        validate(userId);
+        validate(nanoTime);
+        return await(submit(new Call<Double>(RemoteProtocol.LEVEL) {
+            @Override
+            void writeArguments(DataOutputStream out) throws IOException {
+                out.writeUTF(userId);
+                out.writeLong(nanoTime);
+            }
+
+            @Override
+            Double readResult(DataInputStream in) throws IOException {
+                return in.readDouble();
+            }
+        }));
+    }
+
+    /**
+     * Copies the whole remote store in one response before calling
+     * {@code action}.
+     */
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        for (Bucket bucket : scan(RemoteProtocol.SCAN_BUCKETS, 0L)) {
+            action.accept(bucket.getUserId(), bucket);
+        }
+    }
+
+    /**
+     * Copies the whole remote store in one response before visiting it.
+     */
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        validate(nanoTime);
+        for (Bucket bucket : scan(RemoteProtocol.SCAN_LEVELS, nanoTime)) {
+            visitor.visit(bucket.getUserId(), bucket.getCurrentLevel(), capacity, leakRate,
+                    bucket.getLastLeakTime());
+        }
+    }
+
+    /**
+     * Same as {@link #forEachBucket}; the server does the traversal, so
+     * there is nothing to split locally.
+     */
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        forEachBucket(nanoTime, visitor);
+    }
+
+    @Override
+    public int size() {
+        return await(submit(new Call<Integer>(RemoteProtocol.SIZE) {
+            @Override
+            Integer readResult(DataInputStream in) throws IOException {
+                return in.readInt();
+            }
+        }));
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return await(submit(new Call<Long>(RemoteProtocol.EVICTIONS) {
+            @Override
+            Long readResult(DataInputStream in) throws IOException {
+                return in.readLong();
+            }
+        }));
+    }
+
+    @Override
+    public double getCapacity() { return capacity; }
+
+    @Override
+    public double getLeakRate() { return leakRate; }
+
+    /**
+     * Calls sent so far.
+     */
+    public long getRequestCount() { return requests.sum(); }
+
+    /**
+     * Writes to the backend so far; each carries one or more calls.
+     */
+    public long getBatchCount() { return batches.sum(); }
+
+    /**
+     * Closes the connection and fails every outstanding call.
+     */
+    @Override
+    public void close() {
+        fail(new IOException("Store closed"));
+    }
+
+    private List<Bucket> scan(int op, long nanoTime) {
+        return await(submit(new Call<List<Bucket>>(op) {
+            @Override
+            void writeArguments(DataOutputStream out) throws IOException {
+                if (op == RemoteProtocol.SCAN_LEVELS) {
+                    out.writeLong(nanoTime);
+                }
+            }
+
+            @Override
+            List<Bucket> readResult(DataInputStream in) throws IOException {
+                List<Bucket> buckets = new ArrayList<>();
+                int count;
+                while ((count = in.readInt()) != 0) {
+                    if (count == RemoteProtocol.SCAN_FAILED) {
+                        completeExceptionally(readError(in, in.readUnsignedByte()));
+                        return null;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        buckets.add(new Bucket(in.readUTF(), in.readDouble(), capacity, leakRate, in.readDouble()));
+                    }
+                }
+                return buckets;
+            }
+        }));
+    }
+
+    private static void validate(String userId) {
+        if (userId == null) {
+            throw new IllegalArgumentException("User ID cannot be null");
+        }
+        if (!RemoteProtocol.isEncodable(userId)) {
+            throw new IllegalArgumentException("User ID cannot exceed "
+                    + RemoteProtocol.MAX_STRING_BYTES + " encoded bytes");
+        }
+    }
+
+    private static void validate(long nanoTime) {
+        if (!PackedBucketFormat.isInRange(nanoTime)) {
+            throw new IllegalArgumentException("Timestamp out of range: " + nanoTime + "ns");
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        if (failure != null) {
+            throw new IllegalStateException("Store is closed", failure);
+        }
+        outbound.add(call);
+        // fail() may have drained the queue before the add
+        if (failure != null && outbound.remove(call)) {
+            call.completeExceptionally(new UncheckedIOException(failure));
+        }
+        return call;
+    }
+
+    private static <T> T await(CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void writeLoop() {
+        List<Call<?>> batch = new ArrayList<>(RemoteProtocol.MAX_BATCH);
+        try {
+            while (failure == null) {
+                batch.add(outbound.take());
+                outbound.drainTo(batch, RemoteProtocol.MAX_BATCH - 1);
+                requests.add(batch.size());
+                batches.increment();
+                for (Call<?> call : batch) {
+                    inflight.add(call);
+                    out.writeByte(call.op);
+                    call.writeArguments(out);
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readLoop() {
+        Call<?> call = null;
+        try {
+            while (failure == null) {
+                // calls are queued before they are written, so the head is
+                // always the call the next response belongs to
+                call = inflight.take();
+                call.read(in);
+                call = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (call != null) {
+                call.completeExceptionally(new UncheckedIOException(e));
+            }
+            fail(e);
+        }
+    }
+
+    private synchronized void fail(IOException cause) {
+        if (failure != null) {
+            return;
+        }
+        failure = cause;
+        writer.interrupt();
+        reader.interrupt();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        UncheckedIOException error = new UncheckedIOException(cause);
+        Call<?> call;
+        while ((call = inflight.poll()) != null) {
+            call.completeExceptionally(error);
+        }
+        while ((call = outbound.poll()) != null) {
+            call.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * One request in flight, completed by the reader thread.
+     */
+    private abstract static class Call<T> extends CompletableFuture<T> {
+        final int op;
+
+        Call(int op) {
+            this.op = op;
+        }
+
+        void writeArguments(DataOutputStream out) throws IOException {
+        }
+
+        abstract T readResult(DataInputStream in) throws IOException;
+
+        void read(DataInputStream in) throws IOException {
+            int status = in.readUnsignedByte();
+            if (status == RemoteProtocol.OK) {
+                complete(readResult(in));
+            } else {
+                completeExceptionally(readError(in, status));
+            }
+        }
+
+        static RuntimeException readError(DataInputStream in, int status) throws IOException {
+            if (status == RemoteProtocol.INVALID) {
+                return new IllegalArgumentException(in.readUTF());
+            }
+            return new IllegalStateException("Remote store failed: " + in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.moovup.remote;
+
+/**
+ * Wire format shared by {@link BucketServer} and {@link RemoteBucketStore}.
+ * Each request is an opcode byte followed by its arguments in
+ * {@link java.io.DataOutput} encoding; the server answers requests on a
+ * connection in the order they arrive, so responses carry no id. Every
+ * response starts with a status byte: {@link #OK} is followed by the
+ * results listed below, the error statuses by a message, so a call the
+ * store throws on fails alone and the connection carries on. An unknown
+ * opcode is answered with {@link #INVALID} and the server then closes the
+ * connection, since it cannot tell where the request's arguments end.
+ *
+ * <p>Scans stream their buckets: after {@link #OK} come chunks of a count
+ * of at most {@link #MAX_BATCH} and that many buckets, ended by a count of
+ * 0, or by {@link #SCAN_FAILED} and an error status and message if the
+ * store failed partway.
+ *
+ * @author thiyagaraja
+ */
+final class RemoteProtocol {
+    /** → capacity, leakRate */
+    static final int HELLO = 0;
+    /** userId, nanoTime, requestSize → waitNanos */
+    static final int ADMIT = 1;
+    /** userId → present, [currentLevel, lastLeakTime] */
+    static final int BUCKET = 2;
+    /** userId, nanoTime → level */
+    static final int LEVEL = 3;
+    /** → size */
+    static final int SIZE = 4;
+    /** → evictionCount */
+    static final int EVICTIONS = 5;
+    /** → chunks of count, count × (userId, currentLevel, lastLeakTime) */
+    static final int SCAN_BUCKETS = 6;
+    /** nanoTime → chunks of count, count × (userId, level, lastLeakTime) */
+    static final int SCAN_LEVELS = 7;
+
+    /** userId, nanoTime, amount → true */
+    static final int RELEASE = 8;
+
+    static final int OK = 0;
+    /** The store rejected an argument; the caller gets an IllegalArgumentException. */
+    static final int INVALID = 1;
+    /** The store failed otherwise; the caller gets an IllegalStateException. */
+    static final int FAILED = 2;
+
+    /** Most calls a client writes at once, and most buckets in a scan chunk. */
+    static final int MAX_BATCH = 1024;
+    /** Chunk count that ends a scan the store failed partway through. */
+    static final int SCAN_FAILED = -1;
+
+    /** Longest string {@link java.io.DataOutput#writeUTF} can encode, in bytes. */
+    static final int MAX_STRING_BYTES = 65_535;
+    static final int MAX_MESSAGE_CHARS = 1_024;
+
+    private RemoteProtocol() {
+    }
+
+    /**
+     * True if {@code value} fits {@link java.io.DataOutput#writeUTF}.
+     */
+    static boolean isEncodable(String value) {
+        return value.length() <= MAX_STRING_BYTES / 3 || utfLength(value) <= MAX_STRING_BYTES;
+    }
+
+    /**
+     * Bytes of {@code value} in the modified UTF-8 of {@link java.io.DataOutput#writeUTF}.
+     */
+    static int utfLength(String value) {
+        int bytes = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == 0 || c >= 0x80) {
+                bytes += c >= 0x800 ? 2 : 1;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,153 @@
+package com.moovup.replay;
+
+import com.moovup.metrics.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one {@link TraceReplay}: timing, sampled latency, allocation
+ * and the decision for every record of the trace, from which per-key
+ * counts and the comparison against a reference run are derived.
+ *
+ * @author thiyagaraja
+ */
+public final class ReplayReport {
+    private final TraceFile trace;
+    private final boolean[] decisions;
+    private final int threads;
+    private final long elapsedNanos;
+    private final LatencyHistogram.Snapshot latency;
+    private final long allocatedBytes;
+    private long[] allowedByKey;
+    private long[] requestsByKey;
+
+    ReplayReport(TraceFile trace, boolean[] decisions, int threads, long elapsedNanos,
+                 LatencyHistogram.Snapshot latency, long allocatedBytes) {
+        this.trace = trace;
+        this.decisions = decisions;
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+        this.latency = latency;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public int getRecordCount() { return decisions.length; }
+    public int getThreadCount() { return threads; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    /**
+     * Requests replayed per second of wall-clock time.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0.0 : decisions.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Admission latency of the sampled requests, in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getLatency() { return latency; }
+
+    /**
+     * Bytes allocated by the replay threads, or -1 if the JVM cannot tell.
+     */
+    public long getAllocatedBytes() { return allocatedBytes; }
+
+    public boolean isAllowed(int record) {
+        return decisions[record];
+    }
+
+    public long getAllowedCount() {
+        long allowed = 0;
+        for (long count : allowedByKey()) {
+            allowed += count;
+        }
+        return allowed;
+    }
+
+    public long getRejectedCount() {
+        return decisions.length - getAllowedCount();
+    }
+
+    /**
+     * Allowed requests of {@code userId}; 0 if the trace never names it.
+     */
+    public long getAllowedCount(String userId) {
+        int key = trace.getKeyIndex(userId);
+        return key < 0 ? 0 : allowedByKey()[key];
+    }
+
+    public long getRejectedCount(String userId) {
+        int key = trace.getKeyIndex(userId);
+        if (key < 0) {
+            return 0;
+        }
+        long allowed = allowedByKey()[key];
+        return requestsByKey[key] - allowed;
+    }
+
+    /**
+     * Keys whose allow and reject counts differ from {@code reference}, a
+     * replay of the same trace, in key table order.
+     */
+    public List<KeyMismatch> compare(ReplayReport reference) {
+        if (reference == null || reference.trace.getRecordCount() != trace.getRecordCount()
+                || reference.trace.getKeyCount() != trace.getKeyCount()) {
+            throw new IllegalArgumentException("Reference must replay the same trace");
+        }
+        long[] allowed = allowedByKey();
+        long[] referenceAllowed = reference.allowedByKey();
+        List<KeyMismatch> mismatches = new ArrayList<>();
+        for (int key = 0; key < allowed.length; key++) {
+            if (allowed[key] != referenceAllowed[key]) {
+                mismatches.add(new KeyMismatch(trace.getKey(key), requestsByKey[key], allowed[key],
+                        referenceAllowed[key]));
+            }
+        }
+        return mismatches;
+    }
+
+    private synchronized long[] allowedByKey() {
+        if (allowedByKey == null) {
+            long[] allowed = new long[trace.getKeyCount()];
+            long[] requests = new long[trace.getKeyCount()];
+            for (int record = 0; record < decisions.length; record++) {
+                int key = trace.keyIndex(record);
+                requests[key]++;
+                if (decisions[record]) {
+                    allowed[key]++;
+                }
+            }
+            requestsByKey = requests;
+            allowedByKey = allowed;
+        }
+        return allowedByKey;
+    }
+
+    /**
+     * One key's counts in this run and in the reference run.
+     */
+    public static final class KeyMismatch {
+        private final String userId;
+        private final long requests;
+        private final long allowed;
+        private final long referenceAllowed;
+
+        KeyMismatch(String userId, long requests, long allowed, long referenceAllowed) {
+            this.userId = userId;
+            this.requests = requests;
+            this.allowed = allowed;
+            this.referenceAllowed = referenceAllowed;
+        }
+
+        public String getUserId() { return userId; }
+        public long getAllowed() { return allowed; }
+        public long getRejected() { return requests - allowed; }
+        public long getReferenceAllowed() { return referenceAllowed; }
+        public long getReferenceRejected() { return requests - referenceAllowed; }
+
+        @Override
+        public String toString() {
+            return userId + ": allowed " + allowed + "/" + requests + ", reference " + referenceAllowed;
+        }
+    }
+}
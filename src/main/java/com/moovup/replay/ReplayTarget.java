@@ -0,0 +1,31 @@
+package com.moovup.replay;
+
+import com.moovup.model.AllowRequest;
+import com.moovup.service.LeakyBucketRateLimiter;
+
+/**
+ * Limiter under test in a {@link TraceReplay}. A shared, thread-safe
+ * limiter such as {@code ConcurrentLeakyBucketRateLimiter::allowRequest}
+ * can serve every partition; {@link #snapshot} gives each partition its own
+ * {@link LeakyBucketRateLimiter}, which is exact because partitions never
+ * share a key.
+ *
+ * @author thiyagaraja
+ */
+@FunctionalInterface
+public interface ReplayTarget {
+
+    boolean allowRequest(String userId, double timestamp, double requestSize);
+
+    /**
+     * Fresh immutable limiter whose latest version is kept between calls.
+     */
+    static ReplayTarget snapshot(double capacity, double leakRate) {
+        LeakyBucketRateLimiter[] latest = {LeakyBucketRateLimiter.createRateLimiter(capacity, leakRate)};
+        return (userId, timestamp, requestSize) -> {
+            AllowRequest result = LeakyBucketRateLimiter.allowRequest(latest[0], userId, timestamp, requestSize);
+            latest[0] = result.getNewLimiterState();
+            return result.isAllowed();
+        };
+    }
+}
@@ -0,0 +1,285 @@
+package com.moovup.replay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory-mapped request trace for {@link TraceReplay}. The file starts with
+ * a fixed header, followed by one fixed-width {@code (key index, timestamp,
+ * size)} record per request and a table of {@code (key length, UTF-8 key)}
+ * entries, each key stored once. Records are read in place from the
+ * mapping, so replaying them allocates nothing and the trace can be larger
+ * than the heap; only the distinct keys are loaded.
+ *
+ * <p>Record regions are mapped in chunks, so traces are not limited to one
+ * 2 GiB mapping, but record indexes are {@code int}s. CSV traces are
+ * converted once with {@link #convertCsv}.
+ *
+ * @author thiyagaraja
+ */
+public final class TraceFile {
+    static final int MAGIC = 0x4C425452;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = Integer.BYTES + 2 * Double.BYTES;
+    private static final int RECORDS_PER_CHUNK = (1 << 30) / RECORD_BYTES;
+
+    private final Path path;
+    private final MappedByteBuffer[] chunks;
+    private final int recordsPerChunk;
+    private final int recordCount;
+    private final String[] keys;
+    private final Map<String, Integer> keyIndexes;
+
+    private TraceFile(Path path, MappedByteBuffer[] chunks, int recordsPerChunk, int recordCount, String[] keys) {
+        this.path = path;
+        this.chunks = chunks;
+        this.recordsPerChunk = recordsPerChunk;
+        this.recordCount = recordCount;
+        this.keys = keys;
+        this.keyIndexes = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            keyIndexes.put(keys[i], i);
+        }
+    }
+
+    public static TraceFile open(Path path) throws IOException {
+        return open(path, RECORDS_PER_CHUNK);
+    }
+
+    static TraceFile open(Path path, int recordsPerChunk) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (length < HEADER_BYTES || channel.read(header, 0) < HEADER_BYTES || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a trace file: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported trace version " + header.getInt(4) + ": " + path);
+            }
+            long records = header.getLong(8);
+            int keyCount = header.getInt(16);
+            long keysAt = header.getLong(24);
+            if (records < 0 || records > Integer.MAX_VALUE || keyCount < 0
+                    || keysAt != HEADER_BYTES + records * RECORD_BYTES || keysAt > length
+                    || length - keysAt > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt trace header: " + path);
+            }
+            String[] keys = readKeys(channel.map(FileChannel.MapMode.READ_ONLY, keysAt, length - keysAt),
+                    keyCount, path);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((records + recordsPerChunk - 1) / recordsPerChunk)];
+            for (int i = 0; i < chunks.length; i++) {
+                long first = (long) i * recordsPerChunk;
+                long count = Math.min(recordsPerChunk, records - first);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * RECORD_BYTES, count * RECORD_BYTES);
+            }
+            return new TraceFile(path, chunks, recordsPerChunk, (int) records, keys);
+        }
+    }
+
+    /**
+     * Starts a new trace at {@code path}, replacing any file there.
+     */
+    public static Writer create(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        return new Writer(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Converts a CSV trace of {@code userId,timestamp[,size]} lines into a
+     * trace at {@code trace}. Size defaults to 1; blank lines and lines
+     * starting with {@code #} are skipped.
+     *
+     * @return number of records written
+     * @throws IOException if a line cannot be parsed
+     */
+    public static int convertCsv(Path csv, Path trace) throws IOException {
+        if (csv == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+             Writer writer = create(trace)) {
+            String line;
+            for (int number = 1; (line = reader.readLine()) != null; number++) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                try {
+                    if (fields.length < 2 || fields.length > 3 || fields[0].isBlank()) {
+                        throw new IllegalArgumentException("Expected userId,timestamp[,size]");
+                    }
+                    writer.append(fields[0].trim(), Double.parseDouble(fields[1].trim()),
+                            fields.length == 3 ? Double.parseDouble(fields[2].trim()) : 1.0);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed trace line " + number + " in " + csv + ": " + line, e);
+                }
+            }
+            return writer.getRecordCount();
+        }
+    }
+
+    public int getRecordCount() { return recordCount; }
+    public int getKeyCount() { return keys.length; }
+    public Path getPath() { return path; }
+
+    public String getKey(int keyIndex) {
+        return keys[keyIndex];
+    }
+
+    /**
+     * Index of {@code userId} in the key table, or -1 if no record uses it.
+     */
+    public int getKeyIndex(String userId) {
+        Integer index = keyIndexes.get(userId);
+        return index == null ? -1 : index;
+    }
+
+    public int keyIndex(int record) {
+        return chunk(record).getInt(offset(record));
+    }
+
+    public double timestamp(int record) {
+        return chunk(record).getDouble(offset(record) + Integer.BYTES);
+    }
+
+    public double size(int record) {
+        return chunk(record).getDouble(offset(record) + Integer.BYTES + Double.BYTES);
+    }
+
+    private MappedByteBuffer chunk(int record) {
+        return chunks[record / recordsPerChunk];
+    }
+
+    private int offset(int record) {
+        return record % recordsPerChunk * RECORD_BYTES;
+    }
+
+    private static String[] readKeys(MappedByteBuffer table, int keyCount, Path path) throws IOException {
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            if (table.remaining() < Integer.BYTES) {
+                throw new IOException("Truncated trace key table: " + path);
+            }
+            int length = table.getInt();
+            if (length < 0 || length > table.remaining()) {
+                throw new IOException("Truncated trace key table: " + path);
+            }
+            byte[] key = new byte[length];
+            table.get(key);
+            keys[i] = new String(key, StandardCharsets.UTF_8);
+        }
+        return keys;
+    }
+
+    /**
+     * Streams records through a small direct buffer and writes the key
+     * table and header on {@link #close}.
+     */
+    public static final class Writer implements AutoCloseable {
+        private static final int BUFFER_BYTES = 1 << 16;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final Map<String, Integer> keyIndexes = new HashMap<>();
+        private final List<String> keys = new ArrayList<>();
+        private long position = HEADER_BYTES;
+        private int records;
+        private boolean closed;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public void append(String userId, double timestamp, double requestSize) throws IOException {
+            if (userId == null) {
+                throw new IllegalArgumentException("User ID cannot be null");
+            }
+            if (closed) {
+                throw new IllegalStateException("Trace writer is closed");
+            }
+            if (records == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Trace is full");
+            }
+            Integer index = keyIndexes.get(userId);
+            if (index == null) {
+                index = keys.size();
+                keyIndexes.put(userId, index);
+                keys.add(userId);
+            }
+            if (buffer.remaining() < RECORD_BYTES) {
+                flush();
+            }
+            buffer.putInt(index).putDouble(timestamp).putDouble(requestSize);
+            records++;
+        }
+
+        public int getRecordCount() { return records; }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                long keysAt = HEADER_BYTES + (long) records * RECORD_BYTES;
+                for (String key : keys) {
+                    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                    if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                        flush();
+                    }
+                    if (buffer.remaining() < Integer.BYTES + bytes.length) {
+                        write(ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes));
+                    } else {
+                        buffer.putInt(bytes.length).put(bytes);
+                    }
+                }
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putLong(records)
+                        .putInt(keys.size())
+                        .putInt(0)
+                        .putLong(keysAt);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void flush() throws IOException {
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            source.flip();
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        }
+    }
+}
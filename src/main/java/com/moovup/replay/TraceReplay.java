@@ -0,0 +1,267 @@
+package com.moovup.replay;
+
+import com.moovup.metrics.LatencyHistogram;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.PrimitiveBucketStore;
+import com.moovup.store.SketchBucketStore;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Replays a {@link TraceFile} through a limiter as fast as it will go, to
+ * check a limiter against real traffic before rollout. Records are
+ * partitioned across threads by key, and each thread replays its keys in
+ * trace order, so every key sees exactly the sequence of a single-threaded
+ * run and the decisions can be compared one for one with a
+ * {@link #reference} run of {@link com.moovup.service.LeakyBucketRateLimiter}.
+ * The threads run freely, as real callers would, so a shared limiter whose
+ * decisions depend on how far apart its callers' clocks drift shows up as
+ * mismatches rather than being kept in step.
+ *
+ * <p>Limiters on {@link com.moovup.model.PackedBucketFormat} keep time in
+ * whole milliseconds. On a trace with sub-millisecond timestamps, a request
+ * that the reference finds within a millisecond's leak of fitting can go
+ * the other way, and shows up as a mismatch of its key.
+ *
+ * <p>The record indexes of each partition are split out before the timed
+ * run, so each thread reads only its own records and the replay loop
+ * allocates nothing of its own; the allocation reported is the limiter's.
+ * Latency is timed on one request in
+ * {@code latencySampleInterval} per thread to keep the clock reads off the
+ * throughput figure.
+ *
+ * <p>From the command line:
+ * <pre>
+ * TraceReplay &lt;trace or .csv&gt; &lt;capacity&gt; &lt;leakRate&gt; [threads] [snapshot|concurrent|primitive|sketch]
+ * </pre>
+ * runs one warm-up pass, a measured pass and the sequential reference, and
+ * prints throughput, latency percentiles, allocation and the keys whose
+ * counts differ from the reference. It exits with status 1 if any do, so
+ * it can gate a rollout.
+ *
+ * @author thiyagaraja
+ */
+public final class TraceReplay {
+    private static final int DEFAULT_SAMPLE_INTERVAL = 16;
+    private static final int MISMATCHES_SHOWN = 10;
+
+    private TraceReplay() {
+    }
+
+    /**
+     * @param targets               called once per partition; may return
+     *                              one shared thread-safe limiter
+     * @param latencySampleInterval time one request in this many per
+     *                              thread; 0 times none
+     */
+    public static ReplayReport replay(TraceFile trace, Supplier<? extends ReplayTarget> targets,
+                                      int threads, int latencySampleInterval) {
+        if (trace == null || targets == null) {
+            throw new IllegalArgumentException("Trace and targets cannot be null");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        if (latencySampleInterval < 0) {
+            throw new IllegalArgumentException("Latency sample interval cannot be negative");
+        }
+        String[] keys = new String[trace.getKeyCount()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = trace.getKey(i);
+        }
+        int[][] partitions = partition(trace, threads);
+        boolean[] decisions = new boolean[trace.getRecordCount()];
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder allocated = new LongAdder();
+        AtomicBoolean allocationUnknown = new AtomicBoolean();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int partition = 0; partition < threads; partition++) {
+            ReplayTarget target = targets.get();
+            if (target == null) {
+                throw new IllegalArgumentException("Targets returned null");
+            }
+            int[] records = partitions[partition];
+            workers[partition] = new Thread(() -> {
+                try {
+                    start.await();
+                    long before = allocatedBytes();
+                    replayPartition(trace, keys, target, records, latencySampleInterval, latency, decisions);
+                    long after = allocatedBytes();
+                    if (before < 0 || after < 0) {
+                        allocationUnknown.set(true);
+                    }
+                    allocated.add(after - before);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "leaky-bucket-replay-" + partition);
+            workers[partition].setDaemon(true);
+            workers[partition].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        joinAll(workers);
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return new ReplayReport(trace, decisions, threads, elapsed, latency.snapshot(),
+                allocationUnknown.get() ? -1 : allocated.sum());
+    }
+
+    /**
+     * Single-threaded replay through one {@link com.moovup.service.LeakyBucketRateLimiter},
+     * the behaviour other runs are checked against.
+     */
+    public static ReplayReport reference(TraceFile trace, double capacity, double leakRate) {
+        return replay(trace, () -> ReplayTarget.snapshot(capacity, leakRate), 1, 0);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: TraceReplay <trace or .csv> <capacity> <leakRate> [threads]"
+                    + " [snapshot|concurrent|primitive|sketch]");
+            System.exit(2);
+        }
+        Path path = Path.of(args[0]);
+        double capacity = Double.parseDouble(args[1]);
+        double leakRate = Double.parseDouble(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String limiter = args.length > 4 ? args[4] : "snapshot";
+
+        if (path.getFileName().toString().endsWith(".csv")) {
+            Path converted = Files.createTempFile("trace", ".bin");
+            converted.toFile().deleteOnExit();
+            System.out.printf("Converted %,d CSV records%n", TraceFile.convertCsv(path, converted));
+            path = converted;
+        }
+        TraceFile trace = TraceFile.open(path);
+        System.out.printf("Trace: %,d records, %,d keys; %s limiter on %d threads%n",
+                trace.getRecordCount(), trace.getKeyCount(), limiter, threads);
+
+        replay(trace, targets(limiter, capacity, leakRate, trace.getKeyCount()), threads, DEFAULT_SAMPLE_INTERVAL);
+        ReplayReport report = replay(trace, targets(limiter, capacity, leakRate, trace.getKeyCount()),
+                threads, DEFAULT_SAMPLE_INTERVAL);
+        ReplayReport reference = reference(trace, capacity, leakRate);
+
+        LatencyHistogram.Snapshot latency = report.getLatency();
+        System.out.printf("Throughput: %,.0f requests/s (%.1f ms)%n",
+                report.getThroughput(), report.getElapsedNanos() / 1e6);
+        System.out.printf("Latency ns: p50=%d p99=%d p99.9=%d max=%d (%,d sampled)%n",
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                latency.getValueAtPercentile(99.9), latency.getMaxValue(), latency.getCount());
+        System.out.printf("Allocated: %s%n", report.getAllocatedBytes() < 0 ? "unavailable"
+                : String.format("%,d bytes (%.1f per request)", report.getAllocatedBytes(),
+                        report.getAllocatedBytes() / (double) Math.max(1, report.getRecordCount())));
+        System.out.printf("Allowed: %,d  Rejected: %,d  (reference %,d / %,d)%n",
+                report.getAllowedCount(), report.getRejectedCount(),
+                reference.getAllowedCount(), reference.getRejectedCount());
+        List<ReplayReport.KeyMismatch> mismatches = report.compare(reference);
+        System.out.printf("Keys differing from reference: %,d%n", mismatches.size());
+        for (ReplayReport.KeyMismatch mismatch : mismatches.subList(0, Math.min(MISMATCHES_SHOWN, mismatches.size()))) {
+            System.out.println("  " + mismatch);
+        }
+        if (!mismatches.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static Supplier<ReplayTarget> targets(String limiter, double capacity, double leakRate, int keys) {
+        return switch (limiter) {
+            case "snapshot" -> () -> ReplayTarget.snapshot(capacity, leakRate);
+            case "concurrent" -> shared(ConcurrentLeakyBucketRateLimiter.createRateLimiter(capacity, leakRate));
+            case "primitive" -> shared(ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                    new PrimitiveBucketStore(capacity, leakRate, Math.max(1, keys))));
+            case "sketch" -> shared(ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                    new SketchBucketStore(capacity, leakRate, 1e-4, 1e-3, 1_024)));
+            default -> throw new IllegalArgumentException("Unknown limiter: " + limiter);
+        };
+    }
+
+    private static Supplier<ReplayTarget> shared(ConcurrentLeakyBucketRateLimiter limiter) {
+        ReplayTarget target = limiter::allowRequest;
+        return () -> target;
+    }
+
+    /**
+     * Record indexes of each partition in trace order; a key's records all
+     * go to partition {@code key % partitions}.
+     */
+    private static int[][] partition(TraceFile trace, int partitions) {
+        int[] counts = new int[partitions];
+        for (int record = 0; record < trace.getRecordCount(); record++) {
+            counts[trace.keyIndex(record) % partitions]++;
+        }
+        int[][] records = new int[partitions][];
+        for (int partition = 0; partition < partitions; partition++) {
+            records[partition] = new int[counts[partition]];
+            counts[partition] = 0;
+        }
+        for (int record = 0; record < trace.getRecordCount(); record++) {
+            int partition = trace.keyIndex(record) % partitions;
+            records[partition][counts[partition]++] = record;
+        }
+        return records;
+    }
+
+    private static void replayPartition(TraceFile trace, String[] keys, ReplayTarget target, int[] records,
+                                        int sampleInterval, LatencyHistogram latency, boolean[] decisions) {
+        int untilSample = sampleInterval;
+        for (int record : records) {
+            int key = trace.keyIndex(record);
+            double timestamp = trace.timestamp(record);
+            double requestSize = trace.size(record);
+            if (sampleInterval != 0 && --untilSample == 0) {
+                untilSample = sampleInterval;
+                long begin = System.nanoTime();
+                decisions[record] = target.allowRequest(keys[key], timestamp, requestSize);
+                latency.record(System.nanoTime() - begin);
+            } else {
+                decisions[record] = target.allowRequest(keys[key], timestamp, requestSize);
+            }
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or -1 if unsupported.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean allocation
+                && allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+            return allocation.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static void joinAll(Thread[] workers) {
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (true) {
+                try {
+                    worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
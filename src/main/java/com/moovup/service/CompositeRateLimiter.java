@@ -0,0 +1,171 @@
+package com.moovup.service;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.policy.RatePolicy;
+import com.moovup.store.ConcurrentMapBucketStore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies several limits to one request, such as per user, per tenant, per
+ * endpoint and global. Each level is a {@link RatePolicy} with its own
+ * buckets, and each request names one key per level. A request is admitted
+ * only if every level has room, and then charged to all of them; otherwise
+ * no level is charged.
+ *
+ * <p>Each level is a {@link ConcurrentMapBucketStore}, so drained buckets
+ * are evicted as requests pass. A request locks the stripe of its key at
+ * every level, in level order, checks that every level has room and only
+ * then charges them all. No charge is ever made and taken back, so no other
+ * request can see one. Requests that share a key, such as a global one,
+ * take turns on its stripe for the check and the charge.
+ *
+ * @author thiyagaraja
+ */
+public class CompositeRateLimiter {
+    private static final int STRIPES = 256;
+
+    private final RatePolicy[] policies;
+    private final ConcurrentMapBucketStore[] levels;
+    private final ReentrantLock[][] stripes;
+
+    private CompositeRateLimiter(RatePolicy[] policies) {
+        this.policies = policies.clone();
+        this.levels = new ConcurrentMapBucketStore[policies.length];
+        this.stripes = new ReentrantLock[policies.length][STRIPES];
+        for (int i = 0; i < policies.length; i++) {
+            levels[i] = new ConcurrentMapBucketStore(new PolicyRegistry(policies[i]));
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                stripes[i][stripe] = new ReentrantLock();
+            }
+        }
+    }
+
+    /**
+     * @param levels limits in the order they are charged; usually narrowest
+     *               first, e.g. user, tenant, endpoint, global, so that most
+     *               rejections roll back few levels
+     */
+    public static CompositeRateLimiter createRateLimiter(RatePolicy... levels) {
+        if (levels == null || levels.length == 0) {
+            throw new IllegalArgumentException("At least one level is required");
+        }
+        for (RatePolicy level : levels) {
+            if (level == null) {
+                throw new IllegalArgumentException("Levels cannot be null");
+            }
+        }
+        return new CompositeRateLimiter(levels);
+    }
+
+    public boolean allowRequest(String[] keys, double timestamp) {
+        return allowRequest(keys, timestamp, 1.0);
+    }
+
+    /**
+     * @param keys one key per level, in level order; a level that is shared
+     *             by everyone, such as a global limit, takes a constant
+     */
+    public boolean allowRequest(String[] keys, double timestamp, double requestSize) {
+        return tryAllowRequest(keys, timestamp, requestSize) == 0.0;
+    }
+
+    /**
+     * Admits the request at every level or at none.
+     *
+     * @return 0 if admitted, otherwise seconds until every level has room
+     *         for it, infinite if some level never will
+     */
+    public double tryAllowRequest(String[] keys, double timestamp, double requestSize) {
+        validateKeys(keys);
+        if (requestSize <= 0) {
+            throw new IllegalArgumentException("Request size must be positive");
+        }
+        long nanoTime = PackedBucketFormat.toNanos(timestamp);
+        int locked = 0;
+        try {
+            for (; locked < levels.length; locked++) {
+                stripe(locked, keys[locked]).lock();
+            }
+            long waitNanos = 0;
+            for (int level = 0; level < levels.length; level++) {
+                waitNanos = Math.max(waitNanos, levels[level].checkRequest(keys[level], nanoTime, requestSize));
+            }
+            if (waitNanos != 0) {
+                return waitNanos == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : waitNanos / 1e9;
+            }
+            for (int level = 0; level < levels.length; level++) {
+                // only this limiter charges the levels, and their stripes are held
+                if (levels[level].tryAllowRequest(keys[level], nanoTime, requestSize) != 0) {
+                    throw new IllegalStateException("Level " + level + " changed while locked");
+                }
+            }
+            return 0.0;
+        } finally {
+            while (locked > 0) {
+                locked--;
+                stripe(locked, keys[locked]).unlock();
+            }
+        }
+    }
+
+    /**
+     * Bucket of {@code key} at {@code level} as of its last charge, or null
+     * if it has none.
+     */
+    public Bucket getBucketState(int level, String key) {
+        return levels[checkLevel(level)].getBucketState(key);
+    }
+
+    /**
+     * Level of {@code key} at {@code level}, leaked up to {@code timestamp}.
+     */
+    public double getCurrentLevel(int level, String key, double timestamp) {
+        return levels[checkLevel(level)].getCurrentLevel(key, PackedBucketFormat.toNanos(timestamp));
+    }
+
+    /**
+     * Removes buckets that have fully leaked by {@code timestamp}, which are
+     * indistinguishable from absent ones. Requests evict drained buckets on
+     * their own; this is for cleanup while traffic is idle.
+     *
+     * @return number of buckets removed
+     */
+    public int evictDrained(double timestamp) {
+        long evicted = 0;
+        for (ConcurrentMapBucketStore level : levels) {
+            long before = level.getEvictionCount();
+            level.evictExpired(timestamp);
+            evicted += level.getEvictionCount() - before;
+        }
+        return (int) evicted;
+    }
+
+    public int getLevelCount() { return levels.length; }
+    public RatePolicy getLevel(int level) { return policies[checkLevel(level)]; }
+    public int getBucketCount(int level) { return levels[checkLevel(level)].size(); }
+
+    private ReentrantLock stripe(int level, String key) {
+        int hash = key.hashCode();
+        return stripes[level][(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void validateKeys(String[] keys) {
+        if (keys == null || keys.length != levels.length) {
+            throw new IllegalArgumentException("Expected one key per level: " + levels.length);
+        }
+        for (String key : keys) {
+            if (key == null || key.isBlank()) {
+                throw new IllegalArgumentException("Keys cannot be null or blank");
+            }
+        }
+    }
+
+    private int checkLevel(int level) {
+        if (level < 0 || level >= levels.length) {
+            throw new IllegalArgumentException("No level " + level);
+        }
+        return level;
+    }
+}
@@ -0,0 +1,511 @@
+package com.moovup.service;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.metrics.LimiterMetrics;
+import com.moovup.metrics.MetricsExporter;
+import com.moovup.metrics.MetricsSnapshot;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.store.BucketStore;
+import com.moovup.store.ConcurrentMapBucketStore;
+import com.moovup.store.ShardedBucketStore;
+import com.moovup.time.TimeSource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mutable, thread-safe counterpart of {@link LeakyBucketRateLimiter}.
+ * Buckets are updated in place by a {@link BucketStore}, so an admission
+ * check only touches the caller's bucket instead of copying the whole user
+ * map, and concurrent callers for one user never overfill it.
+ *
+ * <p>Time is integer nanoseconds since the Unix epoch, negative before it,
+ * within the range of {@link PackedBucketFormat}. The {@code double}
+ * timestamp methods take seconds on the same timeline, and the
+ * {@code allowRequestNow} methods read the configured {@link TimeSource}.
+ *
+ * <p>{@link #acquire} and {@link #tryAcquire} block until a request fits.
+ * Callers for one user queue in arrival order and only the oldest one
+ * polls the bucket, parking exactly until the leak makes room, so blocked
+ * virtual threads neither spin nor pin their carrier.
+ *
+ * <p>Requests can also be keyed by a {@code long} id or by a slice of bytes,
+ * such as an API key still in the request's header buffer. They name the
+ * same bucket as the decimal or ISO-8859-1 string and are validated
+ * without allocating; with a {@link com.moovup.store.PrimitiveBucketStore}
+ * they are hashed in place and never become a string at all.
+ *
+ * <p>Metrics are off unless a {@link LimiterMetrics} is passed at creation.
+ *
+ * @author thiyagaraja
+ */
+public class ConcurrentLeakyBucketRateLimiter {
+    private static final Duration MAX_TIMEOUT = Duration.ofNanos(Long.MAX_VALUE / 2);
+
+    private final BucketStore store;
+    private final TimeSource timeSource;
+    private final LimiterMetrics metrics;
+    private final KeyWaiters waiters = new KeyWaiters();
+
+    private ConcurrentLeakyBucketRateLimiter(BucketStore store, TimeSource timeSource,
+                                             LimiterMetrics metrics) {
+        this.store = store;
+        this.timeSource = timeSource;
+        this.metrics = metrics;
+    }
+
+    public static ConcurrentLeakyBucketRateLimiter createRateLimiter(double capacity, double leakRate) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (leakRate < 0) {
+            throw new IllegalArgumentException("Leak rate cannot be negative");
+        }
+
+        return createRateLimiter(new ConcurrentMapBucketStore(capacity, leakRate));
+    }
+
+    /**
+     * Limiter whose users are split across {@code shardCount} independent
+     * stores; see {@link ShardedBucketStore}. {@code shardCount} must be a
+     * power of two, typically around the number of cores.
+     */
+    public static ConcurrentLeakyBucketRateLimiter createRateLimiter(double capacity, double leakRate,
+                                                                     int shardCount) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (leakRate < 0) {
+            throw new IllegalArgumentException("Leak rate cannot be negative");
+        }
+
+        return createRateLimiter(new ShardedBucketStore(capacity, leakRate, shardCount));
+    }
+
+    /**
+     * Limiter with per-user policies: each user gets the capacity and leak
+     * rate of the policy {@code policies} resolves for them.
+     */
+    public static ConcurrentLeakyBucketRateLimiter createTieredRateLimiter(PolicyRegistry policies) {
+        return createRateLimiter(new ConcurrentMapBucketStore(policies));
+    }
+
+    public static ConcurrentLeakyBucketRateLimiter createRateLimiter(BucketStore store) {
+        return createRateLimiter(store, TimeSource.system());
+    }
+
+    public static ConcurrentLeakyBucketRateLimiter createRateLimiter(BucketStore store,
+                                                                     TimeSource timeSource) {
+        validateStore(store, timeSource);
+        return new ConcurrentLeakyBucketRateLimiter(store, timeSource, null);
+    }
+
+    /**
+     * Limiter that records admissions into {@code metrics}.
+     */
+    public static ConcurrentLeakyBucketRateLimiter createRateLimiter(BucketStore store,
+                                                                     TimeSource timeSource,
+                                                                     LimiterMetrics metrics) {
+        validateStore(store, timeSource);
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics cannot be null");
+        }
+        return new ConcurrentLeakyBucketRateLimiter(store, timeSource, metrics);
+    }
+
+    private static void validateStore(BucketStore store, TimeSource timeSource) {
+        if (store == null) {
+            throw new IllegalArgumentException("Store cannot be null");
+        }
+        if (timeSource == null) {
+            throw new IllegalArgumentException("Time source cannot be null");
+        }
+    }
+
+    public boolean allowRequest(String userId, double timestamp) {
+        return allowRequest(userId, timestamp, 1.0);
+    }
+
+    public boolean allowRequest(String userId, double timestamp, double requestSize) {
+        return allowRequestNanos(userId, PackedBucketFormat.toNanos(timestamp), requestSize);
+    }
+
+    /**
+     * Same as {@link #allowRequest(String, double, double)} with the time in
+     * nanoseconds. The built-in stores keep time in the millisecond ticks
+     * of {@link PackedBucketFormat} and round {@code nanoTime} down to one,
+     * so leaks are counted in whole milliseconds: two requests in the same
+     * millisecond see no leak between them, and the fraction is dropped
+     * rather than carried.
+     */
+    public boolean allowRequestNanos(String userId, long nanoTime, double requestSize) {
+        LeakyBucketRateLimiter.validateRequest(userId, requestSize);
+        return admit(userId, nanoTime, requestSize) == 0;
+    }
+
+    public boolean allowRequestNow(String userId) {
+        return allowRequestNow(userId, 1.0);
+    }
+
+    public boolean allowRequestNow(String userId, double requestSize) {
+        return allowRequestNanos(userId, timeSource.nanoTime(), requestSize);
+    }
+
+    /**
+     * Admits the request if it fits, and otherwise tells the caller how long
+     * to back off instead of a bare rejection.
+     *
+     * @return 0 if allowed, otherwise the nanoseconds until the same request
+     *         would fit, or {@link Long#MAX_VALUE} if it never will
+     */
+    public long tryAllowRequestNanos(String userId, long nanoTime, double requestSize) {
+        LeakyBucketRateLimiter.validateRequest(userId, requestSize);
+        return admit(userId, nanoTime, requestSize);
+    }
+
+    public long tryAllowRequestNow(String userId, double requestSize) {
+        return tryAllowRequestNanos(userId, timeSource.nanoTime(), requestSize);
+    }
+
+    public boolean allowRequest(long userId, double timestamp) {
+        return allowRequest(userId, timestamp, 1.0);
+    }
+
+    public boolean allowRequest(long userId, double timestamp, double requestSize) {
+        return allowRequestNanos(userId, PackedBucketFormat.toNanos(timestamp), requestSize);
+    }
+
+    public boolean allowRequestNanos(long userId, long nanoTime, double requestSize) {
+        return tryAllowRequestNanos(userId, nanoTime, requestSize) == 0;
+    }
+
+    /**
+     * Same as {@link #tryAllowRequestNanos(String, long, double)} for the
+     * user {@code Long.toString(userId)}.
+     */
+    public long tryAllowRequestNanos(long userId, long nanoTime, double requestSize) {
+        LeakyBucketRateLimiter.validateSize(requestSize);
+        if (metrics == null) {
+            return store.tryAllowRequest(userId, nanoTime, requestSize);
+        }
+        boolean sampled = metrics.sampleLatency();
+        long start = sampled ? System.nanoTime() : 0;
+        long waitNanos = store.tryAllowRequest(userId, nanoTime, requestSize);
+        long latency = sampled ? System.nanoTime() - start : 0;
+        record(sampled || waitNanos != 0 ? Long.toString(userId) : null,
+                sampled, latency, requestSize, waitNanos);
+        return waitNanos;
+    }
+
+    public boolean allowRequest(byte[] userId, int offset, int length, double timestamp) {
+        return allowRequest(userId, offset, length, timestamp, 1.0);
+    }
+
+    public boolean allowRequest(byte[] userId, int offset, int length, double timestamp, double requestSize) {
+        return allowRequestNanos(userId, offset, length, PackedBucketFormat.toNanos(timestamp), requestSize);
+    }
+
+    public boolean allowRequestNanos(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        return tryAllowRequestNanos(userId, offset, length, nanoTime, requestSize) == 0;
+    }
+
+    /**
+     * Same as {@link #tryAllowRequestNanos(String, long, double)} for the
+     * user whose id is {@code length} bytes of {@code userId} from
+     * {@code offset}, read as ISO-8859-1.
+     */
+    public long tryAllowRequestNanos(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        LeakyBucketRateLimiter.validateRequest(userId, offset, length, requestSize);
+        if (metrics == null) {
+            return store.tryAllowRequest(userId, offset, length, nanoTime, requestSize);
+        }
+        boolean sampled = metrics.sampleLatency();
+        long start = sampled ? System.nanoTime() : 0;
+        long waitNanos = store.tryAllowRequest(userId, offset, length, nanoTime, requestSize);
+        long latency = sampled ? System.nanoTime() - start : 0;
+        record(sampled || waitNanos != 0 ? new String(userId, offset, length, StandardCharsets.ISO_8859_1) : null,
+                sampled, latency, requestSize, waitNanos);
+        return waitNanos;
+    }
+
+    public boolean allowRequest(ByteBuffer userId, double timestamp) {
+        return allowRequest(userId, timestamp, 1.0);
+    }
+
+    public boolean allowRequest(ByteBuffer userId, double timestamp, double requestSize) {
+        return allowRequestNanos(userId, PackedBucketFormat.toNanos(timestamp), requestSize);
+    }
+
+    public boolean allowRequestNanos(ByteBuffer userId, long nanoTime, double requestSize) {
+        return tryAllowRequestNanos(userId, nanoTime, requestSize) == 0;
+    }
+
+    /**
+     * Same as the {@code byte[]} form for the remaining bytes of
+     * {@code userId}, which may be a direct buffer; its position is left
+     * unchanged.
+     */
+    public long tryAllowRequestNanos(ByteBuffer userId, long nanoTime, double requestSize) {
+        LeakyBucketRateLimiter.validateRequest(userId, requestSize);
+        if (metrics == null) {
+            return store.tryAllowRequest(userId, nanoTime, requestSize);
+        }
+        boolean sampled = metrics.sampleLatency();
+        long start = sampled ? System.nanoTime() : 0;
+        long waitNanos = store.tryAllowRequest(userId, nanoTime, requestSize);
+        long latency = sampled ? System.nanoTime() - start : 0;
+        record(sampled || waitNanos != 0 ? StandardCharsets.ISO_8859_1.decode(userId.duplicate()).toString() : null,
+                sampled, latency, requestSize, waitNanos);
+        return waitNanos;
+    }
+
+    public void acquire(String userId) throws InterruptedException {
+        acquire(userId, 1.0);
+    }
+
+    /**
+     * Blocks until {@code requestSize} has been admitted for {@code userId}.
+     *
+     * @throws RejectedExecutionException if the request can never fit
+     */
+    public void acquire(String userId, double requestSize) throws InterruptedException {
+        awaitAdmission(userId, requestSize, false, 0);
+    }
+
+    /**
+     * Waits at most {@code timeout} for {@code requestSize} to be admitted.
+     *
+     * @return true if admitted, false if the timeout passed first or the
+     *         request can never fit
+     */
+    public boolean tryAcquire(String userId, double requestSize, Duration timeout)
+            throws InterruptedException {
+        if (timeout == null) {
+            throw new IllegalArgumentException("Timeout cannot be null");
+        }
+        long timeoutNanos = timeout.isNegative() ? 0
+                : timeout.compareTo(MAX_TIMEOUT) > 0 ? MAX_TIMEOUT.toNanos() : timeout.toNanos();
+        return awaitAdmission(userId, requestSize, true, System.nanoTime() + timeoutNanos);
+    }
+
+    /**
+     * Admits a batch of requests in timestamp order (ties in array order) and
+     * writes each decision to {@code results[i]}.
+     *
+     * @return the number of allowed requests
+     */
+    public int allowRequests(String[] userIds, double[] timestamps,
+                             double[] requestSizes, boolean[] results) {
+        LeakyBucketRateLimiter.validateBatch(userIds, timestamps, requestSizes, results);
+        int[] order = LeakyBucketRateLimiter.timestampOrder(timestamps);
+        int allowed = 0;
+        for (int n = 0; n < userIds.length; n++) {
+            int i = order == null ? n : order[n];
+            results[i] = admit(userIds[i], PackedBucketFormat.toNanos(timestamps[i]), requestSizes[i]) == 0;
+            if (results[i]) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    public Bucket getBucketState(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        return store.getBucketState(userId);
+    }
+
+    public Map<String, Bucket> getAllBucketStates() {
+        Map<String, Bucket> result = new ConcurrentHashMap<>();
+        store.forEach(result::put);
+        return result;
+    }
+
+    /**
+     * Level of {@code userId}'s bucket leaked up to {@code timestamp}, read
+     * without allocating or changing the bucket.
+     */
+    public double getCurrentLevel(String userId, double timestamp) {
+        return getCurrentLevelNanos(userId, PackedBucketFormat.toNanos(timestamp));
+    }
+
+    public double getCurrentLevelNanos(String userId, long nanoTime) {
+        if (userId == null) {
+            return 0.0;
+        }
+        return store.getCurrentLevel(userId, nanoTime);
+    }
+
+    /**
+     * Streams every bucket to {@code visitor} with levels leaked up to
+     * {@code timestamp}. Unlike {@link #getAllBucketStates()} nothing is
+     * copied, so the cost per bucket is one state read.
+     */
+    public void forEachBucketState(double timestamp, BucketVisitor visitor) {
+        forEachBucketStateNanos(PackedBucketFormat.toNanos(timestamp), visitor);
+    }
+
+    public void forEachBucketStateNanos(long nanoTime, BucketVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("Visitor cannot be null");
+        }
+        store.forEachBucket(nanoTime, visitor);
+    }
+
+    /**
+     * Parallel form of {@link #forEachBucketState}; {@code visitor} is called
+     * from several threads at once.
+     */
+    public void forEachBucketStateParallel(double timestamp, BucketVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("Visitor cannot be null");
+        }
+        store.forEachBucketParallel(PackedBucketFormat.toNanos(timestamp), visitor);
+    }
+
+    /**
+     * Current counters, or null if this limiter was created without metrics.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot(store.size(), store.getEvictionCount());
+    }
+
+    /**
+     * Hands the current metrics to {@code exporter}; does nothing if this
+     * limiter was created without metrics.
+     */
+    public void exportMetrics(MetricsExporter exporter) {
+        if (exporter == null) {
+            throw new IllegalArgumentException("Exporter cannot be null");
+        }
+        MetricsSnapshot snapshot = getMetrics();
+        if (snapshot != null) {
+            exporter.export(snapshot);
+        }
+    }
+
+    /**
+     * Number of threads blocked in {@link #acquire} or {@link #tryAcquire}.
+     */
+    public int getWaiterCount() { return waiters.size(); }
+
+    public double getCapacity() { return store.getCapacity(); }
+    public double getLeakRate() { return store.getLeakRate(); }
+    public int getUserCount() { return store.size(); }
+    public TimeSource getTimeSource() { return timeSource; }
+
+    /**
+     * Single entry to the store for every admission, so metrics see all of
+     * them. Returns the result of {@link BucketStore#tryAllowRequest}.
+     */
+    private long admit(String userId, long nanoTime, double requestSize) {
+        if (metrics == null) {
+            return store.tryAllowRequest(userId, nanoTime, requestSize);
+        }
+        boolean sampled = metrics.sampleLatency();
+        long start = sampled ? System.nanoTime() : 0;
+        long waitNanos = store.tryAllowRequest(userId, nanoTime, requestSize);
+        long latency = sampled ? System.nanoTime() - start : 0;
+        record(userId, sampled, latency, requestSize, waitNanos);
+        return waitNanos;
+    }
+
+    /**
+     * @param userId may be null unless {@code sampled} or rejected, so that
+     *               numeric and byte keys only become strings when needed
+     */
+    private void record(String userId, boolean sampled, long latency, double requestSize, long waitNanos) {
+        if (sampled) {
+            metrics.recordLatency(latency);
+            metrics.recordVolume(userId, requestSize);
+        }
+        if (waitNanos == 0) {
+            metrics.recordAllowed();
+        } else {
+            metrics.recordRejected(userId, requestSize, waitNanos);
+        }
+    }
+
+    /**
+     * Polls the store directly rather than through {@link #admit}, so a
+     * caller that waits through many polls still counts as one admission
+     * or one rejection in the metrics.
+     *
+     * @param deadline {@link System#nanoTime()} to give up at if {@code timed}
+     */
+    private boolean awaitAdmission(String userId, double requestSize, boolean timed, long deadline)
+            throws InterruptedException {
+        LeakyBucketRateLimiter.validateRequest(userId, requestSize);
+        long waitNanos = 0;
+        if (!waiters.hasWaiters(userId)) {
+            waitNanos = store.tryAllowRequest(userId, timeSource.nanoTime(), requestSize);
+            if (waitNanos == 0) {
+                return recordOutcome(userId, requestSize, 0);
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                recordOutcome(userId, requestSize, waitNanos);
+                return neverFits(userId, timed);
+            }
+        }
+
+        Thread current = Thread.currentThread();
+        waiters.enqueue(userId, current);
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    return recordOutcome(userId, requestSize, Math.max(1, waitNanos));
+                }
+                if (!waiters.isHead(userId, current)) {
+                    if (timed) {
+                        LockSupport.parkNanos(this, remaining);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                    continue;
+                }
+                waitNanos = store.tryAllowRequest(userId, timeSource.nanoTime(), requestSize);
+                if (waitNanos == 0) {
+                    return recordOutcome(userId, requestSize, 0);
+                }
+                if (waitNanos == Long.MAX_VALUE) {
+                    recordOutcome(userId, requestSize, waitNanos);
+                    return neverFits(userId, timed);
+                }
+                LockSupport.parkNanos(this, Math.min(waitNanos, remaining));
+            }
+        } finally {
+            waiters.leave(userId, current);
+        }
+    }
+
+    /**
+     * Records the final outcome of a blocking admission; a timeout reports
+     * the wait seen at its last poll.
+     *
+     * @return true if it was admitted
+     */
+    private boolean recordOutcome(String userId, double requestSize, long waitNanos) {
+        if (metrics != null) {
+            record(userId, false, 0, requestSize, waitNanos);
+        }
+        return waitNanos == 0;
+    }
+
+    private static boolean neverFits(String userId, boolean timed) {
+        if (!timed) {
+            throw new RejectedExecutionException("Request can never fit for user " + userId);
+        }
+        return false;
+    }
+}
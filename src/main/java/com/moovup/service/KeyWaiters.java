@@ -0,0 +1,60 @@
+package com.moovup.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FIFO queues of threads waiting for room in one user's bucket. Only the
+ * thread at the head of a queue tries to admit; the others park until it
+ * leaves and wakes the next one. Queue changes happen inside
+ * {@link ConcurrentHashMap#compute}, so a queue is dropped exactly when it
+ * empties, and nothing ever parks while holding a monitor.
+ *
+ * @author thiyagaraja
+ */
+final class KeyWaiters {
+    private final ConcurrentHashMap<String, Queue<Thread>> queues = new ConcurrentHashMap<>();
+
+    boolean hasWaiters(String userId) {
+        return queues.containsKey(userId);
+    }
+
+    void enqueue(String userId, Thread waiter) {
+        queues.compute(userId, (key, queue) -> {
+            Queue<Thread> waiting = queue == null ? new ConcurrentLinkedQueue<>() : queue;
+            waiting.add(waiter);
+            return waiting;
+        });
+    }
+
+    boolean isHead(String userId, Thread waiter) {
+        Queue<Thread> queue = queues.get(userId);
+        return queue != null && queue.peek() == waiter;
+    }
+
+    /**
+     * Removes {@code waiter} and wakes the thread that is now at the head.
+     */
+    void leave(String userId, Thread waiter) {
+        Queue<Thread> remaining = queues.computeIfPresent(userId, (key, queue) -> {
+            queue.remove(waiter);
+            return queue.isEmpty() ? null : queue;
+        });
+        if (remaining != null) {
+            Thread next = remaining.peek();
+            if (next != null) {
+                LockSupport.unpark(next);
+            }
+        }
+    }
+
+    int size() {
+        int waiting = 0;
+        for (Queue<Thread> queue : queues.values()) {
+            waiting += queue.size();
+        }
+        return waiting;
+    }
+}
@@ -1,26 +1,101 @@
 package com.moovup.service;
 
+import com.moovup.collection.PersistentHashMap;
 import com.moovup.model.AllowRequest;
 import com.moovup.model.Bucket;
 import com.moovup.model.BucketState;
+import com.moovup.model.BucketVisitor;
+import com.moovup.snapshot.ChangeLogReader;
+import com.moovup.snapshot.ChangeLogWriter;
+import com.moovup.snapshot.MappedSnapshot;
+import com.moovup.snapshot.SnapshotWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
 
 /**
+ * Immutable limiter: every {@link #allowRequest} returns a new version and
+ * leaves the old one untouched. Versions share structure through a
+ * {@link PersistentHashMap} of immutable {@link Bucket} records.
+ *
+ * <p>State survives restarts through {@link #writeSnapshot}. A snapshot can
+ * be loaded eagerly with {@link #restoreSnapshot} or mapped with
+ * {@link #mapSnapshot}, in which case buckets stay in the file until a user
+ * sends a request and only changed buckets move into the map.
+ *
+ * <p>Between snapshots, {@link #withChangeLog} streams every bucket a
+ * version writes to a {@link ChangeLogWriter}; a standby keeps a warm copy
+ * by calling {@link #applyChanges} as the log grows. The log belongs to the
+ * latest version only: deriving a version from an older one, as a what-if
+ * branch does, fails instead of logging a history the leader never had.
  *
  * @author thiyagaraja
  */
 public class LeakyBucketRateLimiter {
     private final double capacity;
     private final double leakRate;
-    private final Map<String, BucketState> userBuckets;
+    private final PersistentHashMap<String, Bucket> userBuckets;
+    private final MappedSnapshot restored;
+    private final int shadowed;
+    private final ChangeLogWriter changeLog;
+    /** Number of the latest version logging to {@code changeLog}, shared by the line. */
+    private final AtomicLong logHead;
+    private final long logVersion;
     
   
     private LeakyBucketRateLimiter(double capacity, double leakRate, 
-                                  Map<String, BucketState> userBuckets) {
+                                  PersistentHashMap<String, Bucket> userBuckets) {
+        this(capacity, leakRate, userBuckets, null, 0, null, null, 0);
+    }
+    
+    /**
+     * @param restored mapped snapshot consulted for users not in
+     *                 {@code userBuckets}, or null
+     * @param shadowed number of {@code userBuckets} keys that replace a
+     *                 bucket in {@code restored}
+     * @param changeLog log every written bucket is appended to, or null
+     * @param logHead latest version number of the line logging to
+     *                {@code changeLog}, or null without a log
+     * @param logVersion number of this version in that line
+     */
+    private LeakyBucketRateLimiter(double capacity, double leakRate,
+                                  PersistentHashMap<String, Bucket> userBuckets,
+                                  MappedSnapshot restored, int shadowed,
+                                  ChangeLogWriter changeLog, AtomicLong logHead, long logVersion) {
         this.capacity = capacity;
         this.leakRate = leakRate;
-        this.userBuckets = new ConcurrentHashMap<>(userBuckets);
+        this.userBuckets = userBuckets;
+        this.restored = restored;
+        this.shadowed = shadowed;
+        this.changeLog = changeLog;
+        this.logHead = logHead;
+        this.logVersion = logVersion;
+    }
+
+    /**
+     * The version that follows {@code limiter} with {@code userBuckets},
+     * which becomes the only one allowed to log. Call before appending.
+     *
+     * @throws IllegalStateException if {@code limiter} logs and a newer
+     *         version has already been derived from its line
+     */
+    private static LeakyBucketRateLimiter next(LeakyBucketRateLimiter limiter,
+                                               PersistentHashMap<String, Bucket> userBuckets, int shadowed) {
+        if (limiter.changeLog != null
+                && !limiter.logHead.compareAndSet(limiter.logVersion, limiter.logVersion + 1)) {
+            throw new IllegalStateException("Only the latest version of a logged limiter can be changed;"
+                    + " detach branches with withChangeLog(limiter, null)");
+        }
+        return new LeakyBucketRateLimiter(limiter.capacity, limiter.leakRate, userBuckets,
+                limiter.restored, shadowed, limiter.changeLog, limiter.logHead, limiter.logVersion + 1);
     }
     
     public static LeakyBucketRateLimiter createRateLimiter(double capacity, double leakRate) {
@@ -31,7 +106,7 @@ public class LeakyBucketRateLimiter {
             throw new IllegalArgumentException("Leak rate cannot be negative");
         }
         
-        return new LeakyBucketRateLimiter(capacity, leakRate, new ConcurrentHashMap<>());
+        return new LeakyBucketRateLimiter(capacity, leakRate, PersistentHashMap.empty());
     }
     
     public static AllowRequest allowRequest(LeakyBucketRateLimiter limiter, 
@@ -45,23 +120,181 @@ public class LeakyBucketRateLimiter {
         if (limiter == null) {
             throw new IllegalArgumentException("Limiter cannot be null");
         }
-        if (userId == null || userId.trim().isEmpty()) {
+        validateRequest(userId, requestSize);
+        Bucket current = limiter.userBuckets.get(userId);
+        int shadowed = limiter.shadowed;
+        if (current == null && limiter.restored != null) {
+            current = limiter.restored.get(userId);
+            if (current != null) {
+                shadowed++;
+            }
+        }
+        BucketState bucket = current == null
+                ? new BucketState(limiter.capacity, limiter.leakRate, timestamp)
+                : new BucketState(current.getCapacity(), current.getLeakRate(),
+                        current.getCurrentLevel(), current.getLastLeakTime());
+        bucket.leak(timestamp);
+        boolean allowed = bucket.allowRequest(requestSize);
+        double retryAfter = allowed ? 0.0 : bucket.getRetryAfter(requestSize);
+        Bucket updated = new Bucket(
+                userId,
+                bucket.getCurrentLevel(),
+                bucket.getCapacity(),
+                bucket.getLeakRate(),
+                bucket.getLastLeakTime()
+        );
+        LeakyBucketRateLimiter newLimiter = next(limiter, limiter.userBuckets.put(userId, updated), shadowed);
+        if (limiter.changeLog != null) {
+            limiter.changeLog.append(userId, updated.getCurrentLevel(), updated.getLastLeakTime());
+        }
+        return new AllowRequest(allowed, newLimiter, retryAfter, bucket.getHeadroom());
+    }
+    
+    /**
+     * Admits a batch of requests and writes each decision to
+     * {@code results[i]}. Decisions are identical to calling
+     * {@link #allowRequest} for each request in timestamp order (ties in
+     * array order), but every user's bucket is looked up and written back
+     * once per batch instead of once per request.
+     *
+     * @return the limiter state after the whole batch
+     */
+    public static LeakyBucketRateLimiter allowRequests(LeakyBucketRateLimiter limiter,
+                                                       String[] userIds, double[] timestamps,
+                                                       double[] requestSizes, boolean[] results) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null");
+        }
+        validateBatch(userIds, timestamps, requestSizes, results);
+        Map<String, BucketState> touched = new HashMap<>();
+        int shadowed = limiter.shadowed;
+        int[] order = timestampOrder(timestamps);
+        for (int n = 0; n < userIds.length; n++) {
+            int i = order == null ? n : order[n];
+            BucketState bucket = touched.get(userIds[i]);
+            if (bucket == null) {
+                Bucket current = limiter.userBuckets.get(userIds[i]);
+                if (current == null && limiter.restored != null) {
+                    current = limiter.restored.get(userIds[i]);
+                    if (current != null) {
+                        shadowed++;
+                    }
+                }
+                bucket = current == null
+                        ? new BucketState(limiter.capacity, limiter.leakRate, timestamps[i])
+                        : new BucketState(current.getCapacity(), current.getLeakRate(),
+                                current.getCurrentLevel(), current.getLastLeakTime());
+                touched.put(userIds[i], bucket);
+            }
+            bucket.leak(timestamps[i]);
+            results[i] = bucket.allowRequest(requestSizes[i]);
+        }
+
+        PersistentHashMap<String, Bucket> newBuckets = limiter.userBuckets;
+        for (Map.Entry<String, BucketState> entry : touched.entrySet()) {
+            BucketState bucket = entry.getValue();
+            newBuckets = newBuckets.put(entry.getKey(), new Bucket(
+                    entry.getKey(),
+                    bucket.getCurrentLevel(),
+                    bucket.getCapacity(),
+                    bucket.getLeakRate(),
+                    bucket.getLastLeakTime()
+            ));
+        }
+        LeakyBucketRateLimiter newLimiter = next(limiter, newBuckets, shadowed);
+        if (limiter.changeLog != null) {
+            for (Map.Entry<String, BucketState> entry : touched.entrySet()) {
+                BucketState bucket = entry.getValue();
+                limiter.changeLog.append(entry.getKey(), bucket.getCurrentLevel(), bucket.getLastLeakTime());
+            }
+        }
+        return newLimiter;
+    }
+    
+    static void validateBatch(String[] userIds, double[] timestamps,
+                              double[] requestSizes, boolean[] results) {
+        if (userIds == null || timestamps == null || requestSizes == null || results == null) {
+            throw new IllegalArgumentException("Batch arrays cannot be null");
+        }
+        if (timestamps.length != userIds.length || requestSizes.length != userIds.length
+                || results.length < userIds.length) {
+            throw new IllegalArgumentException("Batch arrays must have matching lengths");
+        }
+        for (int i = 0; i < userIds.length; i++) {
+            validateRequest(userIds[i], requestSizes[i]);
+        }
+    }
+    
+    /**
+     * Indices of {@code timestamps} in stable ascending order, or null when
+     * the batch is already ordered, which is the common case.
+     */
+    static int[] timestampOrder(double[] timestamps) {
+        boolean ordered = true;
+        for (int i = 1; i < timestamps.length && ordered; i++) {
+            ordered = timestamps[i - 1] <= timestamps[i];
+        }
+        if (ordered) {
+            return null;
+        }
+        return IntStream.range(0, timestamps.length).boxed()
+                .sorted((a, b) -> Double.compare(timestamps[a], timestamps[b]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+    
+    static void validateRequest(String userId, double requestSize) {
+        if (userId == null || isBlank(userId)) {
             throw new IllegalArgumentException("User ID cannot be null or empty");
         }
+        validateSize(requestSize);
+    }
+
+    static void validateRequest(byte[] userId, int offset, int length, double requestSize) {
+        if (userId == null) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (offset < 0 || length < 0 || offset > userId.length - length) {
+            throw new IllegalArgumentException("User ID range is out of bounds");
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if ((userId[i] & 0xff) > ' ') {
+                validateSize(requestSize);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("User ID cannot be null or empty");
+    }
+
+    static void validateRequest(ByteBuffer userId, double requestSize) {
+        if (userId == null) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        for (int i = userId.position(); i < userId.limit(); i++) {
+            if ((userId.get(i) & 0xff) > ' ') {
+                validateSize(requestSize);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("User ID cannot be null or empty");
+    }
+
+    static void validateSize(double requestSize) {
         if (requestSize <= 0) {
             throw new IllegalArgumentException("Request size must be positive");
         }
-        Map<String, BucketState> newBuckets = new ConcurrentHashMap<>(limiter.userBuckets);
-        BucketState bucket = newBuckets.get(userId);
-        if (bucket == null) {
-            bucket = new BucketState(limiter.capacity, limiter.leakRate, timestamp);
-            newBuckets.put(userId, bucket);
+    }
+
+    /**
+     * Same as {@code trim().isEmpty()} without the copy {@code trim} makes.
+     */
+    private static boolean isBlank(String userId) {
+        for (int i = 0; i < userId.length(); i++) {
+            if (userId.charAt(i) > ' ') {
+                return false;
+            }
         }
-        bucket.leak(timestamp);
-        boolean allowed = bucket.allowRequest(requestSize);
-        LeakyBucketRateLimiter newLimiter = new LeakyBucketRateLimiter(
-                limiter.capacity, limiter.leakRate, newBuckets);
-        return new AllowRequest(allowed, newLimiter);
+        return true;
     }
     
     public static Bucket getBucketState(LeakyBucketRateLimiter limiter, String userId) {
@@ -69,18 +302,11 @@ public class LeakyBucketRateLimiter {
             return null;
         }
         
-        BucketState bucket = limiter.userBuckets.get(userId);
-        if (bucket == null) {
-            return null;
+        Bucket bucket = limiter.userBuckets.get(userId);
+        if (bucket == null && limiter.restored != null) {
+            return limiter.restored.get(userId);
         }
-        
-        return new Bucket(
-                userId,
-                bucket.getCurrentLevel(),
-                bucket.getCapacity(),
-                bucket.getLeakRate(),
-                bucket.getLastLeakTime()
-        );
+        return bucket;
     }
     
     public static Map<String, Bucket> getAllBucketStates(LeakyBucketRateLimiter limiter) {
@@ -89,22 +315,143 @@ public class LeakyBucketRateLimiter {
         }
         
         Map<String, Bucket> result = new ConcurrentHashMap<>();
-        for (Map.Entry<String, BucketState> entry : limiter.userBuckets.entrySet()) {
-            String userId = entry.getKey();
-            BucketState bucket = entry.getValue();
-            result.put(userId, new Bucket(
-                    userId,
-                    bucket.getCurrentLevel(),
-                    bucket.getCapacity(),
-                    bucket.getLeakRate(),
-                    bucket.getLastLeakTime()
-            ));
-        }
+        limiter.forEach(result::put);
         return result;
     }
     
+    /**
+     * Visits every bucket with its level leaked up to {@code timestamp},
+     * without building a map or changing the snapshot.
+     */
+    public static void forEachBucketState(LeakyBucketRateLimiter limiter, double timestamp,
+                                          BucketVisitor visitor) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null");
+        }
+        if (visitor == null) {
+            throw new IllegalArgumentException("Visitor cannot be null");
+        }
+        limiter.forEach((userId, bucket) -> {
+            double level = bucket.getCurrentLevel();
+            double lastLeakTime = bucket.getLastLeakTime();
+            if (timestamp > lastLeakTime) {
+                level = Math.max(0, level - (timestamp - lastLeakTime) * bucket.getLeakRate());
+                lastLeakTime = timestamp;
+            }
+            visitor.visit(userId, level, bucket.getCapacity(), bucket.getLeakRate(), lastLeakTime);
+        });
+    }
+    
+    /**
+     * Writes every bucket of {@code limiter} to {@code path}. The limiter is
+     * immutable, so admissions on newer versions proceed while this runs.
+     */
+    public static void writeSnapshot(LeakyBucketRateLimiter limiter, Path path) throws IOException {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null");
+        }
+        try (SnapshotWriter writer = SnapshotWriter.create(path, limiter.capacity, limiter.leakRate,
+                limiter.getUserCount())) {
+            limiter.forEach((userId, bucket) -> {
+                try {
+                    writer.append(userId, bucket.getCurrentLevel(), bucket.getLastLeakTime());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Loads every bucket of a snapshot into a new limiter.
+     */
+    public static LeakyBucketRateLimiter restoreSnapshot(Path path) throws IOException {
+        MappedSnapshot snapshot = MappedSnapshot.open(path);
+        AtomicReference<PersistentHashMap<String, Bucket>> buckets =
+                new AtomicReference<>(PersistentHashMap.empty());
+        snapshot.forEach((userId, bucket) -> buckets.set(buckets.get().put(userId, bucket)));
+        return new LeakyBucketRateLimiter(snapshot.getCapacity(), snapshot.getLeakRate(), buckets.get());
+    }
+    
+    /**
+     * Returns a limiter backed by a memory-mapped snapshot. Nothing is decoded
+     * up front; each bucket is read from the file the first time it is used.
+     */
+    public static LeakyBucketRateLimiter mapSnapshot(Path path) throws IOException {
+        MappedSnapshot snapshot = MappedSnapshot.open(path);
+        return new LeakyBucketRateLimiter(snapshot.getCapacity(), snapshot.getLeakRate(),
+                PersistentHashMap.empty(), snapshot, 0, null, null, 0);
+    }
+    
+    /**
+     * Returns the same state with every bucket written by it or any later
+     * version appended to {@code changeLog}; null stops logging. The log is
+     * owned by a single line of versions: once a version has been derived,
+     * deriving another from an older one throws, so take what-if branches
+     * from {@code withChangeLog(version, null)}.
+     *
+     * @throws IllegalArgumentException if {@code changeLog} was opened for
+     *         a different capacity or leak rate
+     */
+    public static LeakyBucketRateLimiter withChangeLog(LeakyBucketRateLimiter limiter,
+                                                       ChangeLogWriter changeLog) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null");
+        }
+        if (changeLog != null && (changeLog.getCapacity() != limiter.capacity
+                || changeLog.getLeakRate() != limiter.leakRate)) {
+            throw new IllegalArgumentException("Change log was opened for capacity "
+                    + changeLog.getCapacity() + " and leak rate " + changeLog.getLeakRate());
+        }
+        return new LeakyBucketRateLimiter(limiter.capacity, limiter.leakRate, limiter.userBuckets,
+                limiter.restored, limiter.shadowed, changeLog, changeLog == null ? null : new AtomicLong(), 0);
+    }
+    
+    /**
+     * Applies every change {@code reader} has not yet returned on top of
+     * {@code limiter}, so a follower catches up incrementally. Call again
+     * as the leader's log grows.
+     */
+    public static LeakyBucketRateLimiter applyChanges(LeakyBucketRateLimiter limiter,
+                                                      ChangeLogReader reader) throws IOException {
+        if (limiter == null || reader == null) {
+            throw new IllegalArgumentException("Limiter and reader cannot be null");
+        }
+        AtomicReference<PersistentHashMap<String, Bucket>> buckets =
+                new AtomicReference<>(limiter.userBuckets);
+        int[] shadowed = {limiter.shadowed};
+        reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> {
+            String key = userId.toString();
+            PersistentHashMap<String, Bucket> current = buckets.get();
+            if (limiter.restored != null && !current.containsKey(key) && limiter.restored.containsKey(key)) {
+                shadowed[0]++;
+            }
+            buckets.set(current.put(key, new Bucket(key, level, capacity, leakRate, lastLeakTime)));
+        });
+        return next(limiter, buckets.get(), shadowed[0]);
+    }
+    
     public double getCapacity() { return capacity; }
     public double getLeakRate() { return leakRate; }
-    public int getUserCount() { return userBuckets.size(); }
+    public int getUserCount() {
+        return userBuckets.size() + (restored == null ? 0 : restored.size() - shadowed);
+    }
+    
+    /**
+     * Visits buckets in the map, then restored buckets that were not replaced.
+     */
+    private void forEach(BiConsumer<String, Bucket> action) {
+        userBuckets.forEach(action);
+        if (restored != null) {
+            restored.forEach((userId, bucket) -> {
+                if (!userBuckets.containsKey(userId)) {
+                    action.accept(userId, bucket);
+                }
+            });
+        }
+    }
     
 }
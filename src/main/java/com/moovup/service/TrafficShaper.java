@@ -0,0 +1,97 @@
+package com.moovup.service;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays requests until they fit instead of rejecting them. Each call to
+ * {@link #acquire} returns a future that completes once the request has been
+ * admitted by the limiter. A request that does not fit is retried on one
+ * timer thread at the moment the limiter says it will fit; if another caller
+ * takes the room first, it is simply scheduled again.
+ *
+ * <p>Futures complete on the timer thread, so dependent work should use the
+ * {@code *Async} stages. A request that can never fit, because it is larger
+ * than the capacity or the bucket never leaks, fails with
+ * {@link RejectedExecutionException}.
+ *
+ * @author thiyagaraja
+ */
+public class TrafficShaper implements AutoCloseable {
+    private final ConcurrentLeakyBucketRateLimiter limiter;
+    private final ScheduledExecutorService timer;
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+
+    public TrafficShaper(ConcurrentLeakyBucketRateLimiter limiter) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("Limiter cannot be null");
+        }
+        this.limiter = limiter;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaky-bucket-shaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Void> acquire(String userId) {
+        return acquire(userId, 1.0);
+    }
+
+    public CompletableFuture<Void> acquire(String userId, double requestSize) {
+        LeakyBucketRateLimiter.validateRequest(userId, requestSize);
+        if (timer.isShutdown()) {
+            throw new IllegalStateException("Shaper is closed");
+        }
+        CompletableFuture<Void> admitted = new CompletableFuture<>();
+        attempt(admitted, userId, requestSize);
+        return admitted;
+    }
+
+    /**
+     * Number of requests waiting for room.
+     */
+    public int getPendingCount() { return pending.size(); }
+
+    /**
+     * Stops the timer and cancels every waiting request.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (CompletableFuture<Void> waiting : pending) {
+            waiting.completeExceptionally(new CancellationException("Shaper closed"));
+        }
+        pending.clear();
+    }
+
+    private void attempt(CompletableFuture<Void> admitted, String userId, double requestSize) {
+        if (admitted.isDone()) {
+            pending.remove(admitted);
+            return;
+        }
+        long waitNanos = limiter.tryAllowRequestNow(userId, requestSize);
+        if (waitNanos == 0) {
+            pending.remove(admitted);
+            admitted.complete(null);
+        } else if (waitNanos == Long.MAX_VALUE) {
+            pending.remove(admitted);
+            admitted.completeExceptionally(
+                    new RejectedExecutionException("Request can never fit for user " + userId));
+        } else {
+            pending.add(admitted);
+            try {
+                timer.schedule(() -> attempt(admitted, userId, requestSize), waitNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                pending.remove(admitted);
+                admitted.completeExceptionally(new CancellationException("Shaper closed"));
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.moovup.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Folds a change log into a snapshot, so a standby can start from the
+ * snapshot and only replay the log written after it. Compacting through a
+ * live {@link ChangeLogWriter} also rotates the log, so the records folded
+ * into the snapshot leave the disk and the log only holds newer ones.
+ *
+ * @author thiyagaraja
+ */
+public final class ChangeLogCompactor {
+
+    private ChangeLogCompactor() {
+    }
+
+    /**
+     * Writes to {@code output} the buckets of {@code base} (if any) updated
+     * by every committed record of {@code log}; the latest record for a user
+     * wins. {@code output} may be the same file as {@code base}. The log
+     * itself is left as it is; compact through its writer to drop the
+     * folded records.
+     *
+     * @param base snapshot the log was started from, or null
+     * @return log position the snapshot covers, to pass to
+     *         {@link ChangeLogReader#open(Path, long)}
+     */
+    public static long compact(Path base, Path log, Path output) throws IOException {
+        if (log == null || output == null) {
+            throw new IllegalArgumentException("Log and output paths cannot be null");
+        }
+        return fold(base, log, output);
+    }
+
+    /**
+     * Rotates the log of {@code writer} aside, folds it as
+     * {@link #compact(Path, Path, Path)} does and deletes it. Records
+     * appended meanwhile go to the new log, which a standby replays from
+     * the returned position after loading {@code output}. A follower
+     * already tailing the old log reads on to its rotation marker and then
+     * moves to the new log with {@link ChangeLogReader#followRotation}; an
+     * open reader keeps the deleted file readable. If folding fails
+     * the old log is kept next to the new one, with the suffix
+     * {@code .compacting}.
+     *
+     * @return position of the first frame of the new log
+     */
+    public static long compact(Path base, ChangeLogWriter writer, Path output) throws IOException {
+        if (writer == null || output == null) {
+            throw new IllegalArgumentException("Writer and output path cannot be null");
+        }
+        Path archive = writer.getPath().resolveSibling(writer.getPath().getFileName() + ".compacting");
+        writer.rotate(archive);
+        fold(base, archive, output);
+        Files.delete(archive);
+        return ChangeLogReader.HEADER_BYTES;
+    }
+
+    private static long fold(Path base, Path log, Path output) throws IOException {
+        Map<String, double[]> buckets = new LinkedHashMap<>();
+        try (ChangeLogReader reader = ChangeLogReader.open(log)) {
+            if (base != null) {
+                MappedSnapshot snapshot = MappedSnapshot.open(base);
+                if (snapshot.getCapacity() != reader.getCapacity()
+                        || snapshot.getLeakRate() != reader.getLeakRate()) {
+                    throw new IOException("Snapshot and change log configurations differ: " + base);
+                }
+                snapshot.forEach((userId, bucket) -> buckets.put(userId,
+                        new double[] {bucket.getCurrentLevel(), bucket.getLastLeakTime()}));
+            }
+            reader.poll((userId, level, capacity, leakRate, lastLeakTime) ->
+                    buckets.put(userId.toString(), new double[] {level, lastLeakTime}));
+            try (SnapshotWriter writer = SnapshotWriter.create(output, reader.getCapacity(),
+                    reader.getLeakRate(), buckets.size())) {
+                for (Map.Entry<String, double[]> entry : buckets.entrySet()) {
+                    writer.append(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+                }
+                writer.commit();
+            }
+            return reader.getPosition();
+        }
+    }
+}
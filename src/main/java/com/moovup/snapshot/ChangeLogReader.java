@@ -0,0 +1,208 @@
+package com.moovup.snapshot;
+
+import com.moovup.model.BucketVisitor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Tails a change log written by {@link ChangeLogWriter}. The file starts
+ * with a fixed header, followed by frames of {@code (body length, record
+ * count, CRC32C of body)} and a body of {@code (key length, UTF-8 key,
+ * level, lastLeakTime)} records; each frame is one group commit.
+ *
+ * <p>{@link #poll} hands every record of every complete frame after the
+ * current position to a visitor and advances past them. A frame that is
+ * still being written is left for a later poll, so a follower can call
+ * {@code poll} in a loop while the leader appends. When the leader rotates
+ * the log, the old file ends with an empty frame marking it rotated, and
+ * {@link #followRotation} moves the follower to the new log.
+ *
+ * @author thiyagaraja
+ */
+public final class ChangeLogReader implements AutoCloseable {
+    static final int MAGIC = 0x4C42574C;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int FRAME_HEADER_BYTES = 3 * Integer.BYTES;
+    static final int MAX_FRAME_BYTES = 1 << 20;
+    /** Record count of the empty frame that ends a rotated log. */
+    static final int ROTATED = -1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final double capacity;
+    private final double leakRate;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+    private final CRC32C checksum = new CRC32C();
+    private ByteBuffer body = ByteBuffer.allocate(1 << 12);
+    private long position;
+    private boolean rotated;
+
+    private ChangeLogReader(Path path, FileChannel channel, double capacity, double leakRate, long position) {
+        this.path = path;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+        this.position = position;
+    }
+
+    /**
+     * Opens a log to read from its first frame.
+     */
+    public static ChangeLogReader open(Path path) throws IOException {
+        return open(path, HEADER_BYTES);
+    }
+
+    /**
+     * Opens a log to read from {@code position}, which must be a frame
+     * boundary such as one returned by {@link #getPosition} or
+     * {@link ChangeLogCompactor#compact}.
+     */
+    public static ChangeLogReader open(Path path, long position) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        if (position < HEADER_BYTES) {
+            throw new IllegalArgumentException("Position must be at or after the header");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (channel.size() < HEADER_BYTES || !readFully(channel, header, 0)
+                    || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a change log: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported change log version " + header.getInt(4) + ": " + path);
+            }
+            return new ChangeLogReader(path, channel, header.getDouble(8), header.getDouble(16), position);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Visits every record committed since the last poll, in log order.
+     * Capacity and leak rate passed to the visitor are the log's.
+     *
+     * @return number of records visited
+     * @throws IOException if a complete frame fails its checksum
+     */
+    public int poll(BucketVisitor visitor) throws IOException {
+        if (visitor == null) {
+            throw new IllegalArgumentException("Visitor cannot be null");
+        }
+        return read(visitor, true);
+    }
+
+    /**
+     * Moves past every valid frame without visiting it and returns the end
+     * of the last one; a torn or corrupt tail is not an error here.
+     */
+    long skipValid() throws IOException {
+        read(null, false);
+        return position;
+    }
+
+    /**
+     * Whether a poll has reached the marker that ends a rotated log; no
+     * record follows it.
+     */
+    public boolean isRotated() { return rotated; }
+
+    /**
+     * If this log was rotated, closes this reader and opens the new log at
+     * the same path from its first frame; otherwise returns this reader.
+     * Call after {@link #poll} has drained the old log.
+     */
+    public ChangeLogReader followRotation() throws IOException {
+        if (!rotated) {
+            return this;
+        }
+        close();
+        return open(path);
+    }
+
+    public long getPosition() { return position; }
+    public double getCapacity() { return capacity; }
+    public double getLeakRate() { return leakRate; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int read(BucketVisitor visitor, boolean strict) throws IOException {
+        int records = 0;
+        long size = channel.size();
+        while (!rotated && size - position >= FRAME_HEADER_BYTES) {
+            frameHeader.clear();
+            readFully(channel, frameHeader, position);
+            int bodyBytes = frameHeader.getInt(0);
+            int count = frameHeader.getInt(4);
+            int expected = frameHeader.getInt(8);
+            if (bodyBytes == 0 && count == ROTATED && expected == 0) {
+                rotated = true;
+                position += FRAME_HEADER_BYTES;
+                break;
+            }
+            if (bodyBytes < 0 || bodyBytes > MAX_FRAME_BYTES || count < 0) {
+                return corrupt(strict, records);
+            }
+            if (size - position - FRAME_HEADER_BYTES < bodyBytes) {
+                break;
+            }
+            if (body.capacity() < bodyBytes) {
+                body = ByteBuffer.allocate(Math.max(bodyBytes, body.capacity() * 2));
+            }
+            body.clear().limit(bodyBytes);
+            readFully(channel, body, position + FRAME_HEADER_BYTES);
+            checksum.reset();
+            checksum.update(body.array(), 0, bodyBytes);
+            if ((int) checksum.getValue() != expected) {
+                return corrupt(strict, records);
+            }
+            if (visitor != null) {
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[body.getInt()];
+                    body.get(key);
+                    double level = body.getDouble();
+                    double lastLeakTime = body.getDouble();
+                    visitor.visit(new String(key, StandardCharsets.UTF_8), level, capacity, leakRate, lastLeakTime);
+                }
+            }
+            position += FRAME_HEADER_BYTES + bodyBytes;
+            records += count;
+        }
+        return records;
+    }
+
+    private int corrupt(boolean strict, int records) throws IOException {
+        if (strict) {
+            throw new IOException("Corrupt change log frame at " + position + ": " + path);
+        }
+        return records;
+    }
+
+    /**
+     * Fills {@code target} from {@code offset}, then flips it; false if the
+     * file ended first.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer target, long offset) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        target.flip();
+        return true;
+    }
+}
@@ -0,0 +1,349 @@
+package com.moovup.snapshot;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of bucket changes in the format read by
+ * {@link ChangeLogReader}. {@link #append} only copies the record into an
+ * in-memory buffer; a single writer thread swaps that buffer out and
+ * writes everything appended since its last commit as one frame, with one
+ * {@link FileChannel} write and one {@code force}. Appends that arrive while
+ * a commit is in progress join the next one, so the cost of forcing is
+ * shared by as many records as the disk is slow.
+ *
+ * <p>{@link #sync} waits until every record appended so far is durable.
+ * When the buffer is full, {@code append} waits for the writer to catch up.
+ * Reopening an existing log drops a torn tail left by a crash and appends
+ * after the last complete frame. {@link #rotate} moves the log aside and
+ * carries on in an empty one, so that {@link ChangeLogCompactor} can fold
+ * the old records into a snapshot and the log does not grow forever. The
+ * old log ends with a rotation marker, written once the new one is in
+ * place, so a follower tailing it knows to move on.
+ *
+ * @author thiyagaraja
+ */
+public final class ChangeLogWriter implements AutoCloseable {
+    private final Path path;
+    private final double capacity;
+    private final double leakRate;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition progress = lock.newCondition();
+    private final ByteBuffer[] frame = {
+            ByteBuffer.allocateDirect(ChangeLogReader.FRAME_HEADER_BYTES), null};
+    private final CRC32C checksum = new CRC32C();
+    private final Thread committer;
+    private ByteBuffer active = ByteBuffer.allocateDirect(ChangeLogReader.MAX_FRAME_BYTES);
+    private ByteBuffer committing = ByteBuffer.allocateDirect(ChangeLogReader.MAX_FRAME_BYTES);
+    private int activeCount;
+    private long appended;
+    private long durable;
+    private long commits;
+    private FileChannel channel;
+    private IOException failure;
+    private boolean closed;
+    private boolean rotating;
+
+    private ChangeLogWriter(Path path, double capacity, double leakRate, FileChannel channel) {
+        this.path = path;
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+        this.channel = channel;
+        this.committer = new Thread(this::commitLoop, "leaky-bucket-log");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Opens {@code path} for appending, creating it if needed.
+     *
+     * @throws IOException if an existing log was written with a different
+     *                     capacity or leak rate
+     */
+    public static ChangeLogWriter open(Path path, double capacity, double leakRate) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeHeader(channel, capacity, leakRate);
+            } else {
+                try (ChangeLogReader existing = ChangeLogReader.open(path)) {
+                    if (existing.getCapacity() != capacity || existing.getLeakRate() != leakRate) {
+                        throw new IOException("Change log was written for a different configuration: " + path);
+                    }
+                    long end = existing.skipValid();
+                    channel.truncate(end);
+                    channel.position(end);
+                }
+            }
+            return new ChangeLogWriter(path, capacity, leakRate, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues one bucket change for the next group commit.
+     *
+     * @throws IllegalStateException if the log is closed
+     * @throws UncheckedIOException if an earlier commit failed
+     */
+    public void append(CharSequence userId, double currentLevel, double lastLeakTime) {
+        byte[] key = userId.toString().getBytes(StandardCharsets.UTF_8);
+        int recordBytes = Integer.BYTES + key.length + 2 * Double.BYTES;
+        if (recordBytes > ChangeLogReader.MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("User ID too long for the change log");
+        }
+        lock.lock();
+        try {
+            while ((active.remaining() < recordBytes || rotating) && failure == null && !closed) {
+                pending.signal();
+                progress.awaitUninterruptibly();
+            }
+            checkOpen();
+            active.putInt(key.length).put(key).putDouble(currentLevel).putDouble(lastLeakTime);
+            appended++;
+            if (activeCount++ == 0) {
+                pending.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record appended before this call is on disk.
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            long target = appended;
+            while (durable < target && failure == null) {
+                progress.awaitUninterruptibly();
+            }
+            if (durable < target) {
+                throw new IOException("Change log commit failed: " + path, failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAppendedCount() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Group commits so far; each made one or more records durable.
+     */
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves every record appended so far to {@code archive}, once it is
+     * durable, and continues in a new, empty log at {@link #getPath}.
+     * Appends wait while the log is being swapped. Readers still open on
+     * the old log keep reading it under its new name, up to a rotation
+     * marker after which {@link ChangeLogReader#isRotated} is true.
+     *
+     * @throws IOException if a commit failed or the files could not be
+     *                     moved; the log then stays where it was
+     */
+    public void rotate(Path archive) throws IOException {
+        if (archive == null) {
+            throw new IllegalArgumentException("Archive path cannot be null");
+        }
+        lock.lock();
+        try {
+            checkOpen();
+            rotating = true;
+            try {
+                while ((activeCount > 0 || durable < appended) && failure == null) {
+                    pending.signal();
+                    progress.awaitUninterruptibly();
+                }
+                if (failure != null) {
+                    throw new IOException("Change log commit failed: " + path, failure);
+                }
+                Files.move(path, archive, StandardCopyOption.ATOMIC_MOVE);
+                FileChannel next;
+                try {
+                    next = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    writeHeader(next, capacity, leakRate);
+                } catch (IOException | RuntimeException e) {
+                    Files.move(archive, path, StandardCopyOption.ATOMIC_MOVE);
+                    throw e;
+                }
+                FileChannel previous = channel;
+                channel = next;
+                try {
+                    writeRotationMarker(previous);
+                } finally {
+                    previous.close();
+                }
+            } finally {
+                rotating = false;
+                progress.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getPath() { return path; }
+    public double getCapacity() { return capacity; }
+    public double getLeakRate() { return leakRate; }
+
+    /**
+     * Commits what is still buffered and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the change log");
+        }
+        channel.close();
+        if (failure != null) {
+            throw new IOException("Change log commit failed: " + path, failure);
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, double capacity, double leakRate) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ChangeLogReader.HEADER_BYTES)
+                .putInt(ChangeLogReader.MAGIC)
+                .putInt(ChangeLogReader.VERSION)
+                .putDouble(capacity)
+                .putDouble(leakRate)
+                .flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+        channel.position(ChangeLogReader.HEADER_BYTES);
+    }
+
+    /**
+     * Ends a rotated log with an empty frame whose record count is
+     * {@link ChangeLogReader#ROTATED}.
+     */
+    private static void writeRotationMarker(FileChannel channel) throws IOException {
+        ByteBuffer marker = ByteBuffer.allocate(ChangeLogReader.FRAME_HEADER_BYTES)
+                .putInt(0)
+                .putInt(ChangeLogReader.ROTATED)
+                .putInt(0)
+                .flip();
+        while (marker.hasRemaining()) {
+            channel.write(marker);
+        }
+        channel.force(false);
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Change log commit failed: " + path, failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Change log is closed");
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            int count;
+            long upTo;
+            lock.lock();
+            try {
+                while (activeCount == 0 && !closed) {
+                    pending.awaitUninterruptibly();
+                }
+                if (activeCount == 0) {
+                    return;
+                }
+                ByteBuffer full = active;
+                active = committing;
+                committing = full;
+                count = activeCount;
+                upTo = appended;
+                activeCount = 0;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writeFrame(committing, count);
+                channel.force(false);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                durable = upTo;
+                commits++;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeFrame(ByteBuffer body, int count) throws IOException {
+        body.flip();
+        checksum.reset();
+        checksum.update(body.duplicate());
+        ByteBuffer header = frame[0].clear();
+        header.putInt(body.remaining()).putInt(count).putInt((int) checksum.getValue()).flip();
+        frame[1] = body;
+        while (header.hasRemaining() || body.hasRemaining()) {
+            channel.write(frame);
+        }
+        body.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package com.moovup.snapshot;
+
+import com.moovup.model.Bucket;
+import com.moovup.store.KeyHash;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only view of a snapshot written by {@link SnapshotWriter}. Opening
+ * only maps the file and checks the header; a bucket is decoded when it is
+ * looked up, so startup cost does not depend on the number of buckets and
+ * pages are faulted in as users come back. Lookups probe the on-disk hash
+ * index and compare the stored key only on a full 64-bit hash match.
+ *
+ * <p>The mapping is never written, so concurrent readers need no locking.
+ * Snapshots are limited to 2 GiB, the largest single mapping.
+ *
+ * @author thiyagaraja
+ */
+public final class MappedSnapshot {
+    static final int MAGIC = 0x4C42534E;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int INDEX_SLOT_BYTES = 2 * Long.BYTES;
+    private static final int MAX_INDEX_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / INDEX_SLOT_BYTES);
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private final MappedByteBuffer data;
+    private final double capacity;
+    private final double leakRate;
+    private final int size;
+    private final int indexMask;
+    private final int recordsStart;
+
+    private MappedSnapshot(MappedByteBuffer data, double capacity, double leakRate,
+                           int size, int indexSlots) {
+        this.data = data;
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+        this.size = size;
+        this.indexMask = indexSlots - 1;
+        this.recordsStart = HEADER_BYTES + indexSlots * INDEX_SLOT_BYTES;
+    }
+
+    public static MappedSnapshot open(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + path);
+            }
+            if (length < HEADER_BYTES) {
+                throw new IOException("Not a bucket snapshot: " + path);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a bucket snapshot: " + path);
+            }
+            if (data.getInt(4) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + data.getInt(4) + ": " + path);
+            }
+            double capacity = data.getDouble(8);
+            double leakRate = data.getDouble(16);
+            int size = data.getInt(24);
+            int indexSlots = data.getInt(28);
+            if (!(capacity > 0) || !(leakRate >= 0) || size < 0 || Integer.bitCount(indexSlots) != 1 || indexSlots > MAX_INDEX_SLOTS
+                    || HEADER_BYTES + (long) indexSlots * INDEX_SLOT_BYTES > length) {
+                throw new IOException("Corrupt snapshot header: " + path);
+            }
+            return new MappedSnapshot(data, capacity, leakRate, size, indexSlots);
+        }
+    }
+
+    public Bucket get(String userId) {
+        int offset = find(userId);
+        return offset < 0 ? null : bucketAt(userId, offset);
+    }
+
+    public boolean containsKey(String userId) {
+        return find(userId) >= 0;
+    }
+
+    /**
+     * Decodes every bucket in file order.
+     */
+    public void forEach(BiConsumer<String, Bucket> action) {
+        int offset = recordsStart;
+        for (int i = 0; i < size; i++) {
+            String userId = keyAt(offset);
+            action.accept(userId, bucketAt(userId, offset));
+            offset += Integer.BYTES + data.getInt(offset) + 2 * Double.BYTES;
+        }
+    }
+
+    public int size() { return size; }
+    public double getCapacity() { return capacity; }
+    public double getLeakRate() { return leakRate; }
+
+    static int indexSlotsFor(int buckets) {
+        long minimum = (long) Math.ceil(Math.max(1, buckets) / MAX_LOAD_FACTOR);
+        if (minimum > MAX_INDEX_SLOTS) {
+            throw new IllegalArgumentException("Too many buckets for one snapshot: " + buckets);
+        }
+        return minimum <= 2 ? 2 : Integer.highestOneBit((int) minimum - 1) << 1;
+    }
+
+    private int find(String userId) {
+        long hash = KeyHash.hash(userId);
+        int slot = (int) hash & indexMask;
+        while (true) {
+            int entry = HEADER_BYTES + slot * INDEX_SLOT_BYTES;
+            long offset = data.getLong(entry + Long.BYTES);
+            if (offset == 0) {
+                return -1;
+            }
+            if (data.getLong(entry) == hash && keyAt((int) offset).equals(userId)) {
+                return (int) offset;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private String keyAt(int offset) {
+        byte[] key = new byte[data.getInt(offset)];
+        data.get(offset + Integer.BYTES, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private Bucket bucketAt(String userId, int offset) {
+        int levelOffset = offset + Integer.BYTES + data.getInt(offset);
+        return new Bucket(userId, data.getDouble(levelOffset), capacity, leakRate,
+                data.getDouble(levelOffset + Double.BYTES));
+    }
+}
@@ -0,0 +1,150 @@
+package com.moovup.snapshot;
+
+import com.moovup.store.KeyHash;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a bucket snapshot in the layout read by {@link MappedSnapshot}:
+ * a fixed header, an open-addressing index of {@code (key hash, entry
+ * offset)} pairs, then one {@code (key length, UTF-8 key, level,
+ * lastLeakTime)} record per bucket.
+ *
+ * <p>Records are streamed through a small direct buffer and the index is
+ * filled in place through a mapping of its region, so memory use does not
+ * grow with the number of buckets. Output goes to a temporary file that
+ * {@link #commit()} moves over the target, so readers only ever see a
+ * complete snapshot.
+ *
+ * @author thiyagaraja
+ */
+public final class SnapshotWriter implements AutoCloseable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private final int indexMask;
+    private final double capacity;
+    private final double leakRate;
+    private final int maxBuckets;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long position;
+    private int count;
+    private boolean committed;
+
+    private SnapshotWriter(Path target, double capacity, double leakRate, int maxBuckets)
+            throws IOException {
+        this.target = target;
+        this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        this.capacity = capacity;
+        this.leakRate = leakRate;
+        this.maxBuckets = maxBuckets;
+        int slots = MappedSnapshot.indexSlotsFor(maxBuckets);
+        this.indexMask = slots - 1;
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = channel.map(FileChannel.MapMode.READ_WRITE,
+                MappedSnapshot.HEADER_BYTES, (long) slots * MappedSnapshot.INDEX_SLOT_BYTES);
+        this.position = MappedSnapshot.HEADER_BYTES + (long) slots * MappedSnapshot.INDEX_SLOT_BYTES;
+    }
+
+    /**
+     * Starts a snapshot of at most {@code maxBuckets} buckets with the given
+     * configuration.
+     */
+    public static SnapshotWriter create(Path path, double capacity, double leakRate, int maxBuckets)
+            throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+        if (maxBuckets < 0) {
+            throw new IllegalArgumentException("Max buckets cannot be negative");
+        }
+        return new SnapshotWriter(path, capacity, leakRate, maxBuckets);
+    }
+
+    public void append(CharSequence userId, double currentLevel, double lastLeakTime) throws IOException {
+        if (count == maxBuckets) {
+            throw new IllegalStateException("Snapshot is full: " + maxBuckets + " buckets");
+        }
+        byte[] key = userId.toString().getBytes(StandardCharsets.UTF_8);
+        int recordBytes = Integer.BYTES + key.length + 2 * Double.BYTES;
+        if (buffer.remaining() < recordBytes) {
+            flush();
+        }
+        ByteBuffer record = recordBytes <= BUFFER_BYTES ? buffer : ByteBuffer.allocate(recordBytes);
+        long offset = position + buffer.position();
+        record.putInt(key.length).put(key).putDouble(currentLevel).putDouble(lastLeakTime);
+        if (record != buffer) {
+            record.flip();
+            writeFully(record);
+        }
+        addToIndex(KeyHash.hash(userId), offset);
+        count++;
+    }
+
+    /**
+     * Completes the header, forces the file to disk and moves it over the
+     * target path.
+     */
+    public void commit() throws IOException {
+        flush();
+        index.force();
+        ByteBuffer header = ByteBuffer.allocate(MappedSnapshot.HEADER_BYTES)
+                .putInt(MappedSnapshot.MAGIC)
+                .putInt(MappedSnapshot.VERSION)
+                .putDouble(capacity)
+                .putDouble(leakRate)
+                .putInt(count)
+                .putInt(indexMask + 1)
+                .flip();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    public int getCount() { return count; }
+
+    /**
+     * Discards the temporary file unless the snapshot was committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void addToIndex(long hash, long offset) {
+        int slot = (int) hash & indexMask;
+        while (index.getLong(slot * MappedSnapshot.INDEX_SLOT_BYTES + Long.BYTES) != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putLong(slot * MappedSnapshot.INDEX_SLOT_BYTES, hash);
+        index.putLong(slot * MappedSnapshot.INDEX_SLOT_BYTES + Long.BYTES, offset);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.moovup.store;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage behind {@link com.moovup.service.ConcurrentLeakyBucketRateLimiter}.
+ * Implementations own the per-user bucket state and must perform leak and
+ * admission for one user atomically. Time is given in nanoseconds on the
+ * timeline of {@link com.moovup.time.TimeSource}.
+ *
+ * @author thiyagaraja
+ */
+public interface BucketStore {
+
+    default boolean allowRequest(String userId, long nanoTime, double requestSize) {
+        return tryAllowRequest(userId, nanoTime, requestSize) == 0;
+    }
+
+    /**
+     * Admits {@code requestSize} if it fits, like {@link #allowRequest}.
+     *
+     * @return 0 if admitted, otherwise the nanoseconds after {@code nanoTime}
+     *         at which the same request would fit, or {@link Long#MAX_VALUE}
+     *         if it never will
+     */
+    long tryAllowRequest(String userId, long nanoTime, double requestSize);
+
+    /**
+     * Same as {@link #tryAllowRequest(String, long, double)} for the user
+     * whose id is the decimal form of {@code userId}. The default builds
+     * that string; stores keyed by {@link KeyHash} hash the number directly.
+     */
+    default long tryAllowRequest(long userId, long nanoTime, double requestSize) {
+        return tryAllowRequest(Long.toString(userId), nanoTime, requestSize);
+    }
+
+    /**
+     * Same as {@link #tryAllowRequest(String, long, double)} for the user
+     * whose id is {@code length} bytes of {@code userId} read as ISO-8859-1.
+     * The default decodes them; stores keyed by {@link KeyHash} hash the
+     * bytes in place.
+     */
+    default long tryAllowRequest(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        return tryAllowRequest(new String(userId, offset, length, StandardCharsets.ISO_8859_1),
+                nanoTime, requestSize);
+    }
+
+    /**
+     * Same as the {@code byte[]} form for the remaining bytes of
+     * {@code userId}; its position is left unchanged.
+     */
+    default long tryAllowRequest(ByteBuffer userId, long nanoTime, double requestSize) {
+        return tryAllowRequest(StandardCharsets.ISO_8859_1.decode(userId.duplicate()).toString(),
+                nanoTime, requestSize);
+    }
+
+    /**
+     * Gives back {@code amount} previously admitted for {@code userId}, such
+     * as the unused part of a lease, after leaking up to {@code nanoTime}.
+     * The level never drops below zero, and a user without a bucket is left
+     * alone.
+     *
+     * @throws UnsupportedOperationException if the store cannot give back
+     */
+    default void release(String userId, long nanoTime, double amount) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support release");
+    }
+
+    Bucket getBucketState(String userId);
+
+    void forEach(BiConsumer<String, Bucket> action);
+
+    /**
+     * Level of {@code userId}'s bucket leaked up to {@code nanoTime}, without
+     * changing it. A user without a bucket has level 0.
+     */
+    double getCurrentLevel(String userId, long nanoTime);
+
+    /**
+     * Visits every live bucket with its level leaked up to {@code nanoTime},
+     * without changing or copying state.
+     */
+    void forEachBucket(long nanoTime, BucketVisitor visitor);
+
+    /**
+     * Same as {@link #forEachBucket} but splits the traversal across the
+     * common fork-join pool; {@code visitor} must be thread-safe.
+     */
+    void forEachBucketParallel(long nanoTime, BucketVisitor visitor);
+
+    int size();
+
+    /**
+     * Buckets removed by eviction so far; 0 for stores that never evict.
+     */
+    default long getEvictionCount() {
+        return 0;
+    }
+
+    double getCapacity();
+
+    double getLeakRate();
+}
@@ -0,0 +1,364 @@
+package com.moovup.store;
+
+import com.moovup.eviction.TimerWheel;
+import com.moovup.model.AtomicBucket;
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.policy.RatePolicy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Default store: one {@link AtomicBucket} per user in a {@link ConcurrentHashMap}.
+ *
+ * <p>A bucket that has leaked to zero is equivalent to no bucket, so idle
+ * buckets are evicted by a {@link TimerWheel} at the time they drain. The
+ * wheel advances to the lowest timestamp of a window of at least
+ * {@value #MIN_WINDOW_REQUESTS} requests, never to the highest, so a caller
+ * whose clock runs ahead, or who sends a future timestamp, cannot make
+ * other callers' buckets look drained while they are still sending
+ * requests; a caller that lags holds eviction back instead. A caller can
+ * still lag without sending anything in a window, so requests only evict a
+ * drained bucket once it has gone a whole maintenance round unused; a
+ * bucket still in use is kept however far the wheel has run ahead of its
+ * caller's clock. With a
+ * {@code maxKeys} bound, a CLOCK sweep additionally evicts buckets that were
+ * not used since the hand last passed them. New buckets are handed to this
+ * bookkeeping through a queue, and whichever request thread wins a
+ * {@code tryLock} runs it, so admissions never wait on a global lock and no
+ * step scans the whole map.
+ *
+ * <p>Capacity and leak rate come from a {@link PolicyRegistry}. Each bucket
+ * keeps only its resolved policy id, so tiers and per-user overrides cost
+ * one int per bucket and policy updates apply without touching buckets.
+ *
+ * @author thiyagaraja
+ */
+public class ConcurrentMapBucketStore implements BucketStore {
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    private static final long MAINTENANCE_INTERVAL_TICKS = 1_000;
+    private static final long PARALLELISM_THRESHOLD = 10_000;
+    private static final int MIN_WINDOW_REQUESTS = 64;
+
+    private final PolicyRegistry policies;
+    /** Time and size conversions, which every policy of the registry shares. */
+    private final PackedBucketFormat units;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, Entry> userBuckets;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    private final LongAdder evictions = new LongAdder();
+    /** Lowest tick passed, and requests seen, since the wheel last advanced. */
+    private final LongAccumulator lowTicks = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAdder windowRequests = new LongAdder();
+    private final Entry[] clock;
+    private int clockHand;
+    private TimerWheel<Entry> wheel;
+    private volatile long nextMaintenanceTicks;
+
+    public ConcurrentMapBucketStore(double capacity, double leakRate) {
+        this(capacity, leakRate, UNBOUNDED);
+    }
+
+    public ConcurrentMapBucketStore(double capacity, double leakRate, int maxKeys) {
+        this(new PolicyRegistry(new RatePolicy("default", capacity, leakRate)), maxKeys);
+    }
+
+    public ConcurrentMapBucketStore(PolicyRegistry policies) {
+        this(policies, UNBOUNDED);
+    }
+
+    public ConcurrentMapBucketStore(PolicyRegistry policies, int maxKeys) {
+        if (policies == null) {
+            throw new IllegalArgumentException("Policy registry cannot be null");
+        }
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys must be positive");
+        }
+        this.policies = policies;
+        this.units = policies.format(PolicyRegistry.DEFAULT_POLICY);
+        this.maxKeys = maxKeys;
+        this.userBuckets = new ConcurrentHashMap<>();
+        this.clock = maxKeys == UNBOUNDED ? null : new Entry[maxKeys];
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        long ticks = units.toTicks(nanoTime);
+        long requestQuanta = units.toQuanta(requestSize);
+        while (true) {
+            Entry bucket = userBuckets.get(userId);
+            if (bucket == null) {
+                Entry created = new Entry(userId, ticks);
+                bucket = userBuckets.putIfAbsent(userId, created);
+                if (bucket == null) {
+                    bucket = created;
+                    pending.offer(created);
+                }
+            }
+            long readyTicks = bucket.allowRequestOrReadyTicks(ticks, requestQuanta);
+            if (readyTicks == AtomicBucket.ADMITTED || !bucket.isRetired()) {
+                if (clock != null && !bucket.referenced) {
+                    bucket.referenced = true;
+                }
+                if (!bucket.active) {
+                    bucket.active = true;
+                }
+                lowTicks.accumulate(ticks);
+                windowRequests.increment();
+                if (ticks >= nextMaintenanceTicks || (clock != null && userBuckets.size() > maxKeys)) {
+                    tryMaintain();
+                }
+                return readyTicks == AtomicBucket.ADMITTED ? 0 : units.waitNanos(readyTicks, nanoTime);
+            }
+            userBuckets.remove(userId, bucket);
+        }
+    }
+
+    /**
+     * Nanoseconds {@code userId} would have to wait for {@code requestSize},
+     * as {@link #tryAllowRequest} would answer now, without charging it or
+     * creating its bucket.
+     *
+     * @return 0 if the request fits, otherwise as {@link #tryAllowRequest}
+     */
+    public long checkRequest(String userId, long nanoTime, double requestSize) {
+        long ticks = units.toTicks(nanoTime);
+        long requestQuanta = units.toQuanta(requestSize);
+        Entry bucket = userBuckets.get(userId);
+        long readyTicks = bucket == null ? Long.MAX_VALUE : bucket.checkOrReadyTicks(ticks, requestQuanta);
+        if (bucket == null || (readyTicks == Long.MAX_VALUE && bucket.isRetired())) {
+            // a retired bucket is replaced by an empty one on the next request
+            PackedBucketFormat format = policies.format(policies.resolve(userId));
+            long empty = format.emptyState(ticks);
+            readyTicks = format.fits(empty, ticks, requestQuanta) ? AtomicBucket.ADMITTED
+                    : format.readyTicks(empty, requestQuanta);
+        }
+        return readyTicks == AtomicBucket.ADMITTED ? 0 : units.waitNanos(readyTicks, nanoTime);
+    }
+
+    @Override
+    public Bucket getBucketState(String userId) {
+        Entry bucket = userBuckets.get(userId);
+        return bucket == null ? null : bucket.toBucket(userId);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        userBuckets.forEach((userId, bucket) -> {
+            Bucket view = bucket.toBucket(userId);
+            if (view != null) {
+                action.accept(userId, view);
+            }
+        });
+    }
+
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        Entry bucket = userBuckets.get(userId);
+        if (bucket != null) {
+            bucket.release(units.toTicks(nanoTime), units.toQuanta(amount));
+        }
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        Entry bucket = userBuckets.get(userId);
+        return bucket == null ? 0.0 : bucket.getCurrentLevel(units.toTicks(nanoTime));
+    }
+
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        long ticks = units.toTicks(nanoTime);
+        for (Entry bucket : userBuckets.values()) {
+            bucket.visit(ticks, visitor);
+        }
+    }
+
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        long ticks = units.toTicks(nanoTime);
+        userBuckets.forEachValue(PARALLELISM_THRESHOLD, bucket -> bucket.visit(ticks, visitor));
+    }
+
+    /**
+     * Evicts every bucket that has drained by {@code timestamp} and enforces
+     * the key bound. Runs on request threads anyway; exposed for callers that
+     * want cleanup while traffic is idle.
+     */
+    public void evictExpired(double timestamp) {
+        long ticks = units.toTicks(PackedBucketFormat.toNanos(timestamp));
+        maintenanceLock.lock();
+        try {
+            maintain(ticks, false);
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() { return userBuckets.size(); }
+
+    /**
+     * Capacity of the default policy; buckets on other policies report
+     * their own through {@link #getBucketState}.
+     */
+    @Override
+    public double getCapacity() { return policies.get(PolicyRegistry.DEFAULT_POLICY).getCapacity(); }
+
+    @Override
+    public double getLeakRate() { return policies.get(PolicyRegistry.DEFAULT_POLICY).getLeakRate(); }
+
+    public PolicyRegistry getPolicies() { return policies; }
+
+    public int getMaxKeys() { return maxKeys; }
+
+    @Override
+    public long getEvictionCount() { return evictions.sum(); }
+
+    private void tryMaintain() {
+        if (maintenanceLock.tryLock()) {
+            try {
+                if (wheel == null || windowRequests.sum() >= MIN_WINDOW_REQUESTS) {
+                    windowRequests.reset();
+                    long ticks = lowTicks.getThenReset();
+                    if (ticks != Long.MAX_VALUE) {
+                        maintain(ticks, true);
+                        return;
+                    }
+                }
+                if (wheel != null) {
+                    maintain(wheel.getCurrentTicks(), true);
+                }
+            } finally {
+                maintenanceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Advances eviction to {@code ticks}, which for request-driven runs is
+     * the lowest timestamp of the last window, and schedules new buckets.
+     *
+     * @param fromRequests whether to spare drained buckets used since the
+     *                     last round rather than evict them
+     */
+    private void maintain(long ticks, boolean fromRequests) {
+        if (wheel == null) {
+            wheel = new TimerWheel<>(ticks);
+        }
+        Entry created;
+        while ((created = pending.poll()) != null) {
+            if (!created.isRetired()) {
+                schedule(created);
+                if (clock != null) {
+                    admitToClock(created);
+                }
+            }
+        }
+        wheel.advance(ticks, fromRequests ? this::expireUnused : this::expire);
+        nextMaintenanceTicks = wheel.getCurrentTicks() + MAINTENANCE_INTERVAL_TICKS;
+    }
+
+    private void schedule(Entry bucket) {
+        long drainTicks = bucket.getDrainTicks();
+        if (drainTicks != Long.MAX_VALUE) {
+            wheel.schedule(bucket, drainTicks);
+        }
+    }
+
+    /**
+     * Gives a bucket used since the last round one more round, in case its
+     * caller's clock is behind the wheel and it is not drained by that clock.
+     */
+    private void expireUnused(Entry bucket) {
+        if (bucket.active && !bucket.isRetired()) {
+            bucket.active = false;
+            wheel.schedule(bucket, wheel.getCurrentTicks() + 1);
+        } else {
+            expire(bucket);
+        }
+    }
+
+    private void expire(Entry bucket) {
+        if (bucket.retireIfDrained(wheel.getCurrentTicks())) {
+            remove(bucket);
+        } else if (!bucket.isRetired()) {
+            schedule(bucket);
+        }
+    }
+
+    /**
+     * Places a new bucket in the CLOCK ring, evicting the first bucket whose
+     * reference bit is clear when every slot is taken. After one full turn the
+     * bucket under the hand is evicted even if it was referenced again.
+     */
+    private void admitToClock(Entry bucket) {
+        for (int scanned = 0; ; scanned++) {
+            Entry resident = clock[clockHand];
+            if (resident == null || resident.isRetired()) {
+                break;
+            }
+            if (resident.referenced && scanned < clock.length) {
+                resident.referenced = false;
+                clockHand = (clockHand + 1) % clock.length;
+                continue;
+            }
+            if (resident.retire()) {
+                remove(resident);
+            }
+            break;
+        }
+        clock[clockHand] = bucket;
+        clockHand = (clockHand + 1) % clock.length;
+    }
+
+    private long resolvePolicy(String userId) {
+        long version = policies.getAssignmentVersion();
+        return (version << Integer.SIZE) | policies.resolve(userId);
+    }
+
+    private void remove(Entry bucket) {
+        userBuckets.remove(bucket.userId, bucket);
+        evictions.increment();
+    }
+
+    /**
+     * Bucket that caches its resolved policy id, tagged with the registry's
+     * assignment version, in one word.
+     */
+    private final class Entry extends AtomicBucket {
+        private final String userId;
+        private volatile boolean referenced;
+        /** Requested since eviction last found it drained. */
+        private volatile boolean active;
+        private volatile long policy;
+
+        private Entry(String userId, long ticks) {
+            super(units.emptyState(ticks));
+            this.userId = userId;
+            this.policy = resolvePolicy(userId);
+        }
+
+        @Override
+        public PackedBucketFormat getFormat() {
+            long current = policy;
+            if ((int) (current >>> Integer.SIZE) != policies.getAssignmentVersion()) {
+                current = resolvePolicy(userId);
+                policy = current;
+            }
+            return policies.format((int) current);
+        }
+
+        private void visit(long ticks, BucketVisitor visitor) {
+            visit(userId, ticks, visitor);
+        }
+    }
+}
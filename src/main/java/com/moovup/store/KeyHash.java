@@ -0,0 +1,84 @@
+package com.moovup.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 64-bit key hashing for stores that keep hashed keys instead of strings.
+ * The {@code long} and byte overloads hash in place and agree with
+ * {@link #hash(CharSequence)} on the equivalent string: the decimal form of
+ * the number, or the bytes read as ISO-8859-1, which for the ASCII keys of
+ * HTTP headers is the same as UTF-8.
+ *
+ * @author thiyagaraja
+ */
+public final class KeyHash {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private KeyHash() {
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units followed by a murmur3 finalizer.
+     */
+    public static long hash(CharSequence key) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Same as {@code hash(Long.toString(key))} without building the string.
+     */
+    public static long hash(long key) {
+        long h = FNV_OFFSET;
+        // digits come from the non-positive value, so MIN_VALUE needs no special case
+        long remaining = key;
+        if (key < 0) {
+            h = (h ^ '-') * FNV_PRIME;
+        } else {
+            remaining = -key;
+        }
+        long divisor = 1;
+        while (remaining / divisor <= -10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            h = (h ^ ('0' - remaining / divisor % 10)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hashes {@code length} bytes of {@code key} from {@code offset}.
+     */
+    public static long hash(byte[] key, int offset, int length) {
+        long h = FNV_OFFSET;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = (h ^ (key[i] & 0xff)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hashes the remaining bytes of {@code key} without moving its position.
+     */
+    public static long hash(ByteBuffer key) {
+        long h = FNV_OFFSET;
+        for (int i = key.position(), end = key.limit(); i < end; i++) {
+            h = (h ^ (key.get(i) & 0xff)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
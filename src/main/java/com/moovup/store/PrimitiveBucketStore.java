@@ -0,0 +1,510 @@
+package com.moovup.store;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.model.PackedBucketFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Compact store for millions of users. Keys are 64-bit {@link KeyHash}
+ * hashes kept in a flat {@code long[]} with linear probing, and each bucket
+ * is one packed {@link PackedBucketFormat} word in a parallel {@code long[]},
+ * updated lock-free with compare-and-set. That is 16 bytes per slot and no
+ * per-user objects.
+ *
+ * <p>Numeric and byte keys are hashed in place, so admitting them creates
+ * no string at all; they share buckets with the equivalent string ids.
+ * User ids are not retained: {@link #forEach} and {@link #forEachBucket}
+ * report each bucket under the hexadecimal form of its key hash.
+ *
+ * <p>The table is sized up front for {@code maxKeys} users and does not
+ * grow. Once it holds that many, a new user first frees the slots of
+ * drained buckets found by a short sweep, which are indistinguishable from
+ * absent ones; if the sweep finds none, the least full bucket it passed is
+ * evicted and starts over empty, as with the key bound of
+ * {@link ConcurrentMapBucketStore}. Freed slots become tombstones that later
+ * inserts reuse, so admission never fails for lack of room; once keys and
+ * tombstones fill seven eighths of the table, the tombstones no probe
+ * sequence passes are cleared, so probes stay short. A new key is
+ * written to a reserved slot, with its state in place before the key is
+ * published, under a lock striped by key, so one key never gets two slots;
+ * admissions of keys already present take no lock.
+ *
+ * @author thiyagaraja
+ */
+public class PrimitiveBucketStore implements BucketStore {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long EMPTY = 0L;
+    private static final long RESERVED = Long.MIN_VALUE;
+    private static final long TOMBSTONE = Long.MIN_VALUE + 1;
+    /** Returned by {@link #tryAllowRequestHash} when the key has no bucket. */
+    static final long ABSENT = -1L;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    private static final int PARALLEL_CHUNK_SLOTS = 1 << 16;
+    private static final int SWEEP_SLOTS = 64;
+    private static final int INSERT_STRIPES = 64;
+
+    private final PackedBucketFormat format;
+    private final long[] keys;
+    private final long[] states;
+    private final int mask;
+    private final int maxKeys;
+    private final ReentrantLock[] inserts = new ReentrantLock[INSERT_STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger sweepCursor = new AtomicInteger();
+    /** Slots that are not empty, tombstones included. */
+    private final AtomicInteger used = new AtomicInteger();
+    private volatile int purgeThreshold;
+
+    public PrimitiveBucketStore(double capacity, double leakRate, int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys must be positive");
+        }
+        this.format = new PackedBucketFormat(capacity, leakRate);
+        int slots = tableSizeFor((int) Math.min(1 << 30, Math.ceil(maxKeys / MAX_LOAD_FACTOR)));
+        this.keys = new long[slots];
+        this.states = new long[slots];
+        this.mask = slots - 1;
+        this.maxKeys = maxKeys;
+        this.purgeThreshold = slots - slots / 8;
+        for (int i = 0; i < INSERT_STRIPES; i++) {
+            inserts[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        return admit(keyOf(userId), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(long userId, long nanoTime, double requestSize) {
+        return admit(keyOf(KeyHash.hash(userId)), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        return admit(keyOf(KeyHash.hash(userId, offset, length)), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(ByteBuffer userId, long nanoTime, double requestSize) {
+        return admit(keyOf(KeyHash.hash(userId)), nanoTime, requestSize);
+    }
+
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        releaseHash(KeyHash.hash(userId), nanoTime, amount);
+    }
+
+    void releaseHash(long hash, long nanoTime, double amount) {
+        int slot = findSlot(keyOf(hash));
+        if (slot < 0) {
+            return;
+        }
+        long ticks = format.toTicks(nanoTime);
+        long releaseQuanta = format.toQuanta(amount);
+        while (true) {
+            long current = (long) SLOTS.getVolatile(states, slot);
+            if (current == PackedBucketFormat.RETIRED) {
+                return;
+            }
+            long next = format.subtract(current, ticks, releaseQuanta);
+            if (next == current || SLOTS.compareAndSet(states, slot, current, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Bucket getBucketState(String userId) {
+        int slot = findSlot(keyOf(userId));
+        long state = slot < 0 ? PackedBucketFormat.RETIRED : (long) SLOTS.getVolatile(states, slot);
+        return state == PackedBucketFormat.RETIRED ? null : format.toBucket(userId, state);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            long key = (long) SLOTS.getVolatile(keys, slot);
+            long state = (long) SLOTS.getVolatile(states, slot);
+            if (isKey(key) && state != PackedBucketFormat.RETIRED) {
+                String userId = Long.toHexString(key);
+                action.accept(userId, format.toBucket(userId, state));
+            }
+        }
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        return getCurrentLevelHash(KeyHash.hash(userId), nanoTime);
+    }
+
+    double getCurrentLevelHash(long hash, long nanoTime) {
+        int slot = findSlot(keyOf(hash));
+        long state = slot < 0 ? PackedBucketFormat.RETIRED : (long) SLOTS.getVolatile(states, slot);
+        return state == PackedBucketFormat.RETIRED ? 0.0
+                : format.level(format.leak(state, format.toTicks(nanoTime)));
+    }
+
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        visitSlots(0, keys.length, format.toTicks(nanoTime), visitor);
+    }
+
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        long ticks = format.toTicks(nanoTime);
+        int chunks = Math.max(1, keys.length / PARALLEL_CHUNK_SLOTS);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> visitSlots(
+                (int) ((long) keys.length * chunk / chunks),
+                (int) ((long) keys.length * (chunk + 1) / chunks), ticks, visitor));
+    }
+
+    @Override
+    public int size() { return size.get(); }
+
+    @Override
+    public double getCapacity() { return format.getCapacity(); }
+
+    @Override
+    public double getLeakRate() { return format.getLeakRate(); }
+
+    public int getSlotCount() { return keys.length; }
+
+    boolean containsHash(long hash) {
+        return findSlot(keyOf(hash)) >= 0;
+    }
+
+    /**
+     * Admits against the bucket of {@code hash} if it has one, without
+     * inserting it.
+     *
+     * @return as {@link #tryAllowRequest}, or {@link #ABSENT} if the key has
+     *         no bucket or its bucket was just reclaimed
+     */
+    long tryAllowRequestHash(long hash, long nanoTime, double requestSize) {
+        long key = keyOf(hash);
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return ABSENT;
+        }
+        return charge(slot, key, format.toTicks(nanoTime), format.toQuanta(requestSize), nanoTime);
+    }
+
+    /**
+     * Inserts the key with {@code hash} at {@code state}, a word in this
+     * store's format, unless it already has a bucket. The slot is reserved
+     * and its state written before the key is published, so no reader can
+     * see the key with any other state.
+     *
+     * @return true if the key was inserted
+     */
+    boolean seedHash(long hash, long state) {
+        long key = keyOf(hash);
+        if (findSlot(key) >= 0) {
+            return false;
+        }
+        if (used.get() >= purgeThreshold) {
+            purgeTombstones();
+        }
+        ReentrantLock lock = insertLock(key);
+        lock.lock();
+        try {
+            return findSlot(key) < 0 && insert(key, state) >= 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the slots of keys that have drained by {@code ticks}, looking
+     * at most at {@code maxSlots} slots after where the last call stopped.
+     * A freed bucket is retired before its key is removed, so a request
+     * racing with the sweep either charges it first, keeping it, or finds
+     * it {@link #ABSENT}.
+     *
+     * @return number of keys freed
+     */
+    int reclaimDrained(long ticks, int maxSlots) {
+        int reclaimed = 0;
+        int start = sweepCursor.getAndAdd(maxSlots);
+        for (int i = 0; i < Math.min(maxSlots, keys.length); i++) {
+            int slot = (start + i) & mask;
+            long key = (long) SLOTS.getVolatile(keys, slot);
+            long current = (long) SLOTS.getVolatile(states, slot);
+            if (isKey(key) && current != PackedBucketFormat.RETIRED
+                    && format.quantaAt(current, ticks) == 0 && free(slot, current)) {
+                reclaimed++;
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Evicts the least full bucket of the next sweep, as of {@code ticks},
+     * to make room when nothing in it has drained.
+     */
+    private void evictLeastFull(long ticks) {
+        while (true) {
+            int start = sweepCursor.getAndAdd(SWEEP_SLOTS);
+            int victim = -1;
+            long victimState = 0;
+            long victimQuanta = Long.MAX_VALUE;
+            for (int i = 0; i < Math.min(SWEEP_SLOTS, keys.length); i++) {
+                int slot = (start + i) & mask;
+                long current = (long) SLOTS.getVolatile(states, slot);
+                if (isKey((long) SLOTS.getVolatile(keys, slot)) && current != PackedBucketFormat.RETIRED
+                        && format.quantaAt(current, ticks) < victimQuanta) {
+                    victim = slot;
+                    victimState = current;
+                    victimQuanta = format.quantaAt(current, ticks);
+                }
+            }
+            if (victim >= 0 && free(victim, victimState)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket in {@code slot} if it is still {@code current},
+     * then turns its key into a tombstone. A request racing with this either
+     * charges the bucket first, keeping it, or finds it retired and inserts
+     * its key again.
+     */
+    private boolean free(int slot, long current) {
+        if (!SLOTS.compareAndSet(states, slot, current, PackedBucketFormat.RETIRED)) {
+            return false;
+        }
+        SLOTS.setVolatile(keys, slot, TOMBSTONE);
+        size.decrementAndGet();
+        return true;
+    }
+
+    private void visitSlots(int from, int to, long ticks, BucketVisitor visitor) {
+        HexKey userId = new HexKey();
+        for (int slot = from; slot < to; slot++) {
+            long key = (long) SLOTS.getVolatile(keys, slot);
+            long state = (long) SLOTS.getVolatile(states, slot);
+            if (isKey(key) && state != PackedBucketFormat.RETIRED) {
+                format.visit(userId.set(key), state, ticks, visitor);
+            }
+        }
+    }
+
+    private static int tableSizeFor(int minimum) {
+        return minimum <= 2 ? 2 : Integer.highestOneBit(minimum - 1) << 1;
+    }
+
+    private static long keyOf(String userId) {
+        return keyOf(KeyHash.hash(userId));
+    }
+
+    /**
+     * Key stored for {@code hash}, which moves the hashes that collide with
+     * a marker to a neighbour with the same top byte.
+     */
+    private static long keyOf(long hash) {
+        if (hash == EMPTY) {
+            return 1L;
+        }
+        return hash == RESERVED || hash == TOMBSTONE ? hash + 2 : hash;
+    }
+
+    private static boolean isKey(long key) {
+        return key != EMPTY && key != RESERVED && key != TOMBSTONE;
+    }
+
+    private long admit(long key, long nanoTime, double requestSize) {
+        long ticks = format.toTicks(nanoTime);
+        long requestQuanta = format.toQuanta(requestSize);
+        while (true) {
+            long result = charge(claimSlot(key, ticks), key, ticks, requestQuanta, nanoTime);
+            if (result != ABSENT) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Leaks and charges the bucket of {@code key} in {@code slot}.
+     *
+     * @return as {@link #tryAllowRequest}, or {@link #ABSENT} if the slot
+     *         was freed and no longer holds {@code key}
+     */
+    private long charge(int slot, long key, long ticks, long requestQuanta, long nanoTime) {
+        while (true) {
+            long current = (long) SLOTS.getVolatile(states, slot);
+            // the key is checked after the state, so a state read from a reused slot is never charged
+            if (current == PackedBucketFormat.RETIRED || (long) SLOTS.getVolatile(keys, slot) != key) {
+                return ABSENT;
+            }
+            if (!format.fits(current, ticks, requestQuanta)) {
+                return format.waitNanos(format.readyTicks(current, requestQuanta), nanoTime);
+            }
+            if (SLOTS.compareAndSet(states, slot, current, format.add(current, ticks, requestQuanta))) {
+                return 0;
+            }
+        }
+    }
+
+    private int findSlot(long key) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long existing = (long) SLOTS.getVolatile(keys, slot);
+            if (existing == key) {
+                return slot;
+            }
+            if (existing == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds or inserts {@code key}. A new key gets state word 0, which
+     * behaves exactly like a new, empty bucket at any later timestamp.
+     * Inserts of one key are serialized on its stripe, so a key being
+     * published by another thread is found on the second look.
+     */
+    private int claimSlot(long key, long ticks) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (used.get() >= purgeThreshold) {
+            purgeTombstones();
+        }
+        ReentrantLock lock = insertLock(key);
+        lock.lock();
+        try {
+            slot = findSlot(key);
+            if (slot >= 0) {
+                return slot;
+            }
+            if (size.get() >= maxKeys && reclaimDrained(ticks, SWEEP_SLOTS) == 0) {
+                evictLeastFull(ticks);
+            }
+            while ((slot = insert(key, 0L)) < 0) {
+                evictLeastFull(ticks);
+            }
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts {@code key} in the first empty or tombstone slot of its probe
+     * sequence. The slot is reserved and its state written before the key
+     * is published, so no reader can see the key with any other state.
+     *
+     * @return the slot, or -1 if every slot is taken
+     */
+    private int insert(long key, long state) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        for (int probes = 0; probes <= mask; ) {
+            long existing = (long) SLOTS.getVolatile(keys, slot);
+            if (existing == EMPTY || existing == TOMBSTONE) {
+                if (!SLOTS.compareAndSet(keys, slot, existing, RESERVED)) {
+                    continue;
+                }
+                if (existing == EMPTY) {
+                    used.incrementAndGet();
+                }
+                SLOTS.setVolatile(states, slot, state);
+                SLOTS.setVolatile(keys, slot, key);
+                size.incrementAndGet();
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            probes++;
+        }
+        return -1;
+    }
+
+    /**
+     * Turns back into empty slots the tombstones that no key's probe
+     * sequence passes, so lookups of absent keys stay short however many
+     * keys have come and gone. Holds every insert lock, so no key is being
+     * placed meanwhile; keys freed meanwhile only make fewer tombstones
+     * necessary. Walks the table backwards twice, tracking how far back
+     * the probe sequences of the keys seen reach, and clears tombstones on
+     * the second lap only, once every sequence has been seen whole.
+     */
+    private void purgeTombstones() {
+        for (ReentrantLock lock : inserts) {
+            lock.lock();
+        }
+        try {
+            if (used.get() < purgeThreshold) {
+                return;
+            }
+            int slots = keys.length;
+            long reach = -1;
+            for (int step = 0; step < 2 * slots; step++) {
+                int slot = slots - 1 - step % slots;
+                long key = (long) SLOTS.getVolatile(keys, slot);
+                if (key == EMPTY) {
+                    reach = -1;
+                } else if (isKey(key)) {
+                    int home = (int) (key ^ (key >>> 32)) & mask;
+                    reach = Math.max(reach, step + ((slot - home) & mask));
+                } else if (key == TOMBSTONE && step >= slots && reach < step
+                        && SLOTS.compareAndSet(keys, slot, TOMBSTONE, EMPTY)) {
+                    used.decrementAndGet();
+                }
+            }
+            purgeThreshold = Math.max(slots - slots / 8, Math.min(slots, used.get() + slots / 16));
+        } finally {
+            for (ReentrantLock lock : inserts) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private ReentrantLock insertLock(long key) {
+        return inserts[(int) (key >>> 58) & (INSERT_STRIPES - 1)];
+    }
+
+    /**
+     * Reusable hexadecimal view of a key hash, matching {@link Long#toHexString}.
+     */
+    private static final class HexKey implements CharSequence {
+        private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+        private final char[] chars = new char[16];
+        private int start;
+
+        private HexKey set(long key) {
+            start = (Long.numberOfLeadingZeros(key) >> 2);
+            for (int i = 15; i >= start; i--) {
+                chars[i] = DIGITS[(int) (key & 0xF)];
+                key >>>= 4;
+            }
+            return this;
+        }
+
+        @Override
+        public int length() { return 16 - start; }
+
+        @Override
+        public char charAt(int index) { return chars[start + index]; }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() { return new String(chars, start, length()); }
+    }
+}
@@ -0,0 +1,203 @@
+package com.moovup.store;
+
+import com.moovup.metrics.MetricsSnapshot;
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.policy.PolicyRegistry;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Partitions users across a power-of-two number of independent stores.
+ * Each shard keeps its own map, size counter, eviction wheel and key bound,
+ * so threads working on different shards share no writable state, and
+ * bookkeeping such as eviction sweeps runs per shard instead of over every
+ * user. Whole-store reads combine the shards, in parallel where allowed.
+ *
+ * <p>Users are assigned by the top bits of their {@link KeyHash}, which are
+ * independent of the low bits each shard's own table uses. Numeric and
+ * byte ids hash in place to the same value as the equivalent string, so
+ * they are routed without building one and reach the shard's own overload.
+ * Each shard counts its admissions and rejections; {@link #getShardMetrics}
+ * reports them with the shard's size and evictions, so a hot shard shows.
+ *
+ * @author thiyagaraja
+ */
+public class ShardedBucketStore implements BucketStore {
+    private final BucketStore[] shards;
+    private final LongAdder[] admitted;
+    private final LongAdder[] rejected;
+    private final int shardShift;
+
+    public ShardedBucketStore(double capacity, double leakRate, int shardCount) {
+        this(shardCount, shard -> new ConcurrentMapBucketStore(capacity, leakRate));
+    }
+
+    /**
+     * Shards that resolve capacity and leak rate through one shared registry.
+     */
+    public ShardedBucketStore(PolicyRegistry policies, int shardCount) {
+        this(shardCount, shard -> new ConcurrentMapBucketStore(policies));
+    }
+
+    /**
+     * Shards with a combined bound of {@code maxKeys}, split evenly.
+     */
+    public ShardedBucketStore(double capacity, double leakRate, int shardCount, int maxKeys) {
+        this(shardCount, shard -> new ConcurrentMapBucketStore(capacity, leakRate,
+                Math.ceilDiv(maxKeys, shardCount)));
+    }
+
+    /**
+     * @param shardFactory creates the store for each shard index; all shards
+     *                     must share one capacity and leak rate
+     */
+    public ShardedBucketStore(int shardCount, IntFunction<? extends BucketStore> shardFactory) {
+        if (shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a positive power of two");
+        }
+        if (shardFactory == null) {
+            throw new IllegalArgumentException("Shard factory cannot be null");
+        }
+        this.shards = new BucketStore[shardCount];
+        this.admitted = new LongAdder[shardCount];
+        this.rejected = new LongAdder[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            admitted[i] = new LongAdder();
+            rejected[i] = new LongAdder();
+            shards[i] = shardFactory.apply(i);
+            if (shards[i] == null) {
+                throw new IllegalArgumentException("Shard factory returned null");
+            }
+            if (shards[i].getCapacity() != shards[0].getCapacity()
+                    || shards[i].getLeakRate() != shards[0].getLeakRate()) {
+                throw new IllegalArgumentException("Shards must share capacity and leak rate");
+            }
+        }
+        this.shardShift = Long.SIZE - Integer.numberOfTrailingZeros(shardCount);
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        int shard = shardIndex(userId);
+        return count(shard, shards[shard].tryAllowRequest(userId, nanoTime, requestSize));
+    }
+
+    @Override
+    public long tryAllowRequest(long userId, long nanoTime, double requestSize) {
+        int shard = shardOf(KeyHash.hash(userId));
+        return count(shard, shards[shard].tryAllowRequest(userId, nanoTime, requestSize));
+    }
+
+    @Override
+    public long tryAllowRequest(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        int shard = shardOf(KeyHash.hash(userId, offset, length));
+        return count(shard, shards[shard].tryAllowRequest(userId, offset, length, nanoTime, requestSize));
+    }
+
+    @Override
+    public long tryAllowRequest(ByteBuffer userId, long nanoTime, double requestSize) {
+        int shard = shardOf(KeyHash.hash(userId));
+        return count(shard, shards[shard].tryAllowRequest(userId, nanoTime, requestSize));
+    }
+
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        shardFor(userId).release(userId, nanoTime, amount);
+    }
+
+    @Override
+    public Bucket getBucketState(String userId) {
+        return shardFor(userId).getBucketState(userId);
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        return shardFor(userId).getCurrentLevel(userId, nanoTime);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        for (BucketStore shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        for (BucketStore shard : shards) {
+            shard.forEachBucket(nanoTime, visitor);
+        }
+    }
+
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        IntStream.range(0, shards.length).parallel()
+                .forEach(i -> shards[i].forEachBucketParallel(nanoTime, visitor));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BucketStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        long evictions = 0;
+        for (BucketStore shard : shards) {
+            evictions += shard.getEvictionCount();
+        }
+        return evictions;
+    }
+
+    @Override
+    public double getCapacity() { return shards[0].getCapacity(); }
+
+    @Override
+    public double getLeakRate() { return shards[0].getLeakRate(); }
+
+    public int getShardCount() { return shards.length; }
+
+    /**
+     * The store holding shard {@code index}, for per-shard sizes and metrics.
+     */
+    public BucketStore getShard(int index) { return shards[index]; }
+
+    /**
+     * Admissions, rejections, size and evictions of shard {@code index}.
+     * Latency and heavy hitters are not tracked per shard.
+     */
+    public MetricsSnapshot getShardMetrics(int index) {
+        BucketStore shard = shards[index];
+        return new MetricsSnapshot(admitted[index].sum(), rejected[index].sum(), shard.size(),
+                shard.getEvictionCount(), null);
+    }
+
+    public int shardIndex(String userId) {
+        return shardOf(KeyHash.hash(userId));
+    }
+
+    private int shardOf(long hash) {
+        return shardShift == Long.SIZE ? 0 : (int) (hash >>> shardShift);
+    }
+
+    private long count(int shard, long waitNanos) {
+        if (waitNanos == 0) {
+            admitted[shard].increment();
+        } else {
+            rejected[shard].increment();
+        }
+        return waitNanos;
+    }
+
+    private BucketStore shardFor(String userId) {
+        return shards[shardIndex(userId)];
+    }
+}
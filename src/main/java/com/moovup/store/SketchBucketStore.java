@@ -0,0 +1,314 @@
+package com.moovup.store;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.BucketVisitor;
+import com.moovup.model.PackedBucketFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Fixed-memory, approximate store for key spaces that cannot be bounded,
+ * such as the one-off user ids of a credential-stuffing attack. Levels live
+ * in a Count-Min sketch of {@code depth} rows by {@code width} leaky
+ * buckets instead of one bucket per user, so memory is set at construction
+ * and nothing is allocated per key.
+ *
+ * <p>Each cell is a packed {@link PackedBucketFormat} word, leaked lazily
+ * from its own timestamp. A key maps to one cell per row; its level is
+ * estimated as the lowest of them, and an admitted request raises each of
+ * them to at least that estimate plus the request (conservative update).
+ * Every cell therefore stays at or above the true level of each key that
+ * maps to it: the sketch can reject a request that an exact bucket would
+ * admit, never the other way round. With {@code width = e / epsilon} and
+ * {@code depth = ln(1 / delta)}, as for any Count-Min sketch, a key's
+ * estimate exceeds its true level by at most {@code epsilon} times the load
+ * of a whole row with probability {@code 1 - delta}.
+ *
+ * <p>Optionally, keys whose estimate reaches half the capacity are promoted
+ * into an exact {@link PrimitiveBucketStore} of bounded size, seeded with
+ * that estimate. Heavy keys then get exact limits and stop inflating the
+ * cells they share with everyone else. A promoted key becomes visible only
+ * with its seeded bucket in place. Once its bucket has drained, the key can
+ * be reclaimed to make room for the next heavy key and falls back to the
+ * sketch, whose cells are at or above its level of zero. Only promoted keys
+ * have buckets to report: {@link #forEach}, {@link #forEachBucket} and
+ * {@link #size} cover those alone, under the hexadecimal form of their key
+ * hash.
+ *
+ * @author thiyagaraja
+ */
+public class SketchBucketStore implements BucketStore {
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int STRIPES = 256;
+    private static final double PROMOTE_FRACTION = 0.5;
+    private static final int MAX_CELLS = 1 << 30;
+    private static final int RECLAIM_SLOTS = 64;
+
+    private final PackedBucketFormat format;
+    private final long[] cells;
+    private final int depth;
+    private final int widthMask;
+    private final Object[] stripes = new Object[STRIPES];
+    private final PrimitiveBucketStore promoted;
+    private final int maxPromoted;
+    private final AtomicInteger promotions = new AtomicInteger();
+    private final long promoteQuanta;
+
+    /**
+     * @param epsilon overestimate bound relative to a row's load, in (0, 1)
+     * @param delta   probability of exceeding that bound, in (0, 1)
+     */
+    public SketchBucketStore(double capacity, double leakRate, double epsilon, double delta) {
+        this(capacity, leakRate, epsilon, delta, 0);
+    }
+
+    /**
+     * @param maxPromotedKeys keys that may be promoted to exact buckets;
+     *                        0 keeps every key in the sketch
+     */
+    public SketchBucketStore(double capacity, double leakRate, double epsilon, double delta,
+                             int maxPromotedKeys) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("Epsilon must be between 0 and 1");
+        }
+        if (!(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("Delta must be between 0 and 1");
+        }
+        if (maxPromotedKeys < 0) {
+            throw new IllegalArgumentException("Max promoted keys cannot be negative");
+        }
+        this.format = new PackedBucketFormat(capacity, leakRate);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        long width = Long.highestOneBit((long) Math.ceil(Math.E / epsilon) * 2 - 1);
+        if (width * depth > MAX_CELLS) {
+            throw new IllegalArgumentException("Sketch too large for epsilon " + epsilon + " and delta " + delta);
+        }
+        this.widthMask = (int) width - 1;
+        this.cells = new long[(int) width * depth];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        this.maxPromoted = maxPromotedKeys;
+        this.promoted = maxPromotedKeys == 0 ? null
+                : new PrimitiveBucketStore(capacity, leakRate, maxPromotedKeys);
+        this.promoteQuanta = format.toQuanta(capacity * PROMOTE_FRACTION);
+    }
+
+    @Override
+    public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+        return admit(KeyHash.hash(userId), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(long userId, long nanoTime, double requestSize) {
+        return admit(KeyHash.hash(userId), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(byte[] userId, int offset, int length, long nanoTime, double requestSize) {
+        return admit(KeyHash.hash(userId, offset, length), nanoTime, requestSize);
+    }
+
+    @Override
+    public long tryAllowRequest(ByteBuffer userId, long nanoTime, double requestSize) {
+        return admit(KeyHash.hash(userId), nanoTime, requestSize);
+    }
+
+    /**
+     * Gives back capacity of a promoted key. Sketch cells are shared, so
+     * taking from them could drop another key below its true level; for
+     * keys still in the sketch this does nothing and the amount leaks away.
+     */
+    @Override
+    public void release(String userId, long nanoTime, double amount) {
+        long hash = KeyHash.hash(userId);
+        if (isPromoted(hash)) {
+            promoted.releaseHash(hash, nanoTime, amount);
+        }
+    }
+
+    /**
+     * Exact bucket of a promoted key, otherwise the lowest of its cells as
+     * of the latest of their timestamps; null if that is empty.
+     */
+    @Override
+    public Bucket getBucketState(String userId) {
+        long hash = KeyHash.hash(userId);
+        Bucket bucket = isPromoted(hash) ? promoted.getBucketState(userId) : null;
+        if (bucket != null) {
+            return bucket;
+        }
+        long ticks = 0;
+        for (int row = 0; row < depth; row++) {
+            ticks = Math.max(ticks, format.ticks((long) CELLS.getVolatile(cells, cell(hash, row))));
+        }
+        long estimate = estimate(hash, ticks);
+        return format.quanta(estimate) == 0 ? null : format.toBucket(userId, estimate);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Bucket> action) {
+        if (promoted != null) {
+            promoted.forEach(action);
+        }
+    }
+
+    @Override
+    public double getCurrentLevel(String userId, long nanoTime) {
+        long hash = KeyHash.hash(userId);
+        if (isPromoted(hash)) {
+            return promoted.getCurrentLevelHash(hash, nanoTime);
+        }
+        return format.level(estimate(hash, format.toTicks(nanoTime)));
+    }
+
+    @Override
+    public void forEachBucket(long nanoTime, BucketVisitor visitor) {
+        if (promoted != null) {
+            promoted.forEachBucket(nanoTime, visitor);
+        }
+    }
+
+    @Override
+    public void forEachBucketParallel(long nanoTime, BucketVisitor visitor) {
+        if (promoted != null) {
+            promoted.forEachBucketParallel(nanoTime, visitor);
+        }
+    }
+
+    /**
+     * Promoted keys; the sketch itself does not count keys.
+     */
+    @Override
+    public int size() { return promoted == null ? 0 : promoted.size(); }
+
+    @Override
+    public double getCapacity() { return format.getCapacity(); }
+
+    @Override
+    public double getLeakRate() { return format.getLeakRate(); }
+
+    public int getDepth() { return depth; }
+    public int getWidth() { return widthMask + 1; }
+
+    /**
+     * Fixed memory of the sketch and the exact tier, in bytes of state.
+     */
+    public long getStateBytes() {
+        return (long) cells.length * Long.BYTES
+                + (promoted == null ? 0 : 2L * promoted.getSlotCount() * Long.BYTES);
+    }
+
+    /**
+     * Checks and charges {@code hash} with its stripe locked, so concurrent
+     * requests for one key cannot both pass on the same estimate. Cells
+     * shared with keys of other stripes only ever grow under a
+     * compare-and-set, which keeps them at or above every key's level.
+     */
+    private long admit(long hash, long nanoTime, double requestSize) {
+        long waitNanos = admitPromoted(hash, nanoTime, requestSize);
+        if (waitNanos != PrimitiveBucketStore.ABSENT) {
+            return waitNanos;
+        }
+        long ticks = format.toTicks(nanoTime);
+        long requestQuanta = format.toQuanta(requestSize);
+        synchronized (stripes[(int) (hash >>> 56) & (STRIPES - 1)]) {
+            waitNanos = admitPromoted(hash, nanoTime, requestSize);
+            if (waitNanos != PrimitiveBucketStore.ABSENT) {
+                return waitNanos;
+            }
+            long estimate = estimate(hash, ticks);
+            if (!format.fits(estimate, ticks, requestQuanta)) {
+                return format.waitNanos(format.readyTicks(estimate, requestQuanta), nanoTime);
+            }
+            long target = format.quanta(estimate) + requestQuanta;
+            for (int row = 0; row < depth; row++) {
+                raise(cell(hash, row), ticks, target);
+            }
+            if (target >= promoteQuanta && reservePromotion(ticks)
+                    && !promoted.seedHash(hash, format.add(estimate, ticks, requestQuanta))) {
+                // a bucket being reclaimed was still in the table
+                promotions.decrementAndGet();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Charges the exact bucket of a promoted key.
+     *
+     * @return {@link PrimitiveBucketStore#ABSENT} if the key is not promoted
+     */
+    private long admitPromoted(long hash, long nanoTime, double requestSize) {
+        return promoted == null || promotions.get() == 0 ? PrimitiveBucketStore.ABSENT
+                : promoted.tryAllowRequestHash(hash, nanoTime, requestSize);
+    }
+
+    /**
+     * Lowest of the key's cells, leaked up to {@code ticks}.
+     */
+    private long estimate(long hash, long ticks) {
+        long lowest = 0;
+        for (int row = 0; row < depth; row++) {
+            long state = format.leak((long) CELLS.getVolatile(cells, cell(hash, row)), ticks);
+            if (row == 0 || format.quanta(state) < format.quanta(lowest)) {
+                lowest = state;
+            }
+        }
+        return lowest;
+    }
+
+    private void raise(int cell, long ticks, long targetQuanta) {
+        while (true) {
+            long current = (long) CELLS.getVolatile(cells, cell);
+            long quanta = format.quantaAt(current, ticks);
+            if (quanta >= targetQuanta) {
+                return;
+            }
+            if (CELLS.compareAndSet(cells, cell, current, format.add(current, ticks, targetQuanta - quanta))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cell of {@code hash} in {@code row}, by double hashing on the two
+     * halves of the 64-bit key hash.
+     */
+    private int cell(long hash, int row) {
+        int index = (int) hash + row * ((int) (hash >>> 32) | 1);
+        return row * (widthMask + 1) + (index & widthMask);
+    }
+
+    private boolean isPromoted(long hash) {
+        return promoted != null && promotions.get() > 0 && promoted.containsHash(hash);
+    }
+
+    /**
+     * Takes one of the promotion slots, reclaiming drained promoted keys
+     * when none is free.
+     */
+    private boolean reservePromotion(long ticks) {
+        if (promoted == null) {
+            return false;
+        }
+        boolean reclaimed = false;
+        while (true) {
+            int current = promotions.get();
+            if (current >= maxPromoted) {
+                if (reclaimed) {
+                    return false;
+                }
+                promotions.addAndGet(-promoted.reclaimDrained(ticks, RECLAIM_SLOTS));
+                reclaimed = true;
+                continue;
+            }
+            if (promotions.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.moovup.time;
+
+/**
+ * @author thiyagaraja
+ */
+final class SystemTimeSource implements TimeSource {
+    static final SystemTimeSource INSTANCE = new SystemTimeSource();
+
+    private final long epochOffsetNanos;
+
+    private SystemTimeSource() {
+        this.epochOffsetNanos = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime() + epochOffsetNanos;
+    }
+}
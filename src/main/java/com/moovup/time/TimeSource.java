@@ -0,0 +1,21 @@
+package com.moovup.time;
+
+/**
+ * Integer nanosecond clock used by the concurrent limiter. Readings are
+ * nanoseconds since the Unix epoch, so timestamps in seconds map onto the
+ * same timeline by multiplying by 10^9.
+ *
+ * @author thiyagaraja
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+    long nanoTime();
+
+    /**
+     * Monotonic {@link System#nanoTime()} anchored once to the wall clock.
+     */
+    static TimeSource system() {
+        return SystemTimeSource.INSTANCE;
+    }
+}
@@ -0,0 +1,82 @@
+package com.moovup.collection;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PersistentHashMapTest {
+
+    /** Key with a deliberately poor hash so that full 32-bit collisions occur. */
+    private record CollidingKey(int id) {
+        @Override
+        public int hashCode() { return id % 4; }
+    }
+
+    @Test
+    void testPutAndGet() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> one = empty.put("a", 1);
+        PersistentHashMap<String, Integer> two = one.put("b", 2);
+        PersistentHashMap<String, Integer> replaced = two.put("a", 10);
+
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertEquals(2, two.size());
+        assertEquals(2, replaced.size());
+        assertEquals(1, two.get("a"));
+        assertEquals(10, replaced.get("a"));
+        assertNull(one.get("b"));
+        assertNull(two.get(null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testOldVersionsAreNotModified() {
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        PersistentHashMap<Integer, Integer>[] versions = new PersistentHashMap[500];
+        for (int i = 0; i < 500; i++) {
+            map = map.put(i, i);
+            versions[i] = map;
+        }
+        for (int v = 0; v < 500; v += 50) {
+            assertEquals(v + 1, versions[v].size());
+            assertEquals(v, versions[v].get(v));
+            assertNull(versions[v].get(v + 1));
+        }
+    }
+
+    @Test
+    void testHashCollisions() {
+        PersistentHashMap<CollidingKey, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.put(new CollidingKey(i), i);
+        }
+        map = map.put(new CollidingKey(42), -42);
+
+        assertEquals(100, map.size());
+        assertEquals(-42, map.get(new CollidingKey(42)));
+        assertEquals(7, map.get(new CollidingKey(7)));
+        assertNull(map.get(new CollidingKey(100)));
+    }
+
+    @Test
+    void testForEachVisitsEveryEntry() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10_000; i++) {
+            map = map.put("key" + i, i);
+        }
+        Map<String, Integer> copy = new HashMap<>();
+        map.forEach(copy::put);
+
+        assertEquals(10_000, copy.size());
+        assertEquals(9_999, copy.get("key9999"));
+    }
+
+    @Test
+    void testNullKeysAndValuesRejected() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        assertThrows(IllegalArgumentException.class, () -> map.put(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> map.put("a", null));
+    }
+}
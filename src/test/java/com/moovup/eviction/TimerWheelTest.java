@@ -0,0 +1,79 @@
+package com.moovup.eviction;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TimerWheelTest {
+
+    @Test
+    void testExpiresAtDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(0);
+        wheel.schedule("a", 10);
+        wheel.schedule("b", 5_000);
+        wheel.schedule("c", 3_000_000);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(9, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(10, expired::add);
+        assertEquals(List.of("a"), expired);
+        wheel.advance(4_999, expired::add);
+        assertEquals(1, expired.size());
+        wheel.advance(5_000, expired::add);
+        assertEquals(List.of("a", "b"), expired);
+        wheel.advance(3_000_000, expired::add);
+        assertEquals(List.of("a", "b", "c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testPastDeadlinesExpireOnNextAdvance() {
+        TimerWheel<String> wheel = new TimerWheel<>(1_000);
+        wheel.schedule("late", 10);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(1_001, expired::add);
+        assertEquals(List.of("late"), expired);
+    }
+
+    @Test
+    void testRandomDeadlinesFireOnTime() {
+        Random random = new Random(11);
+        TimerWheel<long[]> wheel = new TimerWheel<>(0);
+        for (int i = 0; i < 5_000; i++) {
+            long deadline = random.nextInt(2_000_000);
+            wheel.schedule(new long[] {deadline}, deadline);
+        }
+        long[] now = {0};
+        int[] fired = {0};
+        while (wheel.size() > 0) {
+            long previous = now[0];
+            now[0] += 1 + random.nextInt(5_000);
+            wheel.advance(now[0], item -> {
+                assertTrue(item[0] <= now[0], "fired early");
+                assertTrue(item[0] > previous || item[0] == 0, "fired late");
+                fired[0]++;
+            });
+        }
+        assertEquals(5_000, fired[0]);
+    }
+
+    @Test
+    void testRescheduleFromCallback() {
+        TimerWheel<String> wheel = new TimerWheel<>(0);
+        wheel.schedule("renew", 100);
+        List<Long> firedAt = new ArrayList<>();
+        for (long now = 50; now <= 400; now += 50) {
+            long current = now;
+            wheel.advance(now, item -> {
+                firedAt.add(current);
+                if (firedAt.size() < 3) {
+                    wheel.schedule(item, current + 100);
+                }
+            });
+        }
+        assertEquals(List.of(100L, 200L, 300L), firedAt);
+    }
+}
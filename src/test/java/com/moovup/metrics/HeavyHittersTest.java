@@ -0,0 +1,73 @@
+package com.moovup.metrics;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class HeavyHittersTest {
+
+    @Test
+    void testExactWhileKeysFit() {
+        HeavyHitters hitters = new HeavyHitters(4);
+        for (int i = 0; i < 10; i++) {
+            hitters.add("heavy", 1.0);
+        }
+        hitters.add("light", 2.5);
+        hitters.add("medium", 4.0);
+
+        List<HeavyHitters.Entry> top = hitters.top();
+        assertEquals(3, top.size());
+        assertEquals("heavy", top.get(0).getKey());
+        assertEquals(10.0, top.get(0).getCount(), 0.001);
+        assertEquals(0.0, top.get(0).getError(), 0.001);
+        assertEquals("medium", top.get(1).getKey());
+        assertEquals("light", top.get(2).getKey());
+        assertThrows(IllegalArgumentException.class, () -> new HeavyHitters(0));
+    }
+
+    @Test
+    void testHeavyKeysSurviveLongTail() {
+        HeavyHitters hitters = new HeavyHitters(10);
+        for (int i = 0; i < 100_000; i++) {
+            hitters.add("tail-" + i, 1.0);
+            if (i % 2 == 0) {
+                hitters.add("hot-" + (i / 2 % 3), 1.0);
+            }
+        }
+
+        List<HeavyHitters.Entry> top = hitters.top();
+        assertEquals(10, top.size());
+        for (int i = 0; i < 3; i++) {
+            HeavyHitters.Entry entry = top.get(i);
+            assertTrue(entry.getKey().startsWith("hot-"), entry.toString());
+            assertTrue(entry.getCount() >= 16_666, entry.toString());
+            assertTrue(entry.getCount() - entry.getError() <= 16_667, entry.toString());
+        }
+    }
+
+    @Test
+    void testConcurrentWritersAndReaders() throws Exception {
+        HeavyHitters hitters = new HeavyHitters(5);
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    hitters.add(i % 2 == 0 ? "hot" : "cold-" + i, 1.0);
+                }
+                done.countDown();
+            });
+        }
+        while (done.getCount() > 0) {
+            hitters.top();
+        }
+        done.await();
+
+        HeavyHitters.Entry hot = hitters.top().get(0);
+        assertEquals("hot", hot.getKey());
+        // samples that found their stripe busy are dropped, not counted
+        assertTrue(hot.getCount() + hitters.getDropped() >= 40_000);
+        assertTrue(hot.getCount() - hot.getError() <= 40_000);
+    }
+}
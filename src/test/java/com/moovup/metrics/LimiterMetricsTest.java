@@ -0,0 +1,57 @@
+package com.moovup.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.Path;
+import java.util.List;
+
+public class LimiterMetricsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRejectionsEmitFlightRecorderEvents() throws Exception {
+        LimiterMetrics metrics = new LimiterMetrics();
+        Path dump = directory.resolve("rejections.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.moovup.RejectedRequest");
+            recording.start();
+            metrics.recordAllowed();
+            metrics.recordRejected("user1", 2.0, 1_500_000L);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        assertEquals(1, events.size());
+        assertEquals("user1", events.get(0).getString("userId"));
+        assertEquals(2.0, events.get(0).getDouble("requestSize"), 0.001);
+        assertEquals(1, metrics.getAllowedCount());
+        assertEquals(1, metrics.getRejectedCount());
+        assertFalse(metrics.sampleLatency());
+    }
+
+    @Test
+    void testHeavyHittersTrackRejectionsAndSampledVolume() {
+        LimiterMetrics metrics = new LimiterMetrics(1, 2);
+        for (int i = 0; i < 5; i++) {
+            metrics.recordRejected("noisy", 1.0, 1_000L);
+        }
+        metrics.recordRejected("quiet", 1.0, 1_000L);
+        metrics.recordVolume("bulk", 8.0);
+        metrics.recordVolume("small", 1.0);
+
+        MetricsSnapshot snapshot = metrics.snapshot(0, 0);
+        assertEquals("noisy", snapshot.getTopRejected().get(0).getKey());
+        assertEquals(5.0, snapshot.getTopRejected().get(0).getCount(), 0.001);
+        assertEquals("bulk", snapshot.getTopRequestVolume().get(0).getKey());
+        assertEquals(2, metrics.getTopRequestVolume().size());
+        assertTrue(new LimiterMetrics(1).getTopRejected().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new LimiterMetrics(1, -1));
+    }
+}
@@ -0,0 +1,175 @@
+package com.moovup.model;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AtomicBucketTest {
+
+    private static final double DELTA = 0.001;
+
+    @Test
+    void testMatchesBucketStateMath() {
+        AtomicBucket atomic = new AtomicBucket(5.0, 1.0, 0.0);
+        BucketState reference = new BucketState(5.0, 1.0, 0.0);
+        double[] times = {0.0, 0.0, 0.5, 1.25, 1.25, 1.25, 1.25, 3.0, 10.0, 9.0};
+        double[] sizes = {1.0, 2.0, 0.5, 1.0, 1.0, 1.0, 1.0, 2.5, 4.0, 1.0};
+        for (int i = 0; i < times.length; i++) {
+            reference.leak(times[i]);
+            assertEquals(reference.allowRequest(sizes[i]), atomic.allowRequest(times[i], sizes[i]),
+                    "Request " + i);
+            assertEquals(reference.getCurrentLevel(), atomic.getCurrentLevel(), DELTA);
+            assertEquals(reference.getLastLeakTime(), atomic.getLastLeakTime(), DELTA);
+        }
+    }
+
+    @Test
+    void testExactCapacityIsNeverExceeded() {
+        AtomicBucket bucket = new AtomicBucket(3.0, 0.0, 0.0);
+        assertTrue(bucket.allowRequest(0.0, 1.0));
+        assertTrue(bucket.allowRequest(0.0, 1.0));
+        assertTrue(bucket.allowRequest(0.0, 1.0));
+        assertFalse(bucket.allowRequest(100.0, 1.0));
+        assertFalse(bucket.allowRequest(100.0, 1e30));
+        assertEquals(3.0, bucket.getCurrentLevel(), 0.0);
+    }
+
+    @Test
+    void testRestoredState() {
+        AtomicBucket bucket = new AtomicBucket(10.0, 2.0, 6.0, 100.0);
+        Bucket view = bucket.toBucket("user1");
+        assertEquals("user1", view.getUserId());
+        assertEquals(6.0, view.getCurrentLevel(), DELTA);
+        assertEquals(100.0, view.getLastLeakTime(), DELTA);
+        assertTrue(bucket.allowRequest(101.0, 6.0));
+        assertEquals(10.0, bucket.getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testOutOfRangeTimestampsRejected() {
+        AtomicBucket bucket = new AtomicBucket(5.0, 1.0, 0.0);
+        assertThrows(IllegalArgumentException.class, () -> bucket.allowRequest(-2e9, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> bucket.allowRequest(1e12, 1.0));
+        assertThrows(IllegalArgumentException.class,
+                () -> bucket.allowRequest(PackedBucketFormat.MAX_TIMESTAMP, 1.0));
+    }
+
+    @Test
+    void testNegativeTimestampsLeakAcrossTheEpoch() {
+        AtomicBucket bucket = new AtomicBucket(5.0, 1.0, -10.0);
+        assertTrue(bucket.allowRequest(-2.5, 5.0));
+        assertFalse(bucket.allowRequest(-1.5, 2.0));
+        assertEquals(-2.5, bucket.toBucket("user1").getLastLeakTime(), DELTA);
+        assertTrue(bucket.allowRequest(0.5, 3.0));
+        assertEquals(5.0, bucket.getCurrentLevel(), DELTA);
+
+        AtomicBucket early = new AtomicBucket(5.0, 1.0, PackedBucketFormat.MIN_TIMESTAMP);
+        assertTrue(early.allowRequest(PackedBucketFormat.MIN_TIMESTAMP, 5.0));
+        assertEquals(PackedBucketFormat.MIN_TIMESTAMP, early.toBucket("user1").getLastLeakTime(), DELTA);
+        assertTrue(early.allowRequest(PackedBucketFormat.MIN_TIMESTAMP + 5.0, 5.0));
+    }
+
+    @Test
+    void testConcurrentLeakAndAdmitOnHotBucket() throws InterruptedException {
+        AtomicBucket bucket = new AtomicBucket(100.0, 10.0, 0.0);
+        int threads = 8;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int ms = 0; ms <= 10_000; ms += 10) {
+                    if (bucket.allowRequest(ms / 1000.0, 1.0)) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // 100 units of burst plus 10 seconds at 10 units/second.
+        assertTrue(allowed.get() <= 200, "Allowed " + allowed.get());
+        assertTrue(bucket.getCurrentLevel() <= 100.0);
+    }
+
+    @Test
+    void testEpochScaleTimestampsKeepPrecision() {
+        double epoch = 1_700_000_000.0;
+        AtomicBucket bucket = new AtomicBucket(3.0, 1.0, epoch);
+        assertTrue(bucket.allowRequest(epoch, 3.0));
+        for (int ms = 1; ms <= 1_000; ms++) {
+            bucket.allowRequest(epoch + ms / 1000.0, 0.0001);
+        }
+        // A thousand 1ms leaks add up to one unit; rounding may only under-leak
+        // by less than one quantum per update.
+        assertEquals(2.1, bucket.getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testReadyTicksOnRejection() {
+        PackedBucketFormat format = new PackedBucketFormat(4.0, 2.0);
+        AtomicBucket bucket = new AtomicBucket(format, 0.0, 0.0);
+        long quanta = format.toQuanta(1.0);
+        long zero = format.toTicks(0);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(AtomicBucket.ADMITTED, bucket.allowRequestOrReadyTicks(zero, quanta));
+        }
+        assertEquals(zero + 500, bucket.allowRequestOrReadyTicks(zero, quanta));
+        assertEquals(zero + 500, bucket.allowRequestOrReadyTicks(zero + 125, quanta));
+        assertEquals(AtomicBucket.ADMITTED, bucket.allowRequestOrReadyTicks(zero + 500, quanta));
+        assertEquals(Long.MAX_VALUE, bucket.allowRequestOrReadyTicks(zero + 500, format.toQuanta(5.0)));
+        assertEquals(Long.MAX_VALUE,
+                new AtomicBucket(3.0, 0.0, 3.0, 0.0).allowRequestOrReadyTicks(zero + 10, quanta));
+    }
+
+    @Test
+    void testFrequentPollsLoseNoLeak() {
+        AtomicBucket bucket = new AtomicBucket(1_000_000.0, 100.0, 0.0);
+        assertTrue(bucket.allowRequest(0.0, 1_000_000.0));
+        for (int ms = 1; ms <= 10_000; ms++) {
+            assertFalse(bucket.allowRequest(ms / 1000.0, 2_000.0));
+        }
+        // rejected probes write nothing, so the bucket still reads as of its last admission
+        assertEquals(0.0, bucket.getLastLeakTime(), DELTA);
+        assertEquals(999_000.0, bucket.getCurrentLevel(bucket.getFormat().toTicks(PackedBucketFormat.toNanos(10.0))), DELTA);
+
+        // admissions every millisecond on a rate that is not a whole number of quanta per tick
+        AtomicBucket third = new AtomicBucket(3.0, 1.0 / 3, 0.0);
+        BucketState reference = new BucketState(3.0, 1.0 / 3, 0.0);
+        assertTrue(third.allowRequest(0.0, 3.0));
+        reference.allowRequest(3.0);
+        for (int ms = 1; ms <= 6_000; ms++) {
+            reference.leak(ms / 1000.0);
+            assertEquals(reference.allowRequest(0.0001), third.allowRequest(ms / 1000.0, 0.0001), "At " + ms);
+        }
+        assertEquals(reference.getCurrentLevel(), third.getCurrentLevel(third.getFormat().toTicks(PackedBucketFormat.toNanos(6.0))), DELTA);
+    }
+
+    @Test
+    void testSizesAreChargedWithoutRoundingUp() {
+        AtomicBucket tenths = new AtomicBucket(5.0, 0.0, 0.0);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(tenths.allowRequest(0.0, 0.1), "Request " + i);
+        }
+        assertFalse(tenths.allowRequest(0.0, 0.1));
+
+        AtomicBucket large = new AtomicBucket(PackedBucketFormat.MAX_CAPACITY, 0.0, 0.0);
+        long admitted = 0;
+        while (large.allowRequest(0.0, 1.0)) {
+            admitted++;
+        }
+        assertEquals((long) PackedBucketFormat.MAX_CAPACITY, admitted);
+        assertThrows(IllegalArgumentException.class, () -> new AtomicBucket(1e7, 1.0, 0.0));
+    }
+}
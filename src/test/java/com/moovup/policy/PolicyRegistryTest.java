@@ -0,0 +1,52 @@
+package com.moovup.policy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolicyRegistryTest {
+
+    private static final double DELTA = 0.001;
+
+    @Test
+    void testRegisterAndResolve() {
+        PolicyRegistry registry = new PolicyRegistry(new RatePolicy("free", 10, 1), 1_000);
+        int pro = registry.register(new RatePolicy("pro", 100, 10));
+        int enterprise = registry.register(new RatePolicy("enterprise", 1_000, 100));
+        assertEquals(1, pro);
+        assertEquals(2, enterprise);
+        assertEquals(3, registry.size());
+
+        registry.setResolver(userId -> userId.startsWith("pro-") ? pro : PolicyRegistry.DEFAULT_POLICY);
+        assertEquals(pro, registry.resolve("pro-42"));
+        assertEquals(PolicyRegistry.DEFAULT_POLICY, registry.resolve("anon"));
+
+        int version = registry.getAssignmentVersion();
+        registry.assign("anon", enterprise);
+        assertEquals(enterprise, registry.resolve("anon"));
+        assertNotEquals(version, registry.getAssignmentVersion());
+        registry.unassign("anon");
+        assertEquals(PolicyRegistry.DEFAULT_POLICY, registry.resolve("anon"));
+    }
+
+    @Test
+    void testUpdateKeepsLevelScale() {
+        PolicyRegistry registry = new PolicyRegistry(new RatePolicy("free", 10, 1), 100);
+        long state = registry.format(0).pack(7.5, 0.0);
+        registry.update(0, new RatePolicy("free", 50, 5));
+        assertEquals(50.0, registry.get(0).getCapacity(), DELTA);
+        assertEquals(7.5, registry.format(0).level(state), DELTA);
+    }
+
+    @Test
+    void testInvalidPolicies() {
+        assertThrows(IllegalArgumentException.class, () -> new RatePolicy("free", 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new RatePolicy(" ", 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PolicyRegistry(null));
+        PolicyRegistry registry = new PolicyRegistry(new RatePolicy("free", 10, 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.register(new RatePolicy("pro", 20, 1)));
+        assertThrows(IllegalArgumentException.class, () -> registry.assign("user1", 5));
+        assertThrows(IllegalArgumentException.class, () -> registry.update(1, new RatePolicy("pro", 5, 1)));
+        registry.setResolver(userId -> 9);
+        assertThrows(IllegalArgumentException.class, () -> registry.resolve("user1"));
+    }
+}
@@ -0,0 +1,155 @@
+package com.moovup.remote;
+
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.store.ConcurrentMapBucketStore;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LeasedBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @Test
+    void testAdmitsLocallyWithinLease() {
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(100.0, 1.0);
+        try (LeasedBucketStore node = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(60))) {
+            assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            assertEquals(10.0, authority.getBucketState("user1").getCurrentLevel(), DELTA);
+            assertEquals(9.0, node.getLeaseHeadroom("user1"), DELTA);
+
+            for (int i = 0; i < 6; i++) {
+                assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            }
+            assertEquals(6, node.getLocalAdmissionCount());
+            assertEquals(1, node.getReservationCount());
+            assertEquals(10.0, node.getBucketState("user1").getCurrentLevel(), DELTA);
+        }
+    }
+
+    @Test
+    void testRenewsAheadOfExhaustion() throws Exception {
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(100.0, 1.0);
+        try (LeasedBucketStore node = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(60))) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            }
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (node.getLeaseHeadroom("user1") < 10.0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(12.0, node.getLeaseHeadroom("user1"), DELTA);
+            assertEquals(20.0, authority.getBucketState("user1").getCurrentLevel(), DELTA);
+            assertEquals(2, node.getReservationCount());
+        }
+    }
+
+    @Test
+    void testNodesStayWithinGlobalCapacity() {
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(25.0, 1.0);
+        try (LeasedBucketStore first = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(60));
+             LeasedBucketStore second = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(60))) {
+            int admitted = 0;
+            for (int i = 0; i < 40; i++) {
+                if ((i % 2 == 0 ? first : second).allowRequest("user1", nanos(0.0), 1.0)) {
+                    admitted++;
+                }
+            }
+            assertEquals(25, admitted);
+            assertEquals(25.0, authority.getBucketState("user1").getCurrentLevel(), DELTA);
+            assertTrue(first.tryAllowRequest("user1", nanos(0.0), 1.0) > 0);
+            assertEquals(Long.MAX_VALUE, first.tryAllowRequest("user1", nanos(0.0), 30.0));
+        }
+    }
+
+    @Test
+    void testExpiryReleasesUnusedCapacity() {
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(100.0, 1.0);
+        LeasedBucketStore node = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(5));
+        assertTrue(node.allowRequest("user1", nanos(0.0), 2.0));
+        assertTrue(node.allowRequest("user2", nanos(0.0), 2.0));
+
+        node.expireLeases(nanos(4.0));
+        assertEquals(8.0, node.getLeaseHeadroom("user1"), DELTA);
+
+        node.expireLeases(nanos(5.0));
+        assertEquals(0.0, node.getLeaseHeadroom("user1"), DELTA);
+        // 10 leased, 5 leaked; of the 8 unused, the leak has already returned 5
+        assertEquals(2.0, authority.getBucketState("user1").getCurrentLevel(), DELTA);
+
+        // user2 expired alike, leaving 2 at 5 s and 1 at 6 s, plus a new lease
+        assertTrue(node.allowRequest("user2", nanos(6.0), 1.0));
+        assertEquals(11.0, authority.getBucketState("user2").getCurrentLevel(), DELTA);
+
+        node.close();
+        assertEquals(2.0, authority.getBucketState("user2").getCurrentLevel(), DELTA);
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeasedBucketStore(authority, 101.0, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LeasedBucketStore(authority, 1.0, Duration.ZERO));
+    }
+
+    @Test
+    void testExpiryDoesNotCreditTheLeakTwice() {
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(10.0, 1.0);
+        LeasedBucketStore node = new LeasedBucketStore(authority, 5.0, Duration.ofSeconds(4));
+        assertTrue(node.allowRequest("user1", nanos(0.0), 0.5));
+        assertTrue(node.allowRequest("user1", nanos(3.9), 1.0));
+        node.expireLeases(nanos(4.5));
+        // 1 admitted at 3.9 s is still 0.4 at 4.5 s; releasing all 3.5 unused would leave 0
+        assertTrue(authority.getCurrentLevel("user1", nanos(4.5)) >= 0.4);
+        node.close();
+    }
+
+    @Test
+    void testSlowAuthorityDoesNotHoldTheLease() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ConcurrentMapBucketStore authority = new ConcurrentMapBucketStore(100.0, 1.0) {
+            @Override
+            public long tryAllowRequest(String userId, long nanoTime, double requestSize) {
+                if (requestSize > 10.0) {
+                    entered.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.tryAllowRequest(userId, nanoTime, requestSize);
+            }
+        };
+        try (LeasedBucketStore node = new LeasedBucketStore(authority, 10.0, Duration.ofSeconds(60))) {
+            assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            Thread large = Thread.ofVirtual().start(() -> node.allowRequest("user1", nanos(0.0), 20.0));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            // the large reservation is in flight; the lease stays usable
+            assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            assertEquals(8.0, node.getLeaseHeadroom("user1"), DELTA);
+            proceed.countDown();
+            large.join(5_000);
+            // 8 left plus the 11 reserved no longer covers 20, so one more slice was taken
+            assertEquals(9.0, node.getLeaseHeadroom("user1"), DELTA);
+            assertEquals(31.0, authority.getBucketState("user1").getCurrentLevel(), DELTA);
+        }
+    }
+
+    @Test
+    void testLeasesOverRemoteStore() throws Exception {
+        try (BucketServer server = BucketServer.start(new ConcurrentMapBucketStore(20.0, 1.0), 0);
+             RemoteBucketStore remote = RemoteBucketStore.connect(server.getPort());
+             LeasedBucketStore node = new LeasedBucketStore(remote, 5.0, Duration.ofSeconds(60))) {
+            assertTrue(node.allowRequest("user1", nanos(0.0), 1.0));
+            assertEquals(5.0, server.getStore().getBucketState("user1").getCurrentLevel(), DELTA);
+            node.expireLeases(nanos(60.0));
+            assertEquals(0.0, server.getStore().getCurrentLevel("user1", nanos(60.0)), DELTA);
+        }
+    }
+}
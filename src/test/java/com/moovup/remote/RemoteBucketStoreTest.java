@@ -0,0 +1,214 @@
+package com.moovup.remote;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.policy.RatePolicy;
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.ConcurrentMapBucketStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+public class RemoteBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private BucketServer server;
+    private RemoteBucketStore nodeA;
+    private RemoteBucketStore nodeB;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = BucketServer.start(new ConcurrentMapBucketStore(5.0, 1.0), 0);
+        nodeA = RemoteBucketStore.connect(server.getPort());
+        nodeB = RemoteBucketStore.connect(server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.close();
+        nodeB.close();
+        server.close();
+    }
+
+    @Test
+    void testNodesShareOneQuota() {
+        assertEquals(5.0, nodeA.getCapacity(), DELTA);
+        assertEquals(1.0, nodeB.getLeakRate(), DELTA);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(nodeA.allowRequest("user1", nanos(0.0), 1.0));
+        }
+        assertTrue(nodeB.allowRequest("user1", nanos(0.0), 2.0));
+        assertFalse(nodeA.allowRequest("user1", nanos(0.0), 1.0));
+        assertEquals(nanos(1.0), nodeB.tryAllowRequest("user1", nanos(0.0), 1.0));
+        assertEquals(Long.MAX_VALUE, nodeB.tryAllowRequest("user1", nanos(0.0), 6.0));
+        assertTrue(nodeB.allowRequest("user1", nanos(1.0), 1.0));
+
+        Bucket bucket = nodeA.getBucketState("user1");
+        assertEquals("user1", bucket.getUserId());
+        assertEquals(5.0, bucket.getCurrentLevel(), DELTA);
+        assertEquals(1.0, bucket.getLastLeakTime(), DELTA);
+        assertNull(nodeA.getBucketState("user2"));
+        assertEquals(3.0, nodeB.getCurrentLevel("user1", nanos(3.0)), DELTA);
+        assertEquals(1, nodeA.size());
+    }
+
+    @Test
+    void testWholeStoreReads() {
+        for (int i = 0; i < 100; i++) {
+            nodeA.allowRequest("user" + i, nanos(0.0), i % 5 + 1);
+        }
+        Map<String, Bucket> buckets = new HashMap<>();
+        nodeB.forEach(buckets::put);
+        assertEquals(100, buckets.size());
+        assertEquals(3.0, buckets.get("user7").getCurrentLevel(), DELTA);
+
+        Map<String, Double> levels = new HashMap<>();
+        nodeB.forEachBucketParallel(nanos(2.0), (userId, level, capacity, leakRate, lastLeakTime) ->
+                levels.put(userId.toString(), level));
+        assertEquals(buckets.keySet(), levels.keySet());
+        assertEquals(1.0, levels.get("user7"), DELTA);
+        assertEquals(0.0, levels.get("user5"), DELTA);
+        assertEquals(0, nodeA.getEvictionCount());
+    }
+
+    @Test
+    void testScansStreamInChunks() throws Exception {
+        for (int i = 0; i < 2_500; i++) {
+            nodeA.allowRequest("user" + i, nanos(0.0), 1.0);
+        }
+        Map<String, Bucket> buckets = new HashMap<>();
+        nodeB.forEach(buckets::put);
+        assertEquals(2_500, buckets.size());
+
+        ConcurrentMapBucketStore failing = new ConcurrentMapBucketStore(5.0, 1.0) {
+            @Override
+            public void forEach(BiConsumer<String, Bucket> action) {
+                super.forEach(action);
+                throw new IllegalStateException("Scan interrupted");
+            }
+        };
+        for (int i = 0; i < 1_500; i++) {
+            failing.tryAllowRequest("user" + i, nanos(0.0), 1.0);
+        }
+        try (BucketServer broken = BucketServer.start(failing, 0);
+             RemoteBucketStore node = RemoteBucketStore.connect(broken.getPort())) {
+            IllegalStateException error = assertThrows(IllegalStateException.class,
+                    () -> node.forEach((userId, bucket) -> { }));
+            assertTrue(error.getMessage().contains("Scan interrupted"));
+            assertEquals(1_500, node.size());
+        }
+    }
+
+    @Test
+    void testUnknownOpcodeClosesOnlyThatConnection() throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeByte(99);
+            out.writeByte(RemoteProtocol.SIZE);
+            out.flush();
+            assertEquals(RemoteProtocol.INVALID, in.readUnsignedByte());
+            assertEquals("Unknown opcode 99", in.readUTF());
+            assertEquals(-1, in.read());
+        }
+        assertTrue(nodeA.allowRequest("user1", nanos(0.0), 1.0));
+    }
+
+    @Test
+    void testPipelinedAsyncAdmissions() {
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            results.add(nodeA.tryAllowRequestAsync("user" + i % 10, nanos(0.0), 1.0));
+        }
+        int admitted = 0;
+        for (CompletableFuture<Long> result : results) {
+            if (result.join() == 0) {
+                admitted++;
+            }
+        }
+        assertEquals(50, admitted);
+        assertEquals(1_000, nodeA.getRequestCount());
+        assertTrue(nodeA.getBatchCount() >= 1);
+        assertTrue(nodeA.getBatchCount() <= nodeA.getRequestCount());
+    }
+
+    @Test
+    void testLimiterOverRemoteStore() {
+        ConcurrentLeakyBucketRateLimiter first = ConcurrentLeakyBucketRateLimiter.createRateLimiter(nodeA);
+        ConcurrentLeakyBucketRateLimiter second = ConcurrentLeakyBucketRateLimiter.createRateLimiter(nodeB);
+        for (int i = 0; i < 5; i++) {
+            assertTrue((i % 2 == 0 ? first : second).allowRequest("user1", 10.0));
+        }
+        assertFalse(first.allowRequest("user1", 10.0));
+        assertFalse(second.allowRequest("user1", 10.0));
+        assertEquals(5.0, second.getBucketState("user1").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testBadArgumentsFailOnlyTheirOwnCall() throws Exception {
+        String oversized = "u".repeat(70_000);
+        assertThrows(IllegalArgumentException.class, () -> nodeA.tryAllowRequest(oversized, nanos(0.0), 1.0));
+        assertThrows(IllegalArgumentException.class, () -> nodeA.getBucketState("\u20ac".repeat(22_000)));
+        assertThrows(IllegalArgumentException.class, () -> nodeA.tryAllowRequest((String) null, nanos(0.0), 1.0));
+        assertThrows(IllegalArgumentException.class, () -> nodeA.tryAllowRequest("user1", Long.MAX_VALUE, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> nodeA.getCurrentLevel("user1", Long.MIN_VALUE));
+        assertTrue(nodeA.allowRequest("user1", nanos(0.0), 1.0));
+
+        PolicyRegistry policies = new PolicyRegistry(new RatePolicy("default", 5.0, 1.0), 10.0);
+        policies.setResolver(userId -> switch (userId) {
+            case "invalid" -> throw new IllegalArgumentException("Unknown tenant");
+            case "broken" -> throw new IllegalStateException("Directory down");
+            default -> PolicyRegistry.DEFAULT_POLICY;
+        });
+        try (BucketServer failing = BucketServer.start(new ConcurrentMapBucketStore(policies), 0);
+             RemoteBucketStore node = RemoteBucketStore.connect(failing.getPort())) {
+            CompletableFuture<Long> before = node.tryAllowRequestAsync("user1", nanos(0.0), 1.0);
+            CompletableFuture<Long> invalid = node.tryAllowRequestAsync("invalid", nanos(0.0), 1.0);
+            CompletableFuture<Long> broken = node.tryAllowRequestAsync("broken", nanos(0.0), 1.0);
+            CompletableFuture<Long> after = node.tryAllowRequestAsync("user1", nanos(0.0), 5.0);
+            assertEquals(0, before.join());
+            assertInstanceOf(IllegalArgumentException.class,
+                    assertThrows(CompletionException.class, invalid::join).getCause());
+            assertInstanceOf(IllegalStateException.class,
+                    assertThrows(CompletionException.class, broken::join).getCause());
+            assertEquals(nanos(1.0), after.join());
+            assertThrows(IllegalArgumentException.class, () -> node.allowRequest("invalid", nanos(0.0), 1.0));
+            assertEquals(1, node.size());
+        }
+    }
+
+    @Test
+    void testClosedConnectionFailsCalls() throws Exception {
+        server.close();
+        assertThrows(RuntimeException.class, () -> {
+            for (int i = 0; i < 100; i++) {
+                nodeA.allowRequest("user1", nanos(0.0), 1.0);
+                Thread.sleep(10);
+            }
+        });
+        nodeB.close();
+        assertThrows(IllegalStateException.class, () -> nodeB.allowRequest("user1", nanos(0.0), 1.0));
+        assertThrows(ConnectException.class, () -> RemoteBucketStore.connect(server.getPort()));
+        assertThrows(IllegalArgumentException.class, () -> BucketServer.start(null, 0));
+    }
+}
@@ -0,0 +1,143 @@
+package com.moovup.replay;
+
+import com.moovup.service.ConcurrentLeakyBucketRateLimiter;
+import com.moovup.store.PrimitiveBucketStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class TraceReplayTest {
+
+    private static final double DELTA = 0.001;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Random trace of {@code perTick} records per tick of {@code tickSeconds}.
+     */
+    private Path randomTrace(String name, int records, int keys, int perTick, double tickSeconds) throws IOException {
+        Path path = directory.resolve(name);
+        Random random = new Random(11);
+        try (TraceFile.Writer writer = TraceFile.create(path)) {
+            for (int i = 0; i < records; i++) {
+                writer.append("user" + random.nextInt(keys), i / perTick * tickSeconds, 1 + random.nextInt(2));
+            }
+        }
+        return path;
+    }
+
+    @Test
+    void testWrittenTraceReadsBackAcrossChunks() throws IOException {
+        Path path = directory.resolve("small.trace");
+        try (TraceFile.Writer writer = TraceFile.create(path)) {
+            for (int i = 0; i < 20; i++) {
+                writer.append(i % 3 == 0 ? "ユーザー" : "user" + i % 3, i * 0.5, i + 1);
+            }
+            assertEquals(20, writer.getRecordCount());
+        }
+        TraceFile trace = TraceFile.open(path, 7);
+        assertEquals(20, trace.getRecordCount());
+        assertEquals(3, trace.getKeyCount());
+        assertEquals("ユーザー", trace.getKey(0));
+        assertEquals(2, trace.getKeyIndex("user2"));
+        assertEquals(-1, trace.getKeyIndex("user3"));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 3, trace.keyIndex(i));
+            assertEquals(i * 0.5, trace.timestamp(i), DELTA);
+            assertEquals(i + 1, trace.size(i), DELTA);
+        }
+    }
+
+    @Test
+    void testCsvConversion() throws IOException {
+        Path csv = directory.resolve("trace.csv");
+        Files.writeString(csv, "# userId,timestamp,size\nuser1,0.0,2\n\nuser2, 0.5\nuser1,1.0,1.5\n");
+        Path path = directory.resolve("trace.bin");
+        assertEquals(3, TraceFile.convertCsv(csv, path));
+        TraceFile trace = TraceFile.open(path);
+        assertEquals(2, trace.getKeyCount());
+        assertEquals(1, trace.keyIndex(1));
+        assertEquals(0.5, trace.timestamp(1), DELTA);
+        assertEquals(1.0, trace.size(1), DELTA);
+        assertEquals(1.5, trace.size(2), DELTA);
+
+        Files.writeString(csv, "user1,0.0\nuser1,zero\n");
+        IOException error = assertThrows(IOException.class, () -> TraceFile.convertCsv(csv, path));
+        assertTrue(error.getMessage().contains("line 2"));
+        Files.writeString(csv, " ,0.0\n");
+        assertThrows(IOException.class, () -> TraceFile.convertCsv(csv, path));
+        assertThrows(IOException.class, () -> TraceFile.open(csv));
+    }
+
+    @Test
+    void testPartitionedReplayMatchesReference() throws IOException {
+        TraceFile trace = TraceFile.open(randomTrace("a.trace", 20_000, 200, 50, 1.0));
+        ReplayReport reference = TraceReplay.reference(trace, 5.0, 1.0);
+        ReplayReport report = TraceReplay.replay(trace, () -> ReplayTarget.snapshot(5.0, 1.0), 4, 1);
+
+        assertEquals(20_000, report.getRecordCount());
+        assertEquals(4, report.getThreadCount());
+        assertEquals(20_000, report.getLatency().getCount());
+        assertEquals(0, reference.getLatency().getCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getAllocatedBytes() != 0);
+        assertTrue(report.getRejectedCount() > 0);
+        assertEquals(reference.getAllowedCount(), report.getAllowedCount());
+        assertEquals(reference.getAllowedCount("user7"), report.getAllowedCount("user7"));
+        assertEquals(reference.getRejectedCount("user7"), report.getRejectedCount("user7"));
+        assertEquals(0, report.getAllowedCount("nobody"));
+        assertEquals(List.of(), report.compare(reference));
+        for (int i = 0; i < trace.getRecordCount(); i++) {
+            assertEquals(reference.isAllowed(i), report.isAllowed(i));
+        }
+    }
+
+    @Test
+    void testSharedConcurrentLimiterMatchesReference() throws IOException {
+        // dense, so each replay step spans milliseconds of the shared store's eviction clock
+        TraceFile trace = TraceFile.open(randomTrace("a.trace", 20_000, 200, 10, 0.001));
+        ConcurrentLeakyBucketRateLimiter limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(5.0, 1.0);
+        ReplayReport report = TraceReplay.replay(trace, () -> limiter::allowRequest, 3, 16);
+        assertEquals(20_000 / 16, report.getLatency().getCount(), 3);
+        assertEquals(List.of(), report.compare(TraceReplay.reference(trace, 5.0, 1.0)));
+    }
+
+    @Test
+    void testSubMillisecondTraceMatchesReference() throws IOException {
+        TraceFile trace = TraceFile.open(randomTrace("a.trace", 40_000, 5, 1, 0.000137));
+        ReplayReport reference = TraceReplay.reference(trace, 1_000.0, 10.0);
+        assertTrue(reference.getRejectedCount() > 0);
+        ConcurrentLeakyBucketRateLimiter limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new PrimitiveBucketStore(1_000.0, 10.0, 16));
+        assertEquals(List.of(), TraceReplay.replay(trace, () -> limiter::allowRequest, 4, 0).compare(reference));
+        assertEquals(List.of(), TraceReplay.replay(trace, () -> ReplayTarget.snapshot(1_000.0, 10.0), 4, 0)
+                .compare(reference));
+    }
+
+    @Test
+    void testMismatchesAreReportedPerKey() throws IOException {
+        TraceFile trace = TraceFile.open(randomTrace("a.trace", 5_000, 50, 50, 1.0));
+        ReplayReport tighter = TraceReplay.replay(trace, () -> ReplayTarget.snapshot(3.0, 1.0), 2, 0);
+        ReplayReport reference = TraceReplay.reference(trace, 5.0, 1.0);
+
+        List<ReplayReport.KeyMismatch> mismatches = tighter.compare(reference);
+        assertFalse(mismatches.isEmpty());
+        ReplayReport.KeyMismatch first = mismatches.get(0);
+        assertTrue(first.getAllowed() < first.getReferenceAllowed());
+        assertEquals(first.getAllowed() + first.getRejected(),
+                first.getReferenceAllowed() + first.getReferenceRejected());
+        assertEquals(tighter.getAllowedCount(first.getUserId()), first.getAllowed());
+
+        TraceFile other = TraceFile.open(randomTrace("b.trace", 10, 5, 50, 1.0));
+        assertThrows(IllegalArgumentException.class,
+                () -> TraceReplay.reference(other, 5.0, 1.0).compare(reference));
+        assertThrows(IllegalArgumentException.class,
+                () -> TraceReplay.replay(trace, () -> ReplayTarget.snapshot(5.0, 1.0), 0, 1));
+    }
+}
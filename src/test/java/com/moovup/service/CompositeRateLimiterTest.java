@@ -0,0 +1,140 @@
+package com.moovup.service;
+
+import com.moovup.policy.RatePolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompositeRateLimiterTest {
+
+    private static final double DELTA = 0.001;
+
+    private CompositeRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = CompositeRateLimiter.createRateLimiter(
+                new RatePolicy("user", 3.0, 1.0),
+                new RatePolicy("tenant", 5.0, 1.0),
+                new RatePolicy("global", 100.0, 10.0));
+    }
+
+    private static String[] keys(String user, String tenant) {
+        return new String[] {user, tenant, "*"};
+    }
+
+    @Test
+    void testEveryLevelIsCharged() {
+        assertTrue(limiter.allowRequest(keys("alice", "acme"), 0.0, 2.0));
+        assertEquals(2.0, limiter.getBucketState(0, "alice").getCurrentLevel(), DELTA);
+        assertEquals(2.0, limiter.getBucketState(1, "acme").getCurrentLevel(), DELTA);
+        assertEquals(2.0, limiter.getBucketState(2, "*").getCurrentLevel(), DELTA);
+        assertNull(limiter.getBucketState(0, "bob"));
+        assertEquals(3, limiter.getLevelCount());
+        assertEquals("tenant", limiter.getLevel(1).getName());
+    }
+
+    @Test
+    void testRejectionChargesNoLevel() {
+        assertTrue(limiter.allowRequest(keys("alice", "acme"), 0.0, 3.0));
+        assertTrue(limiter.allowRequest(keys("bob", "acme"), 0.0, 2.0));
+
+        // bob has room but acme is full: nothing is charged anywhere
+        assertEquals(1.0, limiter.tryAllowRequest(keys("bob", "acme"), 0.0, 1.0), DELTA);
+        assertEquals(2.0, limiter.getBucketState(0, "bob").getCurrentLevel(), DELTA);
+        assertEquals(5.0, limiter.getBucketState(1, "acme").getCurrentLevel(), DELTA);
+        assertEquals(5.0, limiter.getBucketState(2, "*").getCurrentLevel(), DELTA);
+
+        // carol's own bucket is empty, the wait comes from the tenant
+        assertEquals(2.0, limiter.tryAllowRequest(keys("carol", "acme"), 0.0, 2.0), DELTA);
+        assertTrue(limiter.allowRequest(keys("carol", "acme"), 2.0, 2.0));
+        assertEquals(Double.POSITIVE_INFINITY, limiter.tryAllowRequest(keys("carol", "acme"), 2.0, 4.0));
+    }
+
+    @Test
+    void testConcurrentRequestsNeverOvercharge() throws Exception {
+        int threads = 4;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            String user = "user" + t;
+            Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (limiter.allowRequest(keys(user, "acme"), 0.0)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        assertEquals(5, admitted.get());
+        double users = 0;
+        for (int t = 0; t < threads; t++) {
+            users += limiter.getCurrentLevel(0, "user" + t, 0.0);
+        }
+        assertEquals(5.0, users, DELTA);
+        assertEquals(5.0, limiter.getBucketState(2, "*").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testRejectedRequestsNeverShowACharge() throws Exception {
+        assertTrue(limiter.allowRequest(keys("alice", "acme"), 0.0, 2.0));
+        assertTrue(limiter.allowRequest(keys("bob", "full"), 0.0, 3.0));
+        assertTrue(limiter.allowRequest(keys("carol", "full"), 0.0, 2.0));
+        CountDownLatch done = new CountDownLatch(1);
+        Thread.ofPlatform().start(() -> {
+            // alice has room, her tenant does not
+            for (int i = 0; i < 20_000; i++) {
+                limiter.tryAllowRequest(keys("alice", "full"), 0.0, 1.0);
+            }
+            done.countDown();
+        });
+        while (done.getCount() > 0) {
+            assertEquals(2.0, limiter.getCurrentLevel(0, "alice", 0.0), DELTA);
+            assertEquals(7.0, limiter.getCurrentLevel(2, "*", 0.0), DELTA);
+        }
+    }
+
+    @Test
+    void testEvictDrainedBuckets() {
+        limiter.allowRequest(keys("alice", "acme"), 0.0, 2.0);
+        limiter.allowRequest(keys("bob", "other"), 0.0, 1.0);
+        assertEquals(2, limiter.getBucketCount(0));
+
+        assertEquals(3, limiter.evictDrained(1.0));
+        assertNull(limiter.getBucketState(0, "bob"));
+        assertEquals(1.0, limiter.getCurrentLevel(0, "alice", 1.0), DELTA);
+        assertEquals(0.0, limiter.getCurrentLevel(0, "bob", 1.0), DELTA);
+        assertEquals(1, limiter.getBucketCount(0));
+        assertTrue(limiter.allowRequest(keys("bob", "other"), 1.0));
+        assertEquals(1.0, limiter.getBucketState(1, "other").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testRequestsEvictDrainedBuckets() {
+        for (int i = 0; i < 100; i++) {
+            limiter.allowRequest(keys("user" + i, "acme"), 0.0, 0.01);
+        }
+        assertEquals(100, limiter.getBucketCount(0));
+        for (int i = 0; i < 200; i++) {
+            limiter.allowRequest(keys("alice", "acme"), 10.0 + i / 100.0, 0.001);
+        }
+        assertEquals(1, limiter.getBucketCount(0));
+        assertNotNull(limiter.getBucketState(0, "alice"));
+    }
+
+    @Test
+    void testInvalidInputs() {
+        assertThrows(IllegalArgumentException.class, () -> CompositeRateLimiter.createRateLimiter());
+        assertThrows(IllegalArgumentException.class,
+                () -> CompositeRateLimiter.createRateLimiter(new RatePolicy("user", 1.0, 1.0), null));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest(new String[] {"alice"}, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest(keys("alice", null), 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest(keys("alice", " \t"), 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest(keys("alice", "acme"), 0.0, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.getBucketState(3, "alice"));
+    }
+}
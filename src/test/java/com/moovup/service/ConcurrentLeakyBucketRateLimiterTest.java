@@ -0,0 +1,383 @@
+package com.moovup.service;
+
+import com.moovup.metrics.LimiterMetrics;
+import com.moovup.metrics.MetricsSnapshot;
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.policy.RatePolicy;
+import com.moovup.store.ConcurrentMapBucketStore;
+import com.moovup.store.PrimitiveBucketStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+public class ConcurrentLeakyBucketRateLimiterTest {
+
+    private ConcurrentLeakyBucketRateLimiter limiter;
+    private static final double CAPACITY = 5.0;
+    private static final double LEAK_RATE = 1.0;
+    private static final double DELTA = 0.001;
+
+    @BeforeEach
+    void setUp() {
+        limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE);
+    }
+
+    @Test
+    void testCreateRateLimiter() {
+        assertEquals(CAPACITY, limiter.getCapacity(), DELTA);
+        assertEquals(LEAK_RATE, limiter.getLeakRate(), DELTA);
+        assertEquals(0, limiter.getUserCount());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(0, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(5, -1));
+    }
+
+    @Test
+    void testBurstAndLeak() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allowRequest("user1", 0.0), "Request " + (i + 1) + " should be allowed");
+        }
+        assertFalse(limiter.allowRequest("user1", 0.0));
+        assertEquals(5.0, limiter.getBucketState("user1").getCurrentLevel(), DELTA);
+
+        assertTrue(limiter.allowRequest("user1", 2.0));
+        assertEquals(4.0, limiter.getBucketState("user1").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testMultipleUsers() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allowRequest("user1", 0.0));
+        }
+        assertFalse(limiter.allowRequest("user1", 0.0));
+        assertTrue(limiter.allowRequest("user2", 0.0));
+
+        Map<String, Bucket> allStates = limiter.getAllBucketStates();
+        assertEquals(2, allStates.size());
+        assertEquals(5.0, allStates.get("user1").getCurrentLevel(), DELTA);
+        assertEquals(1.0, allStates.get("user2").getCurrentLevel(), DELTA);
+        assertEquals(2, limiter.getUserCount());
+    }
+
+    @Test
+    void testInvalidInputs() {
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest((String) null, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest(" ", 0.0));
+        assertThrows(IllegalArgumentException.class, () -> limiter.allowRequest("user1", 0.0, 0.0));
+        assertNull(limiter.getBucketState(null));
+        assertNull(limiter.getBucketState("nonexistent"));
+    }
+
+    @Test
+    void testConcurrentRequestsOnSameUserNeverOverfill() throws InterruptedException {
+        int threads = 8;
+        int requestsPerThread = 1_000;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < requestsPerThread; i++) {
+                    if (limiter.allowRequest("hot", 0.0)) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(5, allowed.get());
+        assertEquals(5.0, limiter.getBucketState("hot").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testPrimitiveStoreBehindLimiter() {
+        ConcurrentLeakyBucketRateLimiter compact = ConcurrentLeakyBucketRateLimiter
+                .createRateLimiter(new PrimitiveBucketStore(CAPACITY, LEAK_RATE, 1_024));
+        assertEquals(CAPACITY, compact.getCapacity(), DELTA);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(compact.allowRequest("user1", 0.0));
+        }
+        assertFalse(compact.allowRequest("user1", 0.0));
+        assertTrue(compact.allowRequest("user1", 1.0));
+        assertEquals(5.0, compact.getBucketState("user1").getCurrentLevel(), DELTA);
+        assertEquals(1, compact.getUserCount());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(null));
+    }
+
+    @Test
+    void testBatchAdmissionInTimestampOrder() {
+        String[] userIds = {"user1", "user1", "user2", "user1", "user1", "user1", "user1", "user1"};
+        double[] timestamps = {2.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
+        double[] sizes = {1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        boolean[] results = new boolean[userIds.length];
+
+        int allowed = limiter.allowRequests(userIds, timestamps, sizes, results);
+
+        assertEquals(7, allowed);
+        assertArrayEquals(new boolean[] {true, true, true, true, true, true, true, false}, results);
+        assertEquals(4.0, limiter.getBucketState("user1").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testNanosecondTimeline() {
+        long epochNanos = 1_700_000_000_123_456_789L;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.allowRequestNanos("user1", epochNanos, 1.0));
+        }
+        assertFalse(limiter.allowRequestNanos("user1", epochNanos + 999_000_000L, 1.0));
+        assertTrue(limiter.allowRequestNanos("user1", epochNanos + 999_000_000L, 0.99));
+        assertEquals(1_700_000_001.122, limiter.getBucketState("user1").getLastLeakTime(), DELTA);
+    }
+
+    @Test
+    void testTimeSourceDrivesAllowRequestNow() {
+        AtomicLong now = new AtomicLong(5_000_000_000L);
+        ConcurrentLeakyBucketRateLimiter clocked = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new ConcurrentMapBucketStore(2.0, 1.0), now::get);
+        assertTrue(clocked.allowRequestNow("user1"));
+        assertTrue(clocked.allowRequestNow("user1"));
+        assertFalse(clocked.allowRequestNow("user1"));
+        now.addAndGet(500_000_000L);
+        assertFalse(clocked.allowRequestNow("user1"));
+        assertTrue(clocked.allowRequestNow("user1", 0.5));
+        assertThrows(IllegalArgumentException.class, () -> ConcurrentLeakyBucketRateLimiter
+                .createRateLimiter(new ConcurrentMapBucketStore(2.0, 1.0), null));
+    }
+
+    @Test
+    void testStreamingStateReadsAreLeakAdjusted() {
+        for (int i = 0; i < 5; i++) {
+            limiter.allowRequest("user1", 0.0);
+        }
+        limiter.allowRequest("user2", 0.0, 2.0);
+        assertEquals(3.0, limiter.getCurrentLevel("user1", 2.0), DELTA);
+        assertEquals(0.0, limiter.getCurrentLevel("nonexistent", 2.0), DELTA);
+        assertEquals(0.0, limiter.getCurrentLevel(null, 2.0), DELTA);
+
+        Map<String, Double> levels = new HashMap<>();
+        limiter.forEachBucketState(1.5, (userId, level, capacity, leakRate, lastLeakTime) -> {
+            assertEquals(CAPACITY, capacity, DELTA);
+            assertEquals(1.5, lastLeakTime, DELTA);
+            levels.put(userId.toString(), level);
+        });
+        assertEquals(Map.of("user1", 3.5, "user2", 0.5), levels);
+        assertEquals(5.0, limiter.getBucketState("user1").getCurrentLevel(), DELTA);
+
+        DoubleAdder total = new DoubleAdder();
+        limiter.forEachBucketStateParallel(1.5,
+                (userId, level, capacity, leakRate, lastLeakTime) -> total.add(level));
+        assertEquals(4.0, total.sum(), DELTA);
+        assertThrows(IllegalArgumentException.class, () -> limiter.forEachBucketState(0.0, null));
+    }
+
+    @Test
+    void testShardedLimiter() {
+        ConcurrentLeakyBucketRateLimiter sharded =
+                ConcurrentLeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE, 16);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sharded.allowRequest("user1", 0.0));
+        }
+        assertFalse(sharded.allowRequest("user1", 0.0));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sharded.allowRequest("other" + i, 0.0));
+        }
+        assertEquals(101, sharded.getUserCount());
+        assertEquals(101, sharded.getAllBucketStates().size());
+        assertThrows(IllegalArgumentException.class,
+                () -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE, 6));
+    }
+
+    @Test
+    void testTieredLimiter() {
+        PolicyRegistry policies = new PolicyRegistry(new RatePolicy("free", 1.0, 1.0), 10.0);
+        int enterprise = policies.register(new RatePolicy("enterprise", 10.0, 10.0));
+        policies.assign("api-key-7", enterprise);
+        ConcurrentLeakyBucketRateLimiter tiered = ConcurrentLeakyBucketRateLimiter.createTieredRateLimiter(policies);
+
+        assertTrue(tiered.allowRequest("user1", 0.0));
+        assertFalse(tiered.allowRequest("user1", 0.0));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(tiered.allowRequest("api-key-7", 0.0));
+        }
+        assertFalse(tiered.allowRequest("api-key-7", 0.0));
+        assertEquals(10.0, tiered.getBucketState("api-key-7").getCapacity(), DELTA);
+    }
+
+    @Test
+    void testTryAllowRequestReportsWait() {
+        long start = 1_000_000_000L;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAllowRequestNanos("user1", start, 1.0));
+        }
+        assertEquals(1_000_000_000L, limiter.tryAllowRequestNanos("user1", start, 1.0));
+        assertEquals(2_750_000_000L, limiter.tryAllowRequestNanos("user1", start + 250_000_000L, 3.0));
+        assertEquals(0, limiter.tryAllowRequestNanos("user1", start + 3_000_000_000L, 3.0));
+        assertEquals(Long.MAX_VALUE, limiter.tryAllowRequestNanos("user2", start, 6.0));
+    }
+
+    @Test
+    void testAcquireWakesWaitersInArrivalOrder() throws InterruptedException {
+        ConcurrentLeakyBucketRateLimiter shaped = ConcurrentLeakyBucketRateLimiter.createRateLimiter(1.0, 50.0);
+        shaped.acquire("user1");
+        ConcurrentLinkedQueue<Integer> admitted = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int arrival = i;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    shaped.acquire("user1");
+                    admitted.add(arrival);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            while (shaped.getWaiterCount() < i + 1 && admitted.size() < i + 1) {
+                Thread.onSpinWait();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), new ArrayList<>(admitted));
+        assertEquals(0, shaped.getWaiterCount());
+    }
+
+    @Test
+    void testTryAcquireTimesOutAndInterruptsCleanly() throws InterruptedException {
+        ConcurrentLeakyBucketRateLimiter slow = ConcurrentLeakyBucketRateLimiter.createRateLimiter(1.0, 0.001);
+        assertTrue(slow.tryAcquire("user1", 1.0, Duration.ZERO));
+        assertFalse(slow.tryAcquire("user1", 1.0, Duration.ofMillis(20)));
+        assertFalse(slow.tryAcquire("user1", 2.0, Duration.ofSeconds(10)));
+        assertThrows(RejectedExecutionException.class, () -> slow.acquire("user1", 2.0));
+
+        AtomicInteger interrupted = new AtomicInteger();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                slow.acquire("user1");
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        });
+        while (slow.getWaiterCount() == 0) {
+            Thread.onSpinWait();
+        }
+        waiter.interrupt();
+        waiter.join(5_000);
+        assertEquals(1, interrupted.get());
+        assertEquals(0, slow.getWaiterCount());
+    }
+
+    @Test
+    void testMetricsCountEveryAdmissionPath() throws InterruptedException {
+        ConcurrentLeakyBucketRateLimiter metered = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new ConcurrentMapBucketStore(CAPACITY, LEAK_RATE), System::nanoTime, new LimiterMetrics(1));
+        for (int i = 0; i < 7; i++) {
+            metered.allowRequest("user1", 0.0);
+        }
+        metered.tryAllowRequestNanos("user2", 0, 1.0);
+        metered.allowRequests(new String[] {"user2", "user2"}, new double[] {0.0, 0.0},
+                new double[] {4.0, 1.0}, new boolean[2]);
+
+        MetricsSnapshot snapshot = metered.getMetrics();
+        assertEquals(7, snapshot.getAllowedCount());
+        assertEquals(3, snapshot.getRejectedCount());
+        assertEquals(2, snapshot.getBucketCount());
+        assertEquals(0.3, snapshot.getRejectionRate(), DELTA);
+        assertEquals(10, snapshot.getLatency().getCount());
+
+        MetricsSnapshot[] exported = new MetricsSnapshot[1];
+        metered.exportMetrics(m -> exported[0] = m);
+        assertEquals(7, exported[0].getAllowedCount());
+        assertNull(limiter.getMetrics());
+        assertThrows(IllegalArgumentException.class, () -> ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new ConcurrentMapBucketStore(CAPACITY, LEAK_RATE), System::nanoTime, null));
+        assertThrows(IllegalArgumentException.class, () -> new LimiterMetrics(3));
+    }
+
+    @Test
+    void testBlockingAdmissionsRecordOneOutcomeEach() throws InterruptedException {
+        ConcurrentLeakyBucketRateLimiter metered = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new ConcurrentMapBucketStore(1.0, 100.0), System::nanoTime, new LimiterMetrics(1, 4));
+        for (int i = 0; i < 5; i++) {
+            metered.acquire("user1");
+        }
+        assertFalse(metered.tryAcquire("user1", 2.0, Duration.ofMillis(20)));
+        assertTrue(metered.tryAcquire("user1", 1.0, Duration.ofSeconds(5)));
+
+        MetricsSnapshot snapshot = metered.getMetrics();
+        assertEquals(6, snapshot.getAllowedCount());
+        assertEquals(1, snapshot.getRejectedCount());
+        assertEquals(1.0, snapshot.getTopRejected().get(0).getCount(), DELTA);
+    }
+
+    @Test
+    void testNumericAndByteKeys() {
+        ConcurrentLeakyBucketRateLimiter compact = ConcurrentLeakyBucketRateLimiter
+                .createRateLimiter(new PrimitiveBucketStore(CAPACITY, LEAK_RATE, 1_024));
+        byte[] header = "Bearer 4242".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer direct = ByteBuffer.allocateDirect(header.length).put(header).position(7);
+        assertTrue(compact.allowRequest(4242L, 0.0, 2.0));
+        assertTrue(compact.allowRequest(header, 7, 4, 0.0));
+        assertTrue(compact.allowRequest(direct, 0.0, 2.0));
+        assertFalse(compact.allowRequest("4242", 0.0));
+        assertEquals(PackedBucketFormat.toNanos(1.0), compact.tryAllowRequestNanos(direct, 0, 1.0));
+        assertEquals(7, direct.position());
+        assertEquals(1, compact.getUserCount());
+
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(1L, 0.0, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest((byte[]) null, 0, 0, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(header, 6, 1, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(header, 8, 4, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(header, -1, 4, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(header, 0, 0, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest(direct.duplicate().limit(7), 0.0));
+        assertThrows(IllegalArgumentException.class, () -> compact.allowRequest((ByteBuffer) null, 0.0));
+    }
+
+    @Test
+    void testKeyedMetricsNameRejectedUser() {
+        LimiterMetrics metrics = new LimiterMetrics(1, 4);
+        ConcurrentLeakyBucketRateLimiter metered = ConcurrentLeakyBucketRateLimiter.createRateLimiter(
+                new PrimitiveBucketStore(CAPACITY, LEAK_RATE, 64), System::nanoTime, metrics);
+        for (int i = 0; i < 7; i++) {
+            metered.allowRequest(99L, 0.0);
+        }
+        metered.allowRequest(ByteBuffer.wrap("99".getBytes(StandardCharsets.US_ASCII)), 0.0);
+
+        MetricsSnapshot snapshot = metered.getMetrics();
+        assertEquals(5, snapshot.getAllowedCount());
+        assertEquals(3, snapshot.getRejectedCount());
+        assertEquals(8, snapshot.getLatency().getCount());
+        assertEquals("99", metrics.getTopRejected().get(0).getKey());
+        assertEquals(3, metrics.getTopRejected().get(0).getCount());
+    }
+}
@@ -2,10 +2,18 @@ package com.moovup.service;
 
 import com.moovup.model.AllowRequest;
 import com.moovup.model.Bucket;
+import com.moovup.snapshot.ChangeLogCompactor;
+import com.moovup.snapshot.ChangeLogReader;
+import com.moovup.snapshot.ChangeLogWriter;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 public class LeakyBucketRateLimiterTest {
 
@@ -14,6 +22,9 @@ public class LeakyBucketRateLimiterTest {
     private static final double LEAK_RATE = 1.0;
     private static final double DELTA = 0.001;
 
+    @TempDir
+    Path directory;
+
     @BeforeEach
     void setUp() {
         limiter = LeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE);
@@ -234,4 +245,250 @@ public class LeakyBucketRateLimiterTest {
                 LeakyBucketRateLimiter.getBucketState(currentLimiter, "user1");
         assertEquals(3.0, bucket.getCurrentLevel(), DELTA);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testOldSnapshotsStayUnchanged() {
+        AllowRequest first =
+                LeakyBucketRateLimiter.allowRequest(limiter, "user1", 0.0);
+        LeakyBucketRateLimiter snapshot = first.getNewLimiterState();
+        AllowRequest second =
+                LeakyBucketRateLimiter.allowRequest(snapshot, "user1", 0.0, 3.0);
+        AllowRequest third =
+                LeakyBucketRateLimiter.allowRequest(second.getNewLimiterState(), "user2", 4.0);
+
+        assertEquals(0, limiter.getUserCount());
+        assertEquals(1, snapshot.getUserCount());
+        assertEquals(1.0, LeakyBucketRateLimiter.getBucketState(snapshot, "user1").getCurrentLevel(), DELTA);
+        assertNull(LeakyBucketRateLimiter.getBucketState(snapshot, "user2"));
+        assertEquals(4.0, LeakyBucketRateLimiter.getBucketState(
+                second.getNewLimiterState(), "user1").getCurrentLevel(), DELTA);
+        assertEquals(2, third.getNewLimiterState().getUserCount());
+    }
+
+    @Test
+    void testManyUsersAcrossVersions() {
+        LeakyBucketRateLimiter currentLimiter = limiter;
+        for (int i = 0; i < 2_000; i++) {
+            currentLimiter = LeakyBucketRateLimiter
+                    .allowRequest(currentLimiter, "user" + i, 0.0).getNewLimiterState();
+        }
+        assertEquals(2_000, currentLimiter.getUserCount());
+        assertEquals(2_000, LeakyBucketRateLimiter.getAllBucketStates(currentLimiter).size());
+        for (int i = 0; i < 2_000; i++) {
+            assertEquals(1.0, LeakyBucketRateLimiter
+                    .getBucketState(currentLimiter, "user" + i).getCurrentLevel(), DELTA);
+        }
+    }
+
+    @Test
+    void testBatchMatchesSequentialRequests() {
+        Random random = new Random(3);
+        int size = 500;
+        String[] userIds = new String[size];
+        double[] timestamps = new double[size];
+        double[] sizes = new double[size];
+        for (int i = 0; i < size; i++) {
+            userIds[i] = "user" + random.nextInt(20);
+            timestamps[i] = random.nextInt(50) / 4.0;
+            sizes[i] = 0.5 + random.nextInt(4) * 0.5;
+        }
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        java.util.Arrays.sort(order, (a, b) -> Double.compare(timestamps[a], timestamps[b]));
+        boolean[] expected = new boolean[size];
+        LeakyBucketRateLimiter sequential = limiter;
+        for (int i : order) {
+            AllowRequest result = LeakyBucketRateLimiter.allowRequest(
+                    sequential, userIds[i], timestamps[i], sizes[i]);
+            expected[i] = result.isAllowed();
+            sequential = result.getNewLimiterState();
+        }
+
+        boolean[] results = new boolean[size];
+        LeakyBucketRateLimiter batched =
+                LeakyBucketRateLimiter.allowRequests(limiter, userIds, timestamps, sizes, results);
+
+        assertArrayEquals(expected, results);
+        assertEquals(sequential.getUserCount(), batched.getUserCount());
+        for (String userId : LeakyBucketRateLimiter.getAllBucketStates(sequential).keySet()) {
+            assertEquals(LeakyBucketRateLimiter.getBucketState(sequential, userId).getCurrentLevel(),
+                    LeakyBucketRateLimiter.getBucketState(batched, userId).getCurrentLevel(), DELTA);
+        }
+        assertEquals(0, limiter.getUserCount());
+    }
+
+    @Test
+    void testBatchInvalidInputs() {
+        boolean[] results = new boolean[2];
+        assertThrows(IllegalArgumentException.class, () -> LeakyBucketRateLimiter.allowRequests(
+                limiter, new String[] {"user1"}, new double[] {0.0, 1.0}, new double[] {1.0}, results));
+        assertThrows(IllegalArgumentException.class, () -> LeakyBucketRateLimiter.allowRequests(
+                limiter, new String[] {"user1", ""}, new double[2], new double[] {1.0, 1.0}, results));
+        assertThrows(IllegalArgumentException.class, () -> LeakyBucketRateLimiter.allowRequests(
+                limiter, null, new double[0], new double[0], results));
+    }
+
+    @Test
+    void testForEachBucketStateLeaksWithoutNewVersion() {
+        for (int i = 0; i < 4; i++) {
+            limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user1", 0.0).getNewLimiterState();
+        }
+        limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user2", 1.0).getNewLimiterState();
+
+        Map<String, Double> levels = new HashMap<>();
+        LeakyBucketRateLimiter.forEachBucketState(limiter, 3.0,
+                (userId, level, capacity, leakRate, lastLeakTime) -> levels.put(userId.toString(), level));
+        assertEquals(Map.of("user1", 1.0, "user2", 0.0), levels);
+        assertEquals(4.0, LeakyBucketRateLimiter.getBucketState(limiter, "user1").getCurrentLevel(), DELTA);
+        assertThrows(IllegalArgumentException.class, () -> LeakyBucketRateLimiter
+                .forEachBucketState(null, 0.0, (userId, level, capacity, leakRate, lastLeakTime) -> { }));
+    }
+
+    @Test
+    void testSnapshotRoundTrip() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user1", 0.0).getNewLimiterState();
+        }
+        limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user2", 1.0).getNewLimiterState();
+        Path path = directory.resolve("limiter.snap");
+        LeakyBucketRateLimiter.writeSnapshot(limiter, path);
+
+        for (LeakyBucketRateLimiter restored : new LeakyBucketRateLimiter[] {
+                LeakyBucketRateLimiter.restoreSnapshot(path), LeakyBucketRateLimiter.mapSnapshot(path)}) {
+            assertEquals(CAPACITY, restored.getCapacity(), DELTA);
+            assertEquals(2, restored.getUserCount());
+            assertEquals(5.0, LeakyBucketRateLimiter.getBucketState(restored, "user1").getCurrentLevel(), DELTA);
+            assertFalse(LeakyBucketRateLimiter.allowRequest(restored, "user1", 0.5).isAllowed());
+            assertTrue(LeakyBucketRateLimiter.allowRequest(restored, "user1", 1.0).isAllowed());
+        }
+    }
+
+    @Test
+    void testMappedSnapshotOverlaysNewRequests() throws IOException {
+        limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user1", 0.0).getNewLimiterState();
+        limiter = LeakyBucketRateLimiter.allowRequest(limiter, "user2", 0.0).getNewLimiterState();
+        Path path = directory.resolve("limiter.snap");
+        LeakyBucketRateLimiter.writeSnapshot(limiter, path);
+
+        LeakyBucketRateLimiter mapped = LeakyBucketRateLimiter.mapSnapshot(path);
+        mapped = LeakyBucketRateLimiter.allowRequest(mapped, "user1", 0.0).getNewLimiterState();
+        mapped = LeakyBucketRateLimiter.allowRequests(mapped, new String[] {"user2", "user3"},
+                new double[] {0.0, 0.0}, new double[] {1.0, 1.0}, new boolean[2]);
+        assertEquals(3, mapped.getUserCount());
+        Map<String, Bucket> states = LeakyBucketRateLimiter.getAllBucketStates(mapped);
+        assertEquals(3, states.size());
+        assertEquals(2.0, states.get("user1").getCurrentLevel(), DELTA);
+        assertEquals(2.0, states.get("user2").getCurrentLevel(), DELTA);
+        assertEquals(1.0, states.get("user3").getCurrentLevel(), DELTA);
+
+        Path second = directory.resolve("second.snap");
+        LeakyBucketRateLimiter.writeSnapshot(mapped, second);
+        assertEquals(3, LeakyBucketRateLimiter.restoreSnapshot(second).getUserCount());
+        assertThrows(IllegalArgumentException.class, () -> LeakyBucketRateLimiter.writeSnapshot(null, path));
+    }
+
+    @Test
+    void testRetryAfterAndHeadroom() {
+        AllowRequest result = LeakyBucketRateLimiter.allowRequest(limiter, "user1", 0.0, 3.0);
+        assertTrue(result.isAllowed());
+        assertEquals(0.0, result.getRetryAfter(), DELTA);
+        assertEquals(2.0, result.getHeadroom(), DELTA);
+
+        result = LeakyBucketRateLimiter.allowRequest(result.getNewLimiterState(), "user1", 0.5, 4.0);
+        assertFalse(result.isAllowed());
+        assertEquals(1.5, result.getRetryAfter(), DELTA);
+        assertEquals(2.5, result.getHeadroom(), DELTA);
+        assertTrue(LeakyBucketRateLimiter.allowRequest(result.getNewLimiterState(), "user1", 2.0, 4.0).isAllowed());
+
+        result = LeakyBucketRateLimiter.allowRequest(limiter, "user2", 0.0, 6.0);
+        assertEquals(Double.POSITIVE_INFINITY, result.getRetryAfter());
+    }
+
+    @Test
+    void testFollowerReplaysLeaderChangeLog() throws IOException {
+        Path log = directory.resolve("leader.log");
+        try (ChangeLogWriter writer = ChangeLogWriter.open(log, CAPACITY, LEAK_RATE);
+             ChangeLogReader reader = ChangeLogReader.open(log)) {
+            LeakyBucketRateLimiter leader = LeakyBucketRateLimiter.withChangeLog(limiter, writer);
+            LeakyBucketRateLimiter follower = LeakyBucketRateLimiter.createRateLimiter(CAPACITY, LEAK_RATE);
+            for (int i = 0; i < 4; i++) {
+                leader = LeakyBucketRateLimiter.allowRequest(leader, "user1", 0.0).getNewLimiterState();
+            }
+            writer.sync();
+            follower = LeakyBucketRateLimiter.applyChanges(follower, reader);
+            assertEquals(4.0, LeakyBucketRateLimiter.getBucketState(follower, "user1").getCurrentLevel(), DELTA);
+
+            boolean[] results = new boolean[3];
+            leader = LeakyBucketRateLimiter.allowRequests(leader, new String[] {"user1", "user2", "user1"},
+                    new double[] {1.0, 1.0, 1.0}, new double[] {1.0, 2.0, 1.0}, results);
+            writer.sync();
+            follower = LeakyBucketRateLimiter.applyChanges(follower, reader);
+            assertEquals(LeakyBucketRateLimiter.getAllBucketStates(leader).keySet(),
+                    LeakyBucketRateLimiter.getAllBucketStates(follower).keySet());
+            for (String userId : new String[] {"user1", "user2"}) {
+                assertEquals(LeakyBucketRateLimiter.getBucketState(leader, userId).getCurrentLevel(),
+                        LeakyBucketRateLimiter.getBucketState(follower, userId).getCurrentLevel(), DELTA);
+            }
+            assertEquals(2, follower.getUserCount());
+
+            try (ChangeLogWriter other = ChangeLogWriter.open(directory.resolve("other.log"),
+                    CAPACITY * 2, LEAK_RATE)) {
+                LeakyBucketRateLimiter current = leader;
+                assertThrows(IllegalArgumentException.class,
+                        () -> LeakyBucketRateLimiter.withChangeLog(current, other));
+            }
+
+            LeakyBucketRateLimiter detached = LeakyBucketRateLimiter.withChangeLog(leader, null);
+            LeakyBucketRateLimiter.allowRequest(detached, "user3", 2.0);
+            writer.sync();
+            assertEquals(2, LeakyBucketRateLimiter.applyChanges(follower, reader).getUserCount());
+        }
+    }
+
+    @Test
+    void testOnlyLatestLoggedVersionCanChange() throws IOException {
+        Path log = directory.resolve("leader.log");
+        try (ChangeLogWriter writer = ChangeLogWriter.open(log, CAPACITY, LEAK_RATE)) {
+            LeakyBucketRateLimiter base = LeakyBucketRateLimiter.withChangeLog(limiter, writer);
+            LeakyBucketRateLimiter leader = LeakyBucketRateLimiter.allowRequest(base, "user1", 0.0)
+                    .getNewLimiterState();
+            assertThrows(IllegalStateException.class,
+                    () -> LeakyBucketRateLimiter.allowRequest(base, "user2", 0.0));
+            assertThrows(IllegalStateException.class, () -> LeakyBucketRateLimiter.allowRequests(base,
+                    new String[] {"user2"}, new double[] {0.0}, new double[] {1.0}, new boolean[1]));
+
+            LeakyBucketRateLimiter branch = LeakyBucketRateLimiter.withChangeLog(base, null);
+            assertTrue(LeakyBucketRateLimiter.allowRequest(branch, "user2", 0.0).isAllowed());
+            leader = LeakyBucketRateLimiter.allowRequest(leader, "user1", 1.0).getNewLimiterState();
+            writer.sync();
+            assertEquals(2, writer.getAppendedCount());
+            assertEquals(1, leader.getUserCount());
+        }
+    }
+
+    @Test
+    void testFollowerStartsFromCompactedSnapshot() throws IOException {
+        Path log = directory.resolve("leader.log");
+        Path snapshot = directory.resolve("leader.snap");
+        long folded;
+        try (ChangeLogWriter writer = ChangeLogWriter.open(log, CAPACITY, LEAK_RATE)) {
+            LeakyBucketRateLimiter leader = LeakyBucketRateLimiter.withChangeLog(limiter, writer);
+            leader = LeakyBucketRateLimiter.allowRequest(leader, "user1", 0.0, 3.0).getNewLimiterState();
+            leader = LeakyBucketRateLimiter.allowRequest(leader, "user2", 0.0, 2.0).getNewLimiterState();
+            writer.sync();
+            folded = ChangeLogCompactor.compact(null, log, snapshot);
+            LeakyBucketRateLimiter.allowRequest(leader, "user1", 1.0, 1.0);
+        }
+
+        try (ChangeLogReader reader = ChangeLogReader.open(log, folded)) {
+            LeakyBucketRateLimiter follower = LeakyBucketRateLimiter.applyChanges(
+                    LeakyBucketRateLimiter.mapSnapshot(snapshot), reader);
+            assertEquals(2, follower.getUserCount());
+            assertEquals(3.0, LeakyBucketRateLimiter.getBucketState(follower, "user1").getCurrentLevel(), DELTA);
+            assertEquals(2.0, LeakyBucketRateLimiter.getBucketState(follower, "user2").getCurrentLevel(), DELTA);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.moovup.service;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TrafficShaperTest {
+
+    @Test
+    void testRequestsAreDelayedNotRejected() throws Exception {
+        ConcurrentLeakyBucketRateLimiter limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(2.0, 100.0);
+        try (TrafficShaper shaper = new TrafficShaper(limiter)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> admitted = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                admitted.add(shaper.acquire("user1"));
+            }
+            assertTrue(admitted.get(0).isDone());
+            assertTrue(admitted.get(1).isDone());
+            assertFalse(admitted.get(9).isDone());
+            CompletableFuture.allOf(admitted.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis >= 70, "Eight delayed requests took " + elapsedMillis + "ms");
+            assertEquals(0, shaper.getPendingCount());
+        }
+    }
+
+    @Test
+    void testOversizedAndClosed() throws Exception {
+        ConcurrentLeakyBucketRateLimiter limiter = ConcurrentLeakyBucketRateLimiter.createRateLimiter(2.0, 0.001);
+        TrafficShaper shaper = new TrafficShaper(limiter);
+        ExecutionException oversized = assertThrows(ExecutionException.class,
+                () -> shaper.acquire("user1", 3.0).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, oversized.getCause());
+
+        shaper.acquire("user1", 2.0).get(1, TimeUnit.SECONDS);
+        CompletableFuture<Void> waiting = shaper.acquire("user1");
+        assertEquals(1, shaper.getPendingCount());
+        shaper.close();
+        assertThrows(CancellationException.class, waiting::get);
+        assertThrows(IllegalStateException.class, () -> shaper.acquire("user1"));
+        assertThrows(IllegalArgumentException.class, () -> new TrafficShaper(null));
+    }
+}
@@ -0,0 +1,199 @@
+package com.moovup.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class ChangeLogTest {
+
+    private static final double DELTA = 0.001;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testFollowerTailsCommittedRecords() throws IOException {
+        Path path = directory.resolve("buckets.log");
+        try (ChangeLogWriter writer = ChangeLogWriter.open(path, 5.0, 1.0);
+             ChangeLogReader reader = ChangeLogReader.open(path)) {
+            assertEquals(5.0, reader.getCapacity(), DELTA);
+            assertEquals(0, reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> fail()));
+
+            writer.append("user1", 1.0, 0.5);
+            writer.append("ユーザー", 2.0, 0.5);
+            writer.sync();
+            List<String> seen = new ArrayList<>();
+            assertEquals(2, reader.poll((userId, level, capacity, leakRate, lastLeakTime) ->
+                    seen.add(userId + "=" + level + "@" + lastLeakTime)));
+            assertEquals(List.of("user1=1.0@0.5", "ユーザー=2.0@0.5"), seen);
+
+            writer.append("user1", 3.0, 1.5);
+            writer.sync();
+            seen.clear();
+            assertEquals(1, reader.poll((userId, level, capacity, leakRate, lastLeakTime) ->
+                    seen.add(userId + "=" + level + "@" + lastLeakTime)));
+            assertEquals(List.of("user1=3.0@1.5"), seen);
+        }
+    }
+
+    @Test
+    void testConcurrentAppendsShareCommits() throws Exception {
+        Path path = directory.resolve("buckets.log");
+        int threads = 4;
+        int perThread = 5_000;
+        try (ChangeLogWriter writer = ChangeLogWriter.open(path, 5.0, 1.0)) {
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        writer.append("user" + thread + "-" + i, 1.0, i);
+                    }
+                    done.countDown();
+                });
+            }
+            done.await();
+            writer.sync();
+            assertEquals(threads * perThread, writer.getAppendedCount());
+            assertTrue(writer.getCommitCount() < threads * perThread);
+        }
+        try (ChangeLogReader reader = ChangeLogReader.open(path)) {
+            Map<String, Double> last = new HashMap<>();
+            assertEquals(threads * perThread, reader.poll((userId, level, capacity, leakRate, lastLeakTime) ->
+                    last.put(userId.toString(), lastLeakTime)));
+            assertEquals(4_999.0, last.get("user3-4999"), DELTA);
+        }
+    }
+
+    @Test
+    void testReopenDropsTornTail() throws IOException {
+        Path path = directory.resolve("buckets.log");
+        try (ChangeLogWriter writer = ChangeLogWriter.open(path, 5.0, 1.0)) {
+            writer.append("user1", 1.0, 0.0);
+        }
+        long committed = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(20).putInt(0, 64).putInt(4, 1));
+        }
+        try (ChangeLogReader reader = ChangeLogReader.open(path)) {
+            assertEquals(1, reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> { }));
+        }
+
+        try (ChangeLogWriter writer = ChangeLogWriter.open(path, 5.0, 1.0)) {
+            assertEquals(committed, Files.size(path));
+            writer.append("user2", 2.0, 1.0);
+        }
+        try (ChangeLogReader reader = ChangeLogReader.open(path)) {
+            assertEquals(2, reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> { }));
+        }
+        assertThrows(IOException.class, () -> ChangeLogWriter.open(path, 6.0, 1.0));
+    }
+
+    @Test
+    void testCorruptFrameIsReported() throws IOException {
+        Path path = directory.resolve("buckets.log");
+        try (ChangeLogWriter writer = ChangeLogWriter.open(path, 5.0, 1.0)) {
+            writer.append("user1", 1.0, 0.0);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), Files.size(path) - 1);
+        }
+        try (ChangeLogReader reader = ChangeLogReader.open(path)) {
+            assertThrows(IOException.class, () -> reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> { }));
+        }
+        Path other = directory.resolve("other.log");
+        Files.write(other, new byte[64]);
+        assertThrows(IOException.class, () -> ChangeLogReader.open(other));
+    }
+
+    @Test
+    void testCompactionFoldsLogIntoSnapshot() throws IOException {
+        Path log = directory.resolve("buckets.log");
+        Path snapshot = directory.resolve("buckets.snap");
+        try (SnapshotWriter writer = SnapshotWriter.create(snapshot, 5.0, 1.0, 2)) {
+            writer.append("user1", 4.0, 0.0);
+            writer.append("user2", 4.0, 0.0);
+            writer.commit();
+        }
+        long folded;
+        try (ChangeLogWriter writer = ChangeLogWriter.open(log, 5.0, 1.0)) {
+            writer.append("user2", 1.0, 1.0);
+            writer.append("user3", 2.0, 1.0);
+            writer.append("user2", 3.0, 2.0);
+            writer.sync();
+            folded = ChangeLogCompactor.compact(snapshot, log, snapshot);
+            writer.append("user1", 5.0, 3.0);
+        }
+
+        MappedSnapshot compacted = MappedSnapshot.open(snapshot);
+        assertEquals(3, compacted.size());
+        assertEquals(4.0, compacted.get("user1").getCurrentLevel(), DELTA);
+        assertEquals(3.0, compacted.get("user2").getCurrentLevel(), DELTA);
+        assertEquals(2.0, compacted.get("user2").getLastLeakTime(), DELTA);
+        assertEquals(2.0, compacted.get("user3").getCurrentLevel(), DELTA);
+
+        try (ChangeLogReader reader = ChangeLogReader.open(log, folded)) {
+            List<String> tail = new ArrayList<>();
+            reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> tail.add(userId.toString()));
+            assertEquals(List.of("user1"), tail);
+        }
+    }
+
+    @Test
+    void testCompactionThroughWriterShrinksLog() throws IOException {
+        Path log = directory.resolve("buckets.log");
+        Path snapshot = directory.resolve("buckets.snap");
+        long folded;
+        try (ChangeLogWriter writer = ChangeLogWriter.open(log, 5.0, 1.0);
+             ChangeLogReader follower = ChangeLogReader.open(log)) {
+            for (int i = 0; i < 1_000; i++) {
+                writer.append("user" + i % 10, i % 5, i);
+            }
+            writer.sync();
+            long before = Files.size(log);
+
+            folded = ChangeLogCompactor.compact(null, writer, snapshot);
+            assertTrue(Files.size(log) < before);
+            assertEquals(ChangeLogReader.HEADER_BYTES, Files.size(log));
+            assertFalse(Files.exists(directory.resolve("buckets.log.compacting")));
+
+            writer.append("user1", 5.0, 2_000.0);
+            writer.sync();
+            // a reader opened before the rotation still sees the old records, then the marker
+            assertEquals(1_000, follower.poll((userId, level, capacity, leakRate, lastLeakTime) -> { }));
+            assertTrue(follower.isRotated());
+            assertEquals(0, follower.poll((userId, level, capacity, leakRate, lastLeakTime) -> fail()));
+            try (ChangeLogReader next = follower.followRotation()) {
+                assertNotSame(follower, next);
+                assertFalse(next.isRotated());
+                List<String> moved = new ArrayList<>();
+                next.poll((userId, level, capacity, leakRate, lastLeakTime) -> moved.add(userId.toString()));
+                assertEquals(List.of("user1"), moved);
+                assertSame(next, next.followRotation());
+            }
+        }
+
+        MappedSnapshot compacted = MappedSnapshot.open(snapshot);
+        assertEquals(10, compacted.size());
+        assertEquals(999.0, compacted.get("user9").getLastLeakTime(), DELTA);
+        try (ChangeLogReader reader = ChangeLogReader.open(log, folded)) {
+            List<String> tail = new ArrayList<>();
+            reader.poll((userId, level, capacity, leakRate, lastLeakTime) -> tail.add(userId + "=" + level));
+            assertEquals(List.of("user1=5.0"), tail);
+        }
+        try (ChangeLogWriter reopened = ChangeLogWriter.open(log, 5.0, 1.0)) {
+            assertThrows(IllegalArgumentException.class, () -> reopened.rotate(null));
+        }
+    }
+}
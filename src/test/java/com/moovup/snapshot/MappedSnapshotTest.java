@@ -0,0 +1,68 @@
+package com.moovup.snapshot;
+
+import com.moovup.model.Bucket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MappedSnapshotTest {
+
+    private static final double DELTA = 0.001;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWriteAndLookUp() throws IOException {
+        Path path = directory.resolve("buckets.snap");
+        try (SnapshotWriter writer = SnapshotWriter.create(path, 5.0, 1.0, 10_000)) {
+            for (int i = 0; i < 10_000; i++) {
+                writer.append("user" + i, i % 5, i * 0.5);
+            }
+            writer.append("ユーザー", 2.5, 1.0);
+            writer.commit();
+        } catch (IllegalStateException e) {
+            assertEquals("Snapshot is full: 10000 buckets", e.getMessage());
+        }
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(directory.resolve("buckets.snap.tmp")));
+
+        try (SnapshotWriter writer = SnapshotWriter.create(path, 5.0, 1.0, 10_001)) {
+            for (int i = 0; i < 10_000; i++) {
+                writer.append("user" + i, i % 5, i * 0.5);
+            }
+            writer.append("ユーザー", 2.5, 1.0);
+            writer.commit();
+        }
+
+        MappedSnapshot snapshot = MappedSnapshot.open(path);
+        assertEquals(10_001, snapshot.size());
+        assertEquals(5.0, snapshot.getCapacity(), DELTA);
+        assertEquals(1.0, snapshot.getLeakRate(), DELTA);
+        Bucket bucket = snapshot.get("user1234");
+        assertEquals("user1234", bucket.getUserId());
+        assertEquals(4.0, bucket.getCurrentLevel(), DELTA);
+        assertEquals(617.0, bucket.getLastLeakTime(), DELTA);
+        assertEquals(2.5, snapshot.get("ユーザー").getCurrentLevel(), DELTA);
+        assertNull(snapshot.get("user10000"));
+        assertFalse(snapshot.containsKey("missing"));
+
+        Map<String, Bucket> all = new HashMap<>();
+        snapshot.forEach(all::put);
+        assertEquals(10_001, all.size());
+        assertEquals(3.0, all.get("user8").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testRejectsForeignFiles() throws IOException {
+        Path path = directory.resolve("other.bin");
+        Files.write(path, new byte[64]);
+        assertThrows(IOException.class, () -> MappedSnapshot.open(path));
+        assertThrows(IOException.class, () -> MappedSnapshot.open(directory.resolve("missing")));
+    }
+}
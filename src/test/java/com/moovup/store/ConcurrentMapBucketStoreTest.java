@@ -0,0 +1,154 @@
+package com.moovup.store;
+
+import com.moovup.model.PackedBucketFormat;
+import com.moovup.policy.PolicyRegistry;
+import com.moovup.policy.RatePolicy;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentMapBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @Test
+    void testDrainedBucketsAreEvicted() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5.0, 1.0);
+        for (int i = 0; i < 100; i++) {
+            store.allowRequest("user" + i, nanos(0.0), i % 5 + 1);
+        }
+        assertEquals(100, store.size());
+
+        store.evictExpired(3.0);
+        assertEquals(40, store.size());
+        assertNull(store.getBucketState("user0"));
+        assertEquals(4.0, store.getBucketState("user3").getCurrentLevel(), DELTA);
+
+        store.evictExpired(5.0);
+        assertEquals(0, store.size());
+        assertEquals(100, store.getEvictionCount());
+    }
+
+    @Test
+    void testRequestsDriveEviction() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5.0, 1.0);
+        for (int i = 0; i < 100; i++) {
+            store.allowRequest("idle" + i, nanos(0.0), 1.0);
+        }
+        // eviction follows the lowest timestamp of a window of requests, and
+        // takes drained buckets once they sit a whole round unused
+        for (int i = 0; i < 64; i++) {
+            store.allowRequest("active", nanos(10.0), 0.0);
+        }
+        store.allowRequest("active", nanos(12.0), 0.0);
+        assertEquals(101, store.size());
+        for (int i = 0; i < 64; i++) {
+            store.allowRequest("active", nanos(12.0), 0.0);
+        }
+        store.allowRequest("active", nanos(14.0), 1.0);
+        assertEquals(1, store.size());
+        assertEquals(1.0, store.getBucketState("active").getCurrentLevel(), DELTA);
+    }
+
+    @Test
+    void testFutureTimestampDoesNotEvictOtherBuckets() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5.0, 1.0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.allowRequest("user" + i, nanos(0.0), 5.0));
+        }
+        store.allowRequest("skewed", nanos(100_000.0), 1.0);
+        assertFalse(store.allowRequest("user1", nanos(1.0), 2.0));
+        store.allowRequest("skewed", nanos(200_000.0), 1.0);
+        assertFalse(store.allowRequest("user2", nanos(2.0), 4.0));
+        assertEquals(11, store.size());
+        assertEquals(0, store.getEvictionCount());
+
+        // once windows of requests are past the drain time the buckets go
+        for (int i = 0; i < 256; i++) {
+            store.allowRequest("user1", nanos(6.0 + i / 64.0), 0.0);
+        }
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    void testLaggingCallerKeepsBucketsInUse() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(5.0, 1.0);
+        assertTrue(store.allowRequest("lagging", nanos(0.0), 2.0));
+        // other callers run the clock seconds past the lagging one's drain time
+        for (int i = 0; i < 128; i++) {
+            store.allowRequest("fast" + i % 4, nanos(8.0 + i / 128.0), 0.0);
+        }
+        assertFalse(store.allowRequest("lagging", nanos(0.5), 4.0));
+        for (int i = 0; i < 128; i++) {
+            store.allowRequest("fast" + i % 4, nanos(9.0 + i / 128.0), 0.0);
+        }
+        assertTrue(store.allowRequest("lagging", nanos(1.0), 4.0));
+        assertEquals(5.0, store.getCurrentLevel("lagging", nanos(1.0)), DELTA);
+        assertEquals(0, store.getEvictionCount());
+
+        // left unused for a whole round, it goes
+        for (int i = 0; i < 256; i++) {
+            store.allowRequest("fast" + i % 4, nanos(10.0 + i / 128.0), 0.0);
+        }
+        assertNull(store.getBucketState("lagging"));
+    }
+
+    @Test
+    void testEvictionKeepsAdmissionsCorrect() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(2.0, 1.0);
+        assertTrue(store.allowRequest("user1", nanos(0.0), 2.0));
+        store.evictExpired(2.0);
+        assertNull(store.getBucketState("user1"));
+        assertTrue(store.allowRequest("user1", nanos(2.0), 2.0));
+        assertFalse(store.allowRequest("user1", nanos(2.0), 1.0));
+    }
+
+    @Test
+    void testZeroLeakRateBucketsAreKept() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(2.0, 0.0);
+        store.allowRequest("user1", nanos(0.0), 1.0);
+        store.evictExpired(1_000_000.0);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void testMaxKeysBoundEvictsUnreferencedBuckets() {
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(10.0, 0.001, 100);
+        for (int i = 0; i < 1_000; i++) {
+            store.allowRequest("user" + i, nanos(0.0), 1.0);
+            store.allowRequest("hot", nanos(0.0), 0.001);
+        }
+        store.evictExpired(0.0);
+
+        assertTrue(store.size() <= 100, "size " + store.size());
+        assertNotNull(store.getBucketState("hot"));
+        assertEquals(900, store.getEvictionCount(), 1);
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentMapBucketStore(1.0, 1.0, 0));
+    }
+
+    @Test
+    void testTieredPoliciesAndLiveUpdates() {
+        PolicyRegistry policies = new PolicyRegistry(new RatePolicy("free", 2.0, 1.0), 100.0);
+        int pro = policies.register(new RatePolicy("pro", 10.0, 5.0));
+        policies.setResolver(userId -> userId.startsWith("pro-") ? pro : PolicyRegistry.DEFAULT_POLICY);
+        ConcurrentMapBucketStore store = new ConcurrentMapBucketStore(policies);
+
+        assertTrue(store.allowRequest("free-1", nanos(0.0), 2.0));
+        assertFalse(store.allowRequest("free-1", nanos(0.0), 1.0));
+        assertTrue(store.allowRequest("pro-1", nanos(0.0), 10.0));
+        assertEquals(10.0, store.getBucketState("pro-1").getCapacity(), DELTA);
+        assertEquals(2.0, store.getCapacity(), DELTA);
+
+        policies.update(PolicyRegistry.DEFAULT_POLICY, new RatePolicy("free", 4.0, 1.0));
+        assertTrue(store.allowRequest("free-1", nanos(0.0), 2.0));
+        assertEquals(4.0, store.getBucketState("free-1").getCurrentLevel(), DELTA);
+
+        policies.assign("free-1", pro);
+        assertTrue(store.allowRequest("free-1", nanos(0.0), 6.0));
+        assertEquals(10.0, store.getBucketState("free-1").getCapacity(), DELTA);
+        assertEquals(5.0, store.getBucketState("free-1").getLeakRate(), DELTA);
+    }
+}
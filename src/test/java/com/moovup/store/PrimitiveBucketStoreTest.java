@@ -0,0 +1,164 @@
+package com.moovup.store;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+public class PrimitiveBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @Test
+    void testBurstAndLeak() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(5.0, 1.0, 16);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(store.allowRequest("user1", nanos(0.0), 1.0));
+        }
+        assertFalse(store.allowRequest("user1", nanos(0.0), 1.0));
+        assertTrue(store.allowRequest("user1", nanos(2.0), 1.0));
+
+        Bucket bucket = store.getBucketState("user1");
+        assertEquals("user1", bucket.getUserId());
+        assertEquals(4.0, bucket.getCurrentLevel(), DELTA);
+        assertEquals(2.0, bucket.getLastLeakTime(), DELTA);
+        assertNull(store.getBucketState("user2"));
+    }
+
+    @Test
+    void testManyUsersStayIsolated() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(3.0, 1.0, 10_000);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(store.allowRequest("user" + i, nanos(0.0), i % 3 + 1));
+        }
+        assertEquals(10_000, store.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i % 3 + 1, store.getBucketState("user" + i).getCurrentLevel(), DELTA);
+        }
+
+        Map<String, Bucket> all = new HashMap<>();
+        store.forEach(all::put);
+        assertEquals(10_000, all.size());
+    }
+
+    @Test
+    void testFullTableEvictsInsteadOfFailing() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(1.0, 1.0, 3);
+        assertEquals(4, store.getSlotCount());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(store.allowRequest("user" + i, nanos(0.0), 1.0));
+        }
+        // nothing has drained, so the least full bucket makes room
+        assertTrue(store.allowRequest("user3", nanos(0.5), 0.5));
+        assertEquals(3, store.size());
+        assertEquals(0.5, store.getCurrentLevel("user3", nanos(0.5)), DELTA);
+        assertThrows(IllegalArgumentException.class, () -> new PrimitiveBucketStore(1.0, 1.0, 0));
+    }
+
+    @Test
+    void testDrainedBucketsMakeRoomFirst() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(10.0, 1.0, 3);
+        assertTrue(store.allowRequest("busy", nanos(0.0), 9.0));
+        assertTrue(store.allowRequest("idle1", nanos(0.0), 1.0));
+        assertTrue(store.allowRequest("idle2", nanos(0.0), 1.0));
+
+        assertTrue(store.allowRequest("new1", nanos(2.0), 1.0));
+        assertTrue(store.allowRequest("new2", nanos(2.0), 1.0));
+        assertEquals(3, store.size());
+        assertEquals(7.0, store.getCurrentLevel("busy", nanos(2.0)), DELTA);
+        assertNull(store.getBucketState("idle1"));
+        assertNull(store.getBucketState("idle2"));
+    }
+
+    @Test
+    void testChurnReusesSlotsAndKeepsLiveBuckets() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(100.0, 1.0, 16);
+        int slots = store.getSlotCount();
+        assertTrue(store.allowRequest("steady", nanos(0.0), 50.0));
+        for (int i = 0; i < 40_000; i++) {
+            double now = i * 0.001;
+            assertTrue(store.allowRequest("guest" + i, nanos(now), 0.0005), "guest" + i);
+        }
+        assertEquals(slots, store.getSlotCount());
+        assertTrue(store.size() <= 16);
+        assertEquals(10.0, store.getCurrentLevel("steady", nanos(40.0)), DELTA);
+        assertNull(store.getBucketState("guest0"));
+    }
+
+    @Test
+    void testVisitorSeesLeakedLevelsWithoutChangingState() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(5.0, 1.0, 1_000);
+        for (int i = 0; i < 1_000; i++) {
+            store.allowRequest("user" + i, nanos(0.0), 4.0);
+        }
+        assertEquals(1.5, store.getCurrentLevel("user7", nanos(2.5)), DELTA);
+        assertEquals(0.0, store.getCurrentLevel("missing", nanos(2.5)), DELTA);
+
+        Map<String, Double> levels = new HashMap<>();
+        store.forEachBucket(nanos(3.0), (userId, level, capacity, leakRate, lastLeakTime) -> {
+            assertEquals(3.0, lastLeakTime, DELTA);
+            levels.put(userId.toString(), level);
+        });
+        Map<String, Bucket> buckets = new HashMap<>();
+        store.forEach(buckets::put);
+        assertEquals(buckets.keySet(), levels.keySet());
+        assertEquals(1.0, levels.values().iterator().next(), DELTA);
+        assertEquals(4.0, store.getBucketState("user7").getCurrentLevel(), DELTA);
+
+        Map<String, Double> parallel = new ConcurrentHashMap<>();
+        DoubleAdder total = new DoubleAdder();
+        store.forEachBucketParallel(nanos(3.0), (userId, level, capacity, leakRate, lastLeakTime) -> {
+            parallel.put(userId.toString(), level);
+            total.add(level);
+        });
+        assertEquals(levels, parallel);
+        assertEquals(1_000.0, total.sum(), DELTA);
+    }
+
+    @Test
+    void testKeyHashOverloadsMatchStringForm() {
+        long[] ids = {0, 7, 10, 42, -1, 1_000_000_007, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long id : ids) {
+            assertEquals(KeyHash.hash(Long.toString(id)), KeyHash.hash(id), "id " + id);
+        }
+        byte[] header = "X-Api-Key: ak_live_42\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(KeyHash.hash("ak_live_42"), KeyHash.hash(header, 11, 10));
+        ByteBuffer direct = ByteBuffer.allocateDirect(header.length).put(header).position(11).limit(21);
+        assertEquals(KeyHash.hash("ak_live_42"), KeyHash.hash(direct));
+        assertEquals(11, direct.position());
+        assertEquals(KeyHash.hash("\u00e9"), KeyHash.hash(new byte[] {(byte) 0xe9}, 0, 1));
+    }
+
+    @Test
+    void testNumericAndByteKeysShareTheStringBucket() {
+        PrimitiveBucketStore store = new PrimitiveBucketStore(5.0, 1.0, 16);
+        byte[] key = " 12345 ".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(store.allowRequest("12345", nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest(12345L, nanos(0.0), 2.0));
+        assertEquals(0, store.tryAllowRequest(key, 1, 5, nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest(ByteBuffer.wrap(key, 1, 5), nanos(0.0), 1.0));
+        assertEquals(nanos(1.0), store.tryAllowRequest(12345L, nanos(0.0), 1.0));
+        assertEquals(1, store.size());
+        assertEquals(5.0, store.getCurrentLevel("12345", nanos(0.0)), DELTA);
+    }
+
+    @Test
+    void testDefaultKeyOverloadsDecodeToString() {
+        BucketStore store = new ConcurrentMapBucketStore(5.0, 1.0);
+        assertEquals(0, store.tryAllowRequest(-9L, nanos(0.0), 2.0));
+        assertEquals(0, store.tryAllowRequest("id=-9".getBytes(StandardCharsets.US_ASCII), 3, 2, nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest(ByteBuffer.wrap(new byte[] {'-', '9'}), nanos(0.0), 1.0));
+        assertEquals(4.0, store.getBucketState("-9").getCurrentLevel(), DELTA);
+        assertEquals(1, store.size());
+    }
+}
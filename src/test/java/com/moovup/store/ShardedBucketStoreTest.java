@@ -0,0 +1,103 @@
+package com.moovup.store;
+
+import com.moovup.metrics.MetricsSnapshot;
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+
+public class ShardedBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @Test
+    void testUsersSpreadAcrossIndependentShards() {
+        ShardedBucketStore store = new ShardedBucketStore(5.0, 1.0, 8);
+        for (int i = 0; i < 8_000; i++) {
+            assertTrue(store.allowRequest("user" + i, nanos(0.0), 2.0));
+        }
+        assertEquals(8_000, store.size());
+        int total = 0;
+        for (int shard = 0; shard < store.getShardCount(); shard++) {
+            int size = store.getShard(shard).size();
+            assertTrue(size > 800 && size < 1_200, "Shard " + shard + " holds " + size);
+            total += size;
+        }
+        assertEquals(8_000, total);
+
+        String userId = "user42";
+        assertEquals(2.0, store.getShard(store.shardIndex(userId)).getBucketState(userId).getCurrentLevel(), DELTA);
+        assertTrue(store.allowRequest(userId, nanos(0.0), 3.0));
+        assertFalse(store.allowRequest(userId, nanos(0.0), 1.0));
+        assertEquals(4.0, store.getCurrentLevel(userId, nanos(1.0)), DELTA);
+
+        Map<String, Bucket> all = new HashMap<>();
+        store.forEach(all::put);
+        assertEquals(8_000, all.size());
+        DoubleAdder levels = new DoubleAdder();
+        store.forEachBucketParallel(nanos(0.0),
+                (id, level, capacity, leakRate, lastLeakTime) -> levels.add(level));
+        assertEquals(16_003.0, levels.sum(), DELTA);
+    }
+
+    @Test
+    void testNumericAndByteIdsReachTheStringIdsShard() {
+        ShardedBucketStore store = new ShardedBucketStore(16,
+                shard -> new PrimitiveBucketStore(5.0, 1.0, 1_000));
+        byte[] bytes = "x12345y".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(0, store.tryAllowRequest(12345L, nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest(bytes, 1, 5, nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest(ByteBuffer.wrap(bytes, 1, 5), nanos(0.0), 1.0));
+        assertEquals(0, store.tryAllowRequest("12345", nanos(0.0), 1.0));
+        assertEquals(1, store.size());
+        assertEquals(4.0, store.getShard(store.shardIndex("12345")).getCurrentLevel("12345", nanos(0.0)), DELTA);
+    }
+
+    @Test
+    void testShardMetricsCountTheirOwnTraffic() {
+        ShardedBucketStore store = new ShardedBucketStore(2.0, 1.0, 4);
+        String hot = "hot";
+        for (int i = 0; i < 5; i++) {
+            store.tryAllowRequest(hot, nanos(0.0), 1.0);
+        }
+        for (int i = 0; i < 100; i++) {
+            store.tryAllowRequest("cold" + i, nanos(0.0), 1.0);
+        }
+        long allowed = 0;
+        long rejected = 0;
+        for (int shard = 0; shard < store.getShardCount(); shard++) {
+            MetricsSnapshot metrics = store.getShardMetrics(shard);
+            assertEquals(store.getShard(shard).size(), metrics.getBucketCount());
+            assertEquals(shard == store.shardIndex(hot) ? 3 : 0, metrics.getRejectedCount());
+            allowed += metrics.getAllowedCount();
+            rejected += metrics.getRejectedCount();
+        }
+        assertEquals(102, allowed);
+        assertEquals(3, rejected);
+    }
+
+    @Test
+    void testKeyBoundIsSplitAcrossShards() {
+        ShardedBucketStore store = new ShardedBucketStore(5.0, 1.0, 4, 100);
+        assertEquals(25, ((ConcurrentMapBucketStore) store.getShard(0)).getMaxKeys());
+        assertEquals(0, new ShardedBucketStore(5.0, 1.0, 1).shardIndex("anyone"));
+    }
+
+    @Test
+    void testInvalidShardConfigurations() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBucketStore(5.0, 1.0, 3));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBucketStore(5.0, 1.0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBucketStore(5.0, 1.0, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBucketStore(2,
+                shard -> new ConcurrentMapBucketStore(5.0, shard + 1.0)));
+    }
+}
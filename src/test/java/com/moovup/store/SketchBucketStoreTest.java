@@ -0,0 +1,182 @@
+package com.moovup.store;
+
+import com.moovup.model.Bucket;
+import com.moovup.model.PackedBucketFormat;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SketchBucketStoreTest {
+
+    private static final double DELTA = 0.001;
+
+    private static long nanos(double seconds) {
+        return PackedBucketFormat.toNanos(seconds);
+    }
+
+    @Test
+    void testSingleKeyBehavesLikeExactBucket() {
+        SketchBucketStore store = new SketchBucketStore(5.0, 1.0, 0.01, 0.01);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(store.allowRequest("user1", nanos(0.0), 1.0));
+        }
+        assertEquals(nanos(1.0), store.tryAllowRequest("user1", nanos(0.0), 1.0));
+        assertTrue(store.allowRequest("user1", nanos(2.0), 2.0));
+        assertEquals(5.0, store.getCurrentLevel("user1", nanos(2.0)), DELTA);
+        assertEquals(5.0, store.getBucketState("user1").getCurrentLevel(), DELTA);
+        assertNull(store.getBucketState("user2"));
+        assertEquals(Long.MAX_VALUE, store.tryAllowRequest("user1", nanos(2.0), 6.0));
+    }
+
+    @Test
+    void testSizedFromErrorBounds() {
+        SketchBucketStore store = new SketchBucketStore(5.0, 1.0, 0.001, 0.01);
+        assertEquals(5, store.getDepth());
+        assertEquals(4096, store.getWidth());
+        assertEquals(5L * 4096 * Long.BYTES, store.getStateBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> new SketchBucketStore(5.0, 1.0, 0.0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new SketchBucketStore(5.0, 1.0, 0.01, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> new SketchBucketStore(5.0, 1.0, 0.01, 0.01, -1));
+        assertThrows(IllegalArgumentException.class, () -> new SketchBucketStore(5.0, 1.0, 1e-9, 1e-9));
+    }
+
+    @Test
+    void testNeverAdmitsWhatAnExactBucketWouldReject() {
+        // a tiny sketch, so most keys collide
+        SketchBucketStore sketch = new SketchBucketStore(3.0, 1.0, 0.05, 0.1);
+        PrimitiveBucketStore exact = new PrimitiveBucketStore(3.0, 1.0, 1_000);
+        Random random = new Random(7);
+        int admitted = 0;
+        for (int i = 0; i < 20_000; i++) {
+            long key = random.nextInt(500);
+            long nanoTime = nanos(i / 1_000.0);
+            double size = 1 + random.nextInt(2);
+            if (sketch.tryAllowRequest(key, nanoTime, size) == 0) {
+                admitted++;
+                assertEquals(0, exact.tryAllowRequest(key, nanoTime, size), "key " + key + " at " + i);
+                assertTrue(sketch.getCurrentLevel(Long.toString(key), nanoTime)
+                        >= exact.getCurrentLevel(Long.toString(key), nanoTime) - DELTA);
+            }
+        }
+        assertTrue(admitted > 0);
+    }
+
+    @Test
+    void testMemoryStaysFixedUnderOneOffKeys() {
+        SketchBucketStore store = new SketchBucketStore(5.0, 1.0, 0.001, 0.001);
+        long bytes = store.getStateBytes();
+        for (int i = 0; i < 200_000; i++) {
+            store.allowRequest("attacker-" + i, nanos(i / 1_000.0), 1.0);
+        }
+        assertEquals(bytes, store.getStateBytes());
+        assertEquals(0, store.size());
+        assertTrue(store.allowRequest("user1", nanos(200.0), 5.0));
+    }
+
+    @Test
+    void testHeavyKeysArePromotedToExactBuckets() {
+        SketchBucketStore store = new SketchBucketStore(10.0, 1.0, 0.01, 0.01, 2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(store.allowRequest("heavy1", nanos(0.0), 1.0));
+        }
+        assertEquals(0, store.size());
+        assertTrue(store.allowRequest("heavy1", nanos(0.0), 1.0));
+        assertEquals(1, store.size());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(store.allowRequest("heavy1", nanos(0.0), 1.0));
+        }
+        assertFalse(store.allowRequest("heavy1", nanos(0.0), 1.0));
+        assertEquals(10.0, store.getBucketState("heavy1").getCurrentLevel(), DELTA);
+        assertEquals(8.0, store.getCurrentLevel("heavy1", nanos(2.0)), DELTA);
+        store.release("heavy1", nanos(2.0), 3.0);
+        assertEquals(5.0, store.getCurrentLevel("heavy1", nanos(2.0)), DELTA);
+
+        assertTrue(store.allowRequest("heavy2", nanos(0.0), 6.0));
+        assertTrue(store.allowRequest("heavy3", nanos(0.0), 6.0));
+        assertEquals(2, store.size());
+        assertFalse(store.allowRequest("heavy3", nanos(0.0), 5.0));
+
+        Map<String, Bucket> reported = new HashMap<>();
+        store.forEach(reported::put);
+        assertEquals(2, reported.size());
+        assertTrue(reported.containsKey(Long.toHexString(KeyHash.hash("heavy1"))));
+    }
+
+    @Test
+    void testDrainedPromotedKeysAreReclaimed() {
+        SketchBucketStore store = new SketchBucketStore(10.0, 1.0, 0.01, 0.01, 1);
+        assertTrue(store.allowRequest("heavy1", nanos(0.0), 6.0));
+        assertTrue(store.allowRequest("heavy2", nanos(0.0), 6.0));
+        assertEquals(1, store.size());
+
+        // heavy1 has drained by 10s, so heavy2 takes its place
+        assertTrue(store.allowRequest("heavy2", nanos(10.0), 6.0));
+        assertEquals(1, store.size());
+        Map<String, Bucket> reported = new HashMap<>();
+        store.forEach(reported::put);
+        assertEquals(Set.of(Long.toHexString(KeyHash.hash("heavy2"))), reported.keySet());
+        assertEquals(6.0, store.getCurrentLevel("heavy2", nanos(10.0)), DELTA);
+
+        assertEquals(0.0, store.getCurrentLevel("heavy1", nanos(10.0)), DELTA);
+        assertTrue(store.allowRequest("heavy1", nanos(10.0), 4.0));
+        assertEquals(4.0, store.getCurrentLevel("heavy1", nanos(10.0)), DELTA);
+        assertEquals(1, store.size());
+
+        // heavy2 still holds capacity, so it keeps its slot
+        assertTrue(store.allowRequest("heavy1", nanos(10.0), 1.0));
+        assertEquals(1, store.size());
+        assertFalse(store.allowRequest("heavy2", nanos(10.0), 5.0));
+    }
+
+    @Test
+    void testPromotionsRacingWithRequestsNeverOverfill() throws InterruptedException {
+        int keys = 200;
+        SketchBucketStore store = new SketchBucketStore(10.0, 0.0, 0.01, 0.01, keys);
+        AtomicInteger admitted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20; i++) {
+                    for (long key = 0; key < keys; key++) {
+                        if (store.tryAllowRequest(key, nanos(0.0), 1.0) == 0) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(keys, store.size());
+        assertEquals(keys * 10, admitted.get());
+    }
+
+    @Test
+    void testConcurrentRequestsOnSameKeyNeverOverfill() throws InterruptedException {
+        SketchBucketStore store = new SketchBucketStore(100.0, 0.0, 0.01, 0.01);
+        AtomicInteger admitted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (store.tryAllowRequest(42L, nanos(0.0), 1.0) == 0) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, admitted.get());
+    }
+}